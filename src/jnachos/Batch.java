@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent JNachos machines in one Java VM.
+ *
+ * Usage: java jnachos.Batch [-j threads] [-o directory] jobfile
+ *
+ * Each line of the job file holds the arguments of one run of jnachos.Main,
+ * for example "-rs 7 -x test/sort". Blank lines and lines starting with '#'
+ * are skipped. The jobs are run on a work-stealing pool, by default one
+ * thread per host CPU, and the output of job n is written to "job<n>.out"
+ * in the output directory ("batch" by default). A summary line per job is
+ * printed as the jobs finish, in job order.
+ *
+ * The kernel and machine keep all of their state in static fields, so each
+ * job loads its own copy of the JNachos classes with a class loader of its
+ * own. The threads of a job belong to a thread group of its own, which is
+ * how its output is told apart from that of the other jobs.
+ */
+public class Batch {
+	/** The number of jobs run at once. */
+	private static int mThreads = Runtime.getRuntime().availableProcessors();
+
+	/** The directory the output of each job is written to. */
+	private static String mOutputDir = "batch";
+
+	/** Where the JNachos classes are loaded from. */
+	private static URL mClassPath;
+
+	/**
+	 * Reads the job file and runs the jobs.
+	 *
+	 * @param args
+	 *            the command line arguments.
+	 */
+	public static void main(String args[]) throws Exception {
+		String jobFile = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-j") && (i + 1 < args.length)) {
+				mThreads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-o") && (i + 1 < args.length)) {
+				mOutputDir = args[++i];
+			} else {
+				jobFile = args[i];
+			}
+		}
+
+		if (jobFile == null) {
+			System.out.println("Usage: java jnachos.Batch [-j threads] [-o directory] jobfile");
+			return;
+		}
+
+		List<String> jobs = new ArrayList<String>();
+		try (BufferedReader in = new BufferedReader(new FileReader(jobFile))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					jobs.add(line);
+				}
+			}
+		}
+
+		new java.io.File(mOutputDir).mkdirs();
+		mClassPath = Batch.class.getProtectionDomain().getCodeSource().getLocation();
+
+		// From now on everything printed by a job goes to that job's output
+		PrintStream console = System.out;
+		PrintStream routed = new PrintStream(new JobOutput(console), true);
+		System.setOut(routed);
+		System.setErr(routed);
+
+		long start = System.currentTimeMillis();
+		ExecutorService pool = Executors.newWorkStealingPool(mThreads);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+
+		for (int i = 0; i < jobs.size(); i++) {
+			int number = i + 1;
+			String line = jobs.get(i);
+			results.add(pool.submit(() -> runJob(number, line)));
+		}
+
+		for (Future<String> result : results) {
+			console.println(result.get());
+		}
+
+		pool.shutdown();
+		console.println(jobs.size() + " jobs in " + (System.currentTimeMillis() - start) + " ms on " + mThreads
+				+ " threads");
+	}
+
+	/**
+	 * Runs one job to completion.
+	 *
+	 * @param pNumber
+	 *            the number of the job, from 1.
+	 * @param pLine
+	 *            the arguments to jnachos.Main.
+	 * @return the summary line for the job.
+	 */
+	private static String runJob(int pNumber, String pLine) throws Exception {
+		String[] args = pLine.split("\\s+");
+		long start = System.currentTimeMillis();
+		Job job = new Job(pNumber);
+
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { mClassPath },
+				ClassLoader.getPlatformClassLoader())) {
+			loader.loadClass("jnachos.kern.JNachos").getField("mInBatch").setBoolean(null, true);
+			Method main = loader.loadClass("jnachos.Main").getMethod("main", String[].class);
+
+			Thread boot = new Thread(job, () -> {
+				try {
+					main.invoke(null, (Object) args);
+				} catch (InvocationTargetException e) {
+					job.uncaughtException(Thread.currentThread(), e.getCause());
+				} catch (IllegalAccessException e) {
+					job.uncaughtException(Thread.currentThread(), e);
+				}
+			}, "job " + pNumber);
+
+			boot.start();
+			job.await();
+		}
+
+		try (OutputStream out = new FileOutputStream(mOutputDir + "/job" + pNumber + ".out")) {
+			job.mOutput.writeTo(out);
+		}
+
+		String ticks = "";
+		for (String line : job.mOutput.toString().split("\n")) {
+			if (line.startsWith("Ticks:")) {
+				ticks = ", " + line;
+			}
+		}
+
+		return "job " + pNumber + " [" + pLine + "] " + ((job.mFailure == null) ? "halted" : "FAILED: " + job.mFailure)
+				+ " in " + (System.currentTimeMillis() - start) + " ms" + ticks;
+	}
+}
+
+/**
+ * The threads of one job. Collects the job's output and notices when its
+ * machine halts.
+ */
+class Job extends ThreadGroup {
+	/** Everything the job has printed. */
+	ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+
+	/** The error that stopped the job, or null if its machine halted. */
+	volatile Throwable mFailure;
+
+	/** Counted down when the job is over. */
+	private CountDownLatch mDone = new CountDownLatch(1);
+
+	/**
+	 * Creates the thread group for a job.
+	 *
+	 * @param pNumber
+	 *            the number of the job.
+	 */
+	Job(int pNumber) {
+		super("job " + pNumber);
+	}
+
+	/**
+	 * Called when a thread of the job dies. A halting machine unwinds every
+	 * one of its threads with jnachos.kern.Halt; anything else is a failure,
+	 * and the remaining threads are interrupted so that they unwind too.
+	 *
+	 * @param pThread
+	 *            the thread.
+	 * @param pError
+	 *            what ended it.
+	 */
+	public void uncaughtException(Thread pThread, Throwable pError) {
+		if (!pError.getClass().getName().equals("jnachos.kern.Halt") && (mDone.getCount() > 0)) {
+			mFailure = pError;
+			pError.printStackTrace();
+			interrupt();
+		}
+
+		mDone.countDown();
+	}
+
+	/**
+	 * Waits for the job to end and for all of its threads to finish.
+	 */
+	void await() throws InterruptedException {
+		mDone.await();
+
+		Thread[] threads = new Thread[activeCount() + 16];
+		while (activeCount() > 0) {
+			int count = enumerate(threads);
+			for (int i = 0; i < count; i++) {
+				threads[i].join();
+			}
+		}
+	}
+}
+
+/**
+ * Standard output while a batch runs: sends what each thread prints to the
+ * output of its job, or to the console if it is not part of a job.
+ */
+class JobOutput extends OutputStream {
+	/** Where output from outside the jobs goes. */
+	private OutputStream mConsole;
+
+	/**
+	 * @param pConsole
+	 *            where output from outside the jobs goes.
+	 */
+	JobOutput(OutputStream pConsole) {
+		mConsole = pConsole;
+	}
+
+	public void write(int pByte) throws IOException {
+		target().write(pByte);
+	}
+
+	public void write(byte[] pBytes, int pOffset, int pLength) throws IOException {
+		target().write(pBytes, pOffset, pLength);
+	}
+
+	public void flush() throws IOException {
+		target().flush();
+	}
+
+	/**
+	 * @return the stream for the current thread.
+	 */
+	private OutputStream target() {
+		ThreadGroup group = Thread.currentThread().getThreadGroup();
+		return (group instanceof Job) ? ((Job) group).mOutput : mConsole;
+	}
+}
@@ -27,6 +27,23 @@
  *    -s causes user programs to be executed in single-step mode						 *
  *    -x runs a user program															 *
  *    -c tests the console																 *
+ *    -bt runs user programs a basic block at a time								 *
+ *    -om keeps the machine's main memory off the Java heap						 *
+ *    -pm <frames> limits user programs to that many frames, paging the rest	 *
+ *        (2 to NumPhysPages)														 *
+ *    -pr <policy> picks the page replacement policy (fifo, clock, enhanced,	 *
+ *        aging, wsclock)															 *
+ *    -ec <kilobytes> keeps that much of recently run executables (0: none)	 *
+ *    -ra <pages> reads that many pages of an executable ahead of a fault	 *
+ *    -tlb <entries> <ways> gives the machine a TLB with sets of <ways>		 *
+ *        (at least 2)																 *
+ *    -tp <policy> picks the TLB replacement policy (fifo, lru, random)		 *
+ *    -pf <ticks> profiles user programs, writing profile.folded at halt		 *
+ *    -sv <ticks> <file> saves a snapshot of the machine at that time		 *
+ *    -ld <file> runs from a snapshot instead of starting a program			 *
+ *    -rec <file> records when each interrupt is scheduled and delivered		 *
+ *    -rp <file> replays the interrupt times of a recording					 *
+ *    -cpus <n> runs user programs on n CPUs at once (1 to 64)				 *
  *																						 *
  *  FILESYS																				 *
  *    -f causes the physical disk to be formatted										 *
@@ -134,6 +151,12 @@ public class Main {
 				}
 				argCount = 2;
 			}
+			// Continue from a snapshot
+			else if (args[argv].compareTo("-ld") == 0) {
+				assert (argc > 0);
+				Snapshot.load(args[argv + 1]);
+				argCount = 2;
+			}
 			// Run a console
 			else if (args[argv].compareTo("-c") == 0) {
 				if (argc == 1) {
@@ -219,7 +219,7 @@ public class Directory {
 	 */
 	public int find(String pName) {
 		int i = findIndex(pName);
-		Debug.print('f', "FileName : " + pName + "  Found at : " + i);
+		Debug.print('f', () -> "FileName : " + pName + "  Found at : " + i);
 
 		if (i != -1) {
 			return mTable[i].mSector;
@@ -42,6 +42,16 @@ public interface FileSystem {
 	 */
 	public boolean remove(String pFileName);
 
+	/**
+	 * Gets a stamp that changes whenever the file is modified, so that what
+	 * was read from it can be kept and later checked for being current.
+	 * 
+	 * @param pFileName
+	 *            the name of the file.
+	 * @return the stamp, or -1 if the file does not exist or no stamp is kept.
+	 */
+	public long getStamp(String pFileName);
+
 	/**
 	 * Displays the list of files stored.
 	 */
@@ -39,7 +39,7 @@ public class FileSystemUtility {
 			long fileLength = in.length();
 
 			// Create a Nachos file of the same length
-			Debug.print('f', "Copying file " + from + ", size " + fileLength + " to file " + to);
+			Debug.print('f', () -> "Copying file " + from + ", size " + fileLength + " to file " + to);
 
 			// Create Nachos file
 			if (!JNachos.mFileSystem.create(to, (int) fileLength)) {
@@ -75,6 +75,19 @@ public class JavaFileSystem implements FileSystem {
 		return true;
 	}
 
+	/**
+	 * Gets the time the host file was last modified.
+	 * 
+	 * @param pName
+	 *            the name of the file.
+	 * @return the time, or -1 if the file does not exist.
+	 */
+	public long getStamp(String pName) {
+		long modified = JavaSys.lastModified(pName);
+
+		return (modified == 0) ? -1 : modified;
+	}
+
 	/**
 	 * Displays all of the files.
 	 */
@@ -175,7 +175,7 @@ public class NachosFileSystem implements FileSystem {
 		int sector;
 		boolean success;
 
-		Debug.print('f', "Creating file " + pName + ", size: " + pInitialSize);
+		Debug.print('f', () -> "Creating file " + pName + ", size: " + pInitialSize);
 
 		directory = new Directory(NumDirEntries);
 		directory.fetchFrom(mDirectoryFile);
@@ -204,7 +204,7 @@ public class NachosFileSystem implements FileSystem {
 					hdr.writeBack(sector);
 					directory.writeBack(mDirectoryFile);
 					freeMap.writeBack(mFreeMapFile);
-					Debug.print('f', "File created succesffully " + sector + "\t" + mDirectoryFile);
+					Debug.print('f', () -> "File created succesffully " + sector + "\t" + mDirectoryFile);
 				}
 				hdr.delete();
 			}
@@ -226,7 +226,7 @@ public class NachosFileSystem implements FileSystem {
 		NachosOpenFile openFile = null;
 		int sector;
 
-		Debug.print('f', "Opening file " + pName);
+		Debug.print('f', () -> "Opening file " + pName);
 		directory.fetchFrom(mDirectoryFile);
 
 		sector = directory.find(pName);
@@ -286,6 +286,17 @@ public class NachosFileSystem implements FileSystem {
 		return true;
 	}
 
+	/**
+	 * Files on the simulated disk keep no modification time.
+	 *
+	 * @param pName
+	 *            the text name of the file.
+	 * @return -1, always.
+	 */
+	public long getStamp(String pName) {
+		return -1;
+	}
+
 	/**
 	 * List all the files in the file system directory.
 	 */
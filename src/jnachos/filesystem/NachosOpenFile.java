@@ -120,7 +120,9 @@ public class NachosOpenFile implements OpenFile {
 			numBytes = fileLength - position;
 		}
 
-		Debug.print('f', "Reading " + numBytes + " bytes at " + position + ", from file of length " + fileLength);
+		if (Debug.isEnabled('f')) {
+			Debug.print('f', "Reading " + numBytes + " bytes at " + position + ", from file of length " + fileLength);
+		}
 
 		firstSector = (int) Math.floor((double) position / (double) Disk.SectorSize);
 		lastSector = (int) Math.floor(((double) position + numBytes - 1) / (double) Disk.SectorSize);
@@ -174,7 +176,9 @@ public class NachosOpenFile implements OpenFile {
 			numBytes = fileLength - position;
 		}
 
-		Debug.print('f', "Writing " + numBytes + " bytes at " + position + ", from file of length " + fileLength);
+		if (Debug.isEnabled('f')) {
+			Debug.print('f', "Writing " + numBytes + " bytes at " + position + ", from file of length " + fileLength);
+		}
 
 		// ceil
 		firstSector = (int) Math.floor(((double) position) / Disk.SectorSize);
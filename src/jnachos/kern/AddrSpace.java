@@ -7,31 +7,93 @@
  */
 package jnachos.kern;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import jnachos.machine.*;
 import jnachos.userbin.NoffHeader;
 import jnachos.filesystem.*;
-import java.util.Arrays;
 
 /**
  * Routines to manage address spaces (executing user programs).
  */
 public class AddrSpace {
 	/**
-	 * The page table for the process.
+	 * The page table for the process, one packed entry per page (see
+	 * PageTable). An entry that is not valid keeps the frame it last had.
 	 */
-	private TranslationEntry[] mPageTable;
+	private int[] mPageTable;
 
 	/**
 	 * The number of pages in this address space.
 	 */
 	private int mNumPages;
 
+	/**
+	 * The swap slot holding a copy of each page, -1 if it has none. A page
+	 * that is not in memory is always in its slot.
+	 */
+	private int[] mSwapSlot;
+
+	/**
+	 * True for each page shared copy-on-write with another address space
+	 * since a fork. Such a page is mapped read-only until it is written.
+	 */
+	private boolean[] mCopyOnWrite;
+
+	/**
+	 * True for each page that has not been used yet and starts out zero,
+	 * like the stack and uninitialized data. It has no frame or swap slot
+	 * until first used (see zeroFill).
+	 */
+	private boolean[] mZeroFill;
+
+	/**
+	 * True for each page of initialized data that still holds what the
+	 * executable does, so it is read from there whenever it is not in memory
+	 * (see loadData). Code pages always do.
+	 */
+	private boolean[] mInExecutable;
+
+	/**
+	 * The name of the executable loaded into this address space, null if not
+	 * known.
+	 */
+	private String mImageName;
+
+	/**
+	 * The number of pages at the start of the address space that hold only
+	 * code. They are mapped read-only and shared with every address space
+	 * running the same executable (see SharedText).
+	 */
+	private int mTextPages;
+
+	/** Names the executable in SharedText, null if there are no code pages. */
+	private String mTextKey;
+
+	/** The frame of each code page, shared through SharedText. */
+	private int[] mText;
+
+	/** The executable, to read code and initialized data pages from. */
+	private ExecutableImage mImage;
+
+	/** The address space identifier tagging its TLB entries (see TlbManager). */
+	private int mAsid;
+
+	/** The generation mAsid belongs to, 0 if it has none yet. */
+	private int mAsidGeneration = 0;
+
 	/**
 	 * Defines how large a user stack is. This maybe increased as necessary.
 	 */
 	public static final int UserStackSize = 1024;
 
-	public static BitMap mFreeMap = new BitMap(Machine.NumPhysPages);
+	/**
+	 * The number of pages after one read from the executable to read as well,
+	 * if there are free frames for them (set with -ra).
+	 */
+	public static int mPrefetchPages = 0;
 
 	/**
 	 * Do little endian to big endian conversion on the bytes in the object file
@@ -51,6 +113,17 @@ public class AddrSpace {
 		noffH.uninitData.inFileAddr = MipsSim.wordToHost(noffH.uninitData.inFileAddr);
 	}
 
+	/**
+	 * Create an address space to run a user program, without sharing its code
+	 * with other processes running the same file.
+	 *
+	 * @param executable
+	 *            is the file containing the object code to load into memory
+	 **/
+	public AddrSpace(OpenFile executable) {
+		this(new ExecutableImage(executable, null, -1));
+	}
+
 	/**
 	 * Create an address space to run a user program. Load the program from a
 	 * file "executable", and set everything up so that we can start executing
@@ -62,33 +135,26 @@ public class AddrSpace {
 	 * now, this is really simple (1:1), since we are only uniprogramming, and
 	 * we have a single unsegmented page table
 	 *
-	 * @param executable
-	 *            is the file containing the object code to load into memory
+	 * The pages holding only code are shared, read-only, with the other
+	 * address spaces running the same executable.
+	 *
+	 * @param pImage
+	 *            the executable to load, as parsed by ExecutableImage (or
+	 *            kept by ExecutableCache). Its code is only shared if its file
+	 *            name is known.
 	 **/
-	public AddrSpace(OpenFile executable) {
-		// Create buffer to hold onto the noff header
-		byte[] buffer = new byte[NoffHeader.size];
+	public AddrSpace(ExecutableImage pImage) {
+		mImageName = pImage.getName();
+		mImage = pImage;
 
-		// Read in the buffer
-		executable.readAt(buffer, NoffHeader.size, 0);
-
-		// Create a Noff Header with the data we read in
-		NoffHeader noffH = new NoffHeader(buffer);
-
-		// Check to see if the headers match
-		if ((noffH.noffMagic != NoffHeader.NOFFMAGIC)
-				&& (MipsSim.wordToHost(noffH.noffMagic) == NoffHeader.NOFFMAGIC)) {
-			// If so swap the headers
-			swapHeader(noffH);
-		}
-
-		// Make sure that the magic numbers match
-		assert (noffH.noffMagic == NoffHeader.NOFFMAGIC);
+		NoffHeader noffH = pImage.getHeader();
 
 		// how big is address space?
 		int size = noffH.code.size + noffH.initData.size + noffH.uninitData.size + UserStackSize;
 
-		Debug.print('a', "File Size:" + size);
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "File Size:" + size);
+		}
 
 		// Calculate the number of pages
 		mNumPages = (int) Math.ceil((double) size / (double) Machine.PageSize);
@@ -96,84 +162,647 @@ public class AddrSpace {
 		// Recalculate based on the number of pages
 		size = mNumPages * Machine.PageSize;
 
-		// check we're not trying to run anything too big --
-		// at least until we have virtual memory
-		assert (mNumPages <= Machine.NumPhysPages);
-
-		Debug.print('a', "Initializing address space, num pages " + mNumPages + ", size " + size);
-
-		// first, set up the translation
-		mPageTable = new TranslationEntry[mNumPages];
-		for (int i = 0; i < mNumPages; i++) {
-			mPageTable[i] = new TranslationEntry();
-			mPageTable[i].virtualPage = i;
-			mPageTable[i].physicalPage = mFreeMap.find();
-			mPageTable[i].valid = true;
-			mPageTable[i].use = false;
-			mPageTable[i].dirty = false;
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Initializing address space, num pages " + mNumPages + ", size " + size);
+		}
 
-			// if the code segment was entirely on
-			mPageTable[i].readOnly = false;
-			// a separate page, we could set its
-			// pages to be read-only
+		// The pages entirely inside the code segment can be shared
+		if ((mImageName != null) && (noffH.code.virtualAddr == 0)) {
+			mTextPages = noffH.code.size / Machine.PageSize;
+		}
 
-			// Zero out all of main memory
-			Arrays.fill(Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize,
-					(mPageTable[i].physicalPage + 1) * Machine.PageSize, (byte) 0);
+		// A modified executable is not shared with processes running the old
+		if (mTextPages > 0) {
+			mTextKey = mImageName + ":" + noffH.code.size + ":" + pImage.getStamp();
+			mText = SharedText.attach(mTextKey, mTextPages);
+		}
 
-			// Copy the code segment into memory
-			if ((i * Machine.PageSize) < (noffH.code.size + noffH.initData.size)) {
-				Debug.print('a',
-						"Initializing code segment, at " + noffH.code.virtualAddr + ", size " + noffH.code.size);
+		// first, set up the translation. Nothing is loaded yet: each page is
+		// given a frame when first used, and the code and initialized data
+		// are read from the executable then, a page at a time
+		mPageTable = new int[mNumPages];
+		mSwapSlot = new int[mNumPages];
+		mCopyOnWrite = new boolean[mNumPages];
+		mZeroFill = new boolean[mNumPages];
+		mInExecutable = new boolean[mNumPages];
+		for (int i = 0; i < mNumPages; i++) {
+			// The code pages are read-only
+			mPageTable[i] = isText(i) ? PageTable.ReadOnly : 0;
 
-				// Create a temporary buffer to copy the code
-				byte[] bytes = new byte[Machine.PageSize];
+			mSwapSlot[i] = -1;
 
-				// read the code into the buffer
-				executable.readAt(bytes, Machine.PageSize, noffH.code.inFileAddr + i * Machine.PageSize);
+			if (isText(i)) {
+				continue;
+			}
 
-				// Copy the buffer into the main memory
-				System.arraycopy(bytes, 0, Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize,
-						Machine.PageSize);
+			if (pImage.holds(i)) {
+				mInExecutable[i] = true;
+			} else {
+				mZeroFill[i] = true;
 			}
 		}
 	}
 
 	/**
-	 * 
+	 * Creates a copy of an address space, for a forked process. Nothing is
+	 * copied yet: every page is shared with the parent, in memory or in the
+	 * swap area, and mapped read-only in both. The first write to a page by
+	 * either process makes it a copy of its own (see copyOnWrite). Code pages
+	 * are read-only anyway and simply stay shared.
+	 *
 	 * @param pToCopy
+	 *            the address space of the parent.
 	 */
 	public AddrSpace(AddrSpace pToCopy) {
+		mImageName = pToCopy.mImageName;
+		mImage = pToCopy.mImage;
+		mTextPages = pToCopy.mTextPages;
+		mTextKey = pToCopy.mTextKey;
+
+		if (mTextPages > 0) {
+			mText = SharedText.attach(mTextKey, mTextPages);
+		}
 
 		// Calculate the number of pages
 		mNumPages = pToCopy.mNumPages;
 
-		// check we're not trying to run anything too big --
-		// at least until we have virtual memory
-		assert (mNumPages <= Machine.NumPhysPages);
-
 		// first, set up the translation
-		mPageTable = new TranslationEntry[mNumPages];
+		mPageTable = new int[mNumPages];
+		mSwapSlot = new int[mNumPages];
+		mCopyOnWrite = new boolean[mNumPages];
+		mZeroFill = new boolean[mNumPages];
+		mInExecutable = new boolean[mNumPages];
 		for (int i = 0; i < mNumPages; i++) {
-			mPageTable[i] = new TranslationEntry();
-			mPageTable[i].virtualPage = i;
-			mPageTable[i].physicalPage = mFreeMap.find();
-			mPageTable[i].valid = true;
-			mPageTable[i].use = false;
-			mPageTable[i].dirty = false;
+			int parent = pToCopy.mPageTable[i];
 
-			// if the code segment was entirely on
-			mPageTable[i].readOnly = false;
-			// a separate page, we could set its
-			// pages to be read-only
+			mPageTable[i] = parent & (PageTable.FrameMask | PageTable.Valid);
 
-			// Zero out all of main memory
-			Arrays.fill(Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize,
-					(mPageTable[i].physicalPage + 1) * Machine.PageSize, (byte) 0);
+			if (PageTable.isValid(parent)) {
+				CoreMap.share(PageTable.frame(parent), this);
+			}
+
+			if (isText(i)) {
+				mPageTable[i] |= PageTable.ReadOnly;
+				mSwapSlot[i] = -1;
+				continue;
+			}
+
+			// A page neither process has used yet is still all zeros
+			if (pToCopy.mZeroFill[i]) {
+				mZeroFill[i] = true;
+				mSwapSlot[i] = -1;
+				continue;
+			}
 
-			// Copy the buffer into the main memory
-			System.arraycopy(Machine.mMainMemory, pToCopy.mPageTable[i].physicalPage * Machine.PageSize,
-					Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize, Machine.PageSize);
+			mInExecutable[i] = pToCopy.mInExecutable[i];
+			mSwapSlot[i] = pToCopy.mSwapSlot[i];
+			if (mSwapSlot[i] >= 0) {
+				SwapSpace.share(mSwapSlot[i]);
+			}
+
+			pToCopy.mPageTable[i] |= PageTable.ReadOnly;
+			mPageTable[i] |= PageTable.ReadOnly;
+			pToCopy.mCopyOnWrite[i] = true;
+			mCopyOnWrite[i] = true;
+		}
+
+		// The parent's pages are read-only now
+		pToCopy.tlbFlush();
+		pToCopy.uncacheAll();
+	}
+
+	/**
+	 * Re-creates an address space saved in a snapshot. The frames it maps are
+	 * filled in when the snapshot restores main memory.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public AddrSpace(DataInputStream pIn) throws IOException {
+		String image = pIn.readUTF();
+		mImageName = image.isEmpty() ? null : image;
+		mNumPages = pIn.readInt();
+		mTextPages = pIn.readInt();
+
+		// The code pages are shared again. They, and the initialized data not
+		// yet loaded, are read from the executable when needed
+		if (mTextPages > 0) {
+			mTextKey = pIn.readUTF();
+			mText = SharedText.attach(mTextKey, mTextPages);
+		}
+		if (mImageName != null) {
+			mImage = ExecutableCache.open(mImageName);
+		}
+
+		// Snapshots are only taken while nothing is paged out
+		mPageTable = new int[mNumPages];
+		mSwapSlot = new int[mNumPages];
+		mCopyOnWrite = new boolean[mNumPages];
+		mZeroFill = new boolean[mNumPages];
+		mInExecutable = new boolean[mNumPages];
+		for (int i = 0; i < mNumPages; i++) {
+			mPageTable[i] = pIn.readInt();
+			mCopyOnWrite[i] = pIn.readBoolean();
+			mZeroFill[i] = pIn.readBoolean();
+			mInExecutable[i] = pIn.readBoolean();
+			mSwapSlot[i] = -1;
+
+			if (PageTable.isValid(mPageTable[i])) {
+				CoreMap.assign(PageTable.frame(mPageTable[i]), this, i);
+
+				if (isText(i)) {
+					mText[i] = PageTable.frame(mPageTable[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes this address space to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeUTF((mImageName == null) ? "" : mImageName);
+		pOut.writeInt(mNumPages);
+		pOut.writeInt(mTextPages);
+
+		if (mTextPages > 0) {
+			pOut.writeUTF(mTextKey);
+		}
+
+		for (int i = 0; i < mNumPages; i++) {
+			pOut.writeInt(mPageTable[i]);
+			pOut.writeBoolean(mCopyOnWrite[i]);
+			pOut.writeBoolean(mZeroFill[i]);
+			pOut.writeBoolean(mInExecutable[i]);
+		}
+	}
+
+	/**
+	 * Maps a virtual page to the frame it has just been put in.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @param pFrame
+	 *            the (pinned) frame holding it.
+	 */
+	private void map(int pVirtualPage, int pFrame) {
+		mPageTable[pVirtualPage] = PageTable.make(pFrame, PageTable.isReadOnly(mPageTable[pVirtualPage]));
+		uncache(pVirtualPage);
+
+		CoreMap.unpin(pFrame);
+	}
+
+	/**
+	 * Maps a virtual page to a frame another address space has already put
+	 * it in.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @param pFrame
+	 *            the frame holding it.
+	 */
+	private void mapShared(int pVirtualPage, int pFrame) {
+		mPageTable[pVirtualPage] = PageTable.make(pFrame, PageTable.isReadOnly(mPageTable[pVirtualPage]));
+		uncache(pVirtualPage);
+
+		CoreMap.share(pFrame, this);
+	}
+
+	/**
+	 * Checks whether a page holds only code, shared with the other address
+	 * spaces running the same executable.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @return true if it is a code page.
+	 */
+	boolean isText(int pVirtualPage) {
+		return pVirtualPage < mTextPages;
+	}
+
+	/**
+	 * Maps a code page, to the frame it is already in if another address
+	 * space running the executable has it, otherwise to a new frame it is
+	 * read into from the executable.
+	 *
+	 * @param pVirtualPage
+	 *            the code page.
+	 */
+	private void loadText(int pVirtualPage) {
+		if (mText[pVirtualPage] >= 0) {
+			Statistics.numTextPagesShared++;
+			mapShared(pVirtualPage, mText[pVirtualPage]);
+			return;
+		}
+
+		int frame = CoreMap.allocate(this, pVirtualPage);
+
+		// Finding a frame may have slept, while another process read it in
+		if (mText[pVirtualPage] >= 0) {
+			CoreMap.free(frame, this);
+			Statistics.numTextPagesShared++;
+			mapShared(pVirtualPage, mText[pVirtualPage]);
+			return;
+		}
+
+		Debug.print('a', () -> "Reading code page " + pVirtualPage + " into frame " + frame);
+		readPage(pVirtualPage, frame);
+
+		mText[pVirtualPage] = frame;
+		map(pVirtualPage, frame);
+	}
+
+	/**
+	 * Maps a page of initialized data, read into a new frame from the
+	 * executable.
+	 *
+	 * @param pVirtualPage
+	 *            the page, which still holds what the executable does.
+	 */
+	private void loadData(int pVirtualPage) {
+		assert (mInExecutable[pVirtualPage]);
+
+		int frame = CoreMap.allocate(this, pVirtualPage);
+
+		Debug.print('a', () -> "Reading data page " + pVirtualPage + " into frame " + frame);
+		readPage(pVirtualPage, frame);
+
+		map(pVirtualPage, frame);
+	}
+
+	/**
+	 * Copies a page of the executable into a frame. Reading the executable
+	 * does not sleep.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @param pFrame
+	 *            the frame to read it into.
+	 */
+	private void readPage(int pVirtualPage, int pFrame) {
+		Machine.mMemory.copyIn(pFrame * Machine.PageSize, mImage.getPage(pVirtualPage), 0, Machine.PageSize);
+
+		// Forget anything decoded from the frame's old contents
+		DecodeCache.invalidate(pFrame);
+	}
+
+	/**
+	 * Reads ahead the pages following one just read from the executable, for
+	 * as long as they are also to be read from it, up to mPrefetchPages of
+	 * them. Only free frames are used, so nothing is paged out for them.
+	 *
+	 * @param pVirtualPage
+	 *            the page just read.
+	 */
+	private void prefetch(int pVirtualPage) {
+		int last = Math.min(pVirtualPage + mPrefetchPages, mNumPages - 1);
+
+		for (int i = pVirtualPage + 1; i <= last; i++) {
+			if (PageTable.isValid(mPageTable[i])) {
+				continue;
+			}
+
+			boolean text = isText(i);
+			if (!text && ((mSwapSlot[i] >= 0) || !mInExecutable[i])) {
+				break;
+			}
+
+			// A code page another process has in memory needs no frame
+			if ((!text || (mText[i] < 0)) && (FrameAllocator.numFree() == 0)) {
+				break;
+			}
+
+			Statistics.numPagesPrefetched++;
+			if (text) {
+				loadText(i);
+			} else {
+				loadData(i);
+			}
+		}
+	}
+
+	/**
+	 * Gets the page table entry of a virtual page.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @return its entry (see PageTable).
+	 */
+	int getEntry(int pVirtualPage) {
+		return mPageTable[pVirtualPage];
+	}
+
+	/**
+	 * Sets bits in the page table entry of a virtual page, as the use and
+	 * dirty bits gathered from the TLB.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @param pBits
+	 *            the bits to set.
+	 */
+	void setBits(int pVirtualPage, int pBits) {
+		mPageTable[pVirtualPage] |= pBits;
+	}
+
+	/**
+	 * Clears bits in the page table entry of a virtual page, as the use bit
+	 * once the replacement policy has sampled it.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @param pBits
+	 *            the bits to clear.
+	 */
+	void clearBits(int pVirtualPage, int pBits) {
+		mPageTable[pVirtualPage] &= ~pBits;
+
+		// A cached page no longer has its use bit set on every access
+		uncache(pVirtualPage);
+	}
+
+	/**
+	 * Gets the number of pages in this address space.
+	 *
+	 * @return the number of pages.
+	 */
+	int getNumPages() {
+		return mNumPages;
+	}
+
+	/**
+	 * Drops the translation of a page from the TLB, if it may be there.
+	 * Called when its page table entry changes.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 */
+	private void tlbInvalidate(int pVirtualPage) {
+		if ((MMU.mTlb != null) && (mAsidGeneration == TlbManager.getGeneration())) {
+			TlbManager.invalidate(mAsid, pVirtualPage);
+		}
+	}
+
+	/**
+	 * Drops every translation of this address space from the TLB.
+	 */
+	private void tlbFlush() {
+		if ((MMU.mTlb != null) && (mAsidGeneration == TlbManager.getGeneration())) {
+			TlbManager.flush(mAsid);
+		}
+	}
+
+	/**
+	 * Drops a page from the machine's translation cache, if this is the page
+	 * table in use. Called when its page table entry changes.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 */
+	private void uncache(int pVirtualPage) {
+		if (MMU.mPageTable == mPageTable) {
+			MMU.invalidateCache(pVirtualPage);
+		}
+	}
+
+	/**
+	 * Drops every page from the machine's translation cache, if this is the
+	 * page table in use.
+	 */
+	private void uncacheAll() {
+		if (MMU.mPageTable == mPageTable) {
+			MMU.flushCache();
+		}
+	}
+
+	/**
+	 * Brings a page back from the swap area, or gives a page used for the
+	 * first time its zeroed frame. Called on a page fault; the faulting
+	 * instruction is run again once this returns.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page that faulted.
+	 */
+	public void pageIn(int pVirtualPage) {
+		// Zero-fill faults take frames too; count them with the others
+		Statistics.numPageFaults++;
+
+		if (mZeroFill[pVirtualPage]) {
+			zeroFill(pVirtualPage);
+			return;
+		}
+
+		Debug.print('a', () -> "Page fault on page " + pVirtualPage);
+
+		if (isText(pVirtualPage) || (mSwapSlot[pVirtualPage] < 0)) {
+			if (isText(pVirtualPage)) {
+				loadText(pVirtualPage);
+			} else {
+				loadData(pVirtualPage);
+			}
+
+			prefetch(pVirtualPage);
+			return;
+		}
+
+		assert (!PageTable.isValid(mPageTable[pVirtualPage]));
+
+		int frame = CoreMap.allocate(this, pVirtualPage);
+		SwapSpace.read(mSwapSlot[pVirtualPage], frame);
+		map(pVirtualPage, frame);
+	}
+
+	/**
+	 * Maps a page used for the first time to a frame filled with zeros. Once
+	 * mapped, it is paged like any other.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 */
+	private void zeroFill(int pVirtualPage) {
+		Statistics.numZeroFillFaults++;
+		Debug.print('a', () -> "Zero fill of page " + pVirtualPage);
+
+		int frame = CoreMap.allocate(this, pVirtualPage, true);
+
+		mZeroFill[pVirtualPage] = false;
+		map(pVirtualPage, frame);
+	}
+
+	/**
+	 * Takes a page out of memory so its frame can be used for another. The
+	 * page is written to its swap slot unless the slot already holds it.
+	 * Called by CoreMap with the frame pinned.
+	 *
+	 * The address spaces sharing a frame always share its swap slot (or all
+	 * have none), so one write does for all of them. A code page is never
+	 * written, nor is initialized data still as in the executable; they are
+	 * read from the executable again when needed.
+	 *
+	 * @param pSharers
+	 *            the address spaces mapping the frame.
+	 * @param pVirtualPage
+	 *            the virtual page to page out.
+	 * @param pFrame
+	 *            the frame holding it.
+	 */
+	static void pageOut(AddrSpace[] pSharers, int pVirtualPage, int pFrame) {
+		boolean dirty = false;
+
+		// Unmap it first, so it cannot change while it is written
+		for (AddrSpace space : pSharers) {
+			// Its TLB entry holds the latest dirty bit
+			space.tlbInvalidate(pVirtualPage);
+			space.mPageTable[pVirtualPage] &= ~PageTable.Valid;
+			space.uncache(pVirtualPage);
+			dirty |= PageTable.isDirty(space.mPageTable[pVirtualPage]);
+		}
+
+		if (pSharers[0].isText(pVirtualPage)) {
+			pSharers[0].mText[pVirtualPage] = -1;
+			return;
+		}
+
+		int slot = pSharers[0].mSwapSlot[pVirtualPage];
+
+		// Initialized data never written is read from the executable again
+		boolean inExecutable = true;
+		for (AddrSpace space : pSharers) {
+			inExecutable &= space.mInExecutable[pVirtualPage];
+		}
+
+		if (!dirty && (slot < 0) && inExecutable) {
+			return;
+		}
+
+		if (dirty || (slot < 0)) {
+			for (AddrSpace space : pSharers) {
+				space.mInExecutable[pVirtualPage] = false;
+			}
+
+			if (slot < 0) {
+				slot = SwapSpace.allocate();
+
+				if (slot < 0) {
+					System.out.println("Out of swap space");
+					Interrupt.halt();
+				}
+
+				// Every sharer takes the slot before anyone can fault on it
+				for (int i = 0; i < pSharers.length; i++) {
+					assert (pSharers[i].mSwapSlot[pVirtualPage] < 0);
+
+					if (i > 0) {
+						SwapSpace.share(slot);
+					}
+					pSharers[i].mSwapSlot[pVirtualPage] = slot;
+				}
+			}
+
+			Statistics.numPageWrites++;
+			SwapSpace.write(slot, pFrame);
+		}
+	}
+
+	/**
+	 * Checks whether a page is shared copy-on-write.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 * @return true if a write to it should be given a copy.
+	 */
+	public boolean isCopyOnWrite(int pVirtualPage) {
+		return (pVirtualPage < mNumPages) && mCopyOnWrite[pVirtualPage];
+	}
+
+	/**
+	 * Gives a page shared copy-on-write a frame of its own and makes it
+	 * writable. Called on a read-only exception; the faulting instruction is
+	 * run again once this returns. If no other address space maps the frame
+	 * any more, nothing needs copying.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page written to.
+	 */
+	public void copyOnWrite(int pVirtualPage) {
+		assert (mCopyOnWrite[pVirtualPage] && PageTable.isValid(mPageTable[pVirtualPage]));
+
+		Statistics.numCopyOnWriteFaults++;
+		Debug.print('a', () -> "Copy on write to page " + pVirtualPage);
+
+		int shared = PageTable.frame(mPageTable[pVirtualPage]);
+		if (CoreMap.refs(shared) > 1) {
+			// Keep the page from being paged out while a frame is found
+			CoreMap.pin(shared);
+			int frame = CoreMap.allocate(this, pVirtualPage);
+
+			// Another sharer may have unpinned it meanwhile and it may have
+			// been paged out; the write will fault the page back in
+			if (!PageTable.isValid(mPageTable[pVirtualPage])) {
+				CoreMap.free(frame, this);
+				return;
+			}
+
+			Machine.mMemory.copy(shared * Machine.PageSize, frame * Machine.PageSize, Machine.PageSize);
+			DecodeCache.invalidate(frame);
+			Statistics.numPagesCopied++;
+
+			map(pVirtualPage, frame);
+
+			CoreMap.free(shared, this);
+			if (CoreMap.refs(shared) > 0) {
+				CoreMap.release(shared);
+			}
+		}
+
+		// The page will differ from any copy in the swap area
+		if (mSwapSlot[pVirtualPage] >= 0) {
+			SwapSpace.free(mSwapSlot[pVirtualPage]);
+			mSwapSlot[pVirtualPage] = -1;
+		}
+
+		mPageTable[pVirtualPage] &= ~PageTable.ReadOnly;
+		mCopyOnWrite[pVirtualPage] = false;
+		mInExecutable[pVirtualPage] = false;
+		tlbInvalidate(pVirtualPage);
+		uncache(pVirtualPage);
+	}
+
+	/**
+	 * Gives back the frames and swap slots of this address space. Called when
+	 * it is no longer used.
+	 */
+	public void release() {
+		tlbFlush();
+		uncacheAll();
+
+		for (int i = 0; i < mNumPages; i++) {
+			// A page being paged out is no longer valid, and its frame
+			// already belongs to whoever is paging it out
+			if (PageTable.isValid(mPageTable[i])) {
+				int frame = PageTable.frame(mPageTable[i]);
+
+				mPageTable[i] &= ~PageTable.Valid;
+				CoreMap.free(frame, this);
+
+				// The last user of a code page gives it back
+				if (isText(i) && (CoreMap.refs(frame) == 0)) {
+					mText[i] = -1;
+				}
+			}
+
+			if (mSwapSlot[i] >= 0) {
+				SwapSpace.free(mSwapSlot[i]);
+				mSwapSlot[i] = -1;
+			}
+		}
+
+		if (mTextPages > 0) {
+			SharedText.detach(mTextKey);
+			mTextPages = 0;
 		}
 	}
 
@@ -203,7 +832,7 @@ public class AddrSpace {
 		// accidentally reference off the end!
 		Machine.writeRegister(Machine.StackReg, mNumPages * Machine.PageSize - 16);
 
-		Debug.print('a', "Initializing stack register to " + (mNumPages * Machine.PageSize - 16));
+		Debug.print('a', () -> "Initializing stack register to " + (mNumPages * Machine.PageSize - 16));
 	}
 
 	/**
@@ -219,10 +848,45 @@ public class AddrSpace {
 	 * On a context switch, restore the machine state so that this address space
 	 * can run.
 	 *
-	 * For now, tell the machine where to find the page table.
+	 * Without a TLB, tell the machine where to find the page table. With one,
+	 * tell it which address space identifier to match; the entries of other
+	 * address spaces stay in the TLB, and are loaded from mPageTable on a
+	 * miss (see TlbManager).
 	 */
 	public void restoreState() {
-		MMU.mPageTable = mPageTable;
+		if (MMU.mTlb != null) {
+			if (mAsidGeneration != TlbManager.getGeneration()) {
+				mAsid = TlbManager.newAsid();
+				mAsidGeneration = TlbManager.getGeneration();
+			}
+
+			MMU.mAsid = mAsid;
+			MMU.mPageTable = null;
+		} else {
+			MMU.mPageTable = mPageTable;
+		}
+
+		// Whatever the translation cache holds belongs to the last process
+		MMU.flushCache();
 		MMU.mPageTableSize = mNumPages;
 	}
+
+	/**
+	 * Records the name of the executable loaded into this address space.
+	 *
+	 * @param pImageName
+	 *            the file name of the executable.
+	 */
+	public void setImageName(String pImageName) {
+		mImageName = pImageName;
+	}
+
+	/**
+	 * Gets the name of the executable loaded into this address space.
+	 *
+	 * @return the file name, or null if not known.
+	 */
+	public String getImageName() {
+		return mImageName;
+	}
 }
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+import jnachos.machine.Statistics;
+
+/**
+ * Aging, an approximation of least recently used. Each frame has a counter;
+ * on every timer interrupt the counters are shifted right and the use bit
+ * of the page is shifted in at the top (and cleared). The page with the
+ * smallest counter has gone longest without being used.
+ *
+ * Interrupts that come while no user code ran since the last one (the
+ * machine idling while a page is read) are skipped; otherwise a single disk
+ * wait would shift every counter down to nothing.
+ */
+public class AgingPolicy implements ReplacementPolicy {
+	/** The age counter of each frame, compared unsigned. */
+	private int[] mAge = new int[Machine.NumPhysPages];
+
+	/** The user ticks at the last counted interrupt. */
+	private int mLastUserTicks = 0;
+
+	public String getName() {
+		return "aging";
+	}
+
+	public void loaded(int pFrame) {
+		// The page is about to be used by the access that faulted
+		mAge[pFrame] = Integer.MIN_VALUE;
+	}
+
+	public int chooseVictim() {
+		int victim = -1;
+
+		for (int frame = 0; frame < CoreMap.mFrames; frame++) {
+			if (CoreMap.isCandidate(frame)
+					&& ((victim < 0) || (Integer.compareUnsigned(mAge[frame], mAge[victim]) < 0))) {
+				victim = frame;
+			}
+		}
+
+		return victim;
+	}
+
+	public void tick() {
+		if (Statistics.userTicks == mLastUserTicks) {
+			return;
+		}
+
+		mLastUserTicks = Statistics.userTicks;
+		for (int frame = 0; frame < CoreMap.mFrames; frame++) {
+			int entry = CoreMap.entryOf(frame);
+
+			if (PageTable.isValid(entry)) {
+				mAge[frame] = (mAge[frame] >>> 1) | (PageTable.isUsed(entry) ? Integer.MIN_VALUE : 0);
+				CoreMap.clearUse(frame);
+			}
+		}
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(mLastUserTicks);
+		for (int age : mAge) {
+			pOut.writeInt(age);
+		}
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		mLastUserTicks = pIn.readInt();
+		for (int i = 0; i < mAge.length; i++) {
+			mAge[i] = pIn.readInt();
+		}
+	}
+}
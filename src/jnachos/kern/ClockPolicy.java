@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.PageTable;
+
+/**
+ * Clock, or second chance: a hand sweeps the frames, clearing the use bit
+ * of each page it passes, and pages out the first page whose use bit is
+ * already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+	/** The next frame the hand looks at. */
+	private int mHand = 0;
+
+	public String getName() {
+		return "clock";
+	}
+
+	public void loaded(int pFrame) {
+	}
+
+	public int chooseVictim() {
+		// After one sweep every use bit is clear
+		for (int i = 0; i <= 2 * CoreMap.mFrames; i++) {
+			int frame = mHand;
+			mHand = (mHand + 1) % CoreMap.mFrames;
+
+			if (!CoreMap.isCandidate(frame)) {
+				continue;
+			}
+
+			if (!PageTable.isUsed(CoreMap.entryOf(frame))) {
+				return frame;
+			}
+
+			CoreMap.clearUse(frame);
+		}
+
+		assert (false);
+		return -1;
+	}
+
+	public void tick() {
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(mHand);
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		mHand = pIn.readInt();
+	}
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import jnachos.machine.*;
+
+/**
+ * Keeps track of which address space holds each frame of main memory, so
+ * that a page can be paged out to make room when memory runs out.
+ *
+ * Frames are given out by FrameAllocator. When none is free, the
+ * replacement policy (chosen with -pr, FIFO by default) picks a victim, and
+ * its page is paged out to the swap area (see AddrSpace.pageOut). A frame is
+ * pinned while it is being filled or written out, since the process doing it
+ * sleeps on the disk and another process may need a victim in the meantime.
+ *
+ * After a fork a frame may be shared, copy-on-write, by several address
+ * spaces, always at the same virtual page. The frame is given back when the
+ * last of them lets go of it, and paging it out unmaps it from all of them.
+ */
+public abstract class CoreMap {
+	/** The address spaces mapping each frame, none if it is free. */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ArrayList<AddrSpace>[] mOwners = new ArrayList[Machine.NumPhysPages];
+
+	/** The virtual page each frame holds. */
+	private static int[] mVirtualPage = new int[Machine.NumPhysPages];
+
+	/** True while a frame must not be chosen as a victim. */
+	private static boolean[] mPinned = new boolean[Machine.NumPhysPages];
+
+	/** Chooses the victims. */
+	private static ReplacementPolicy mPolicy = new FifoPolicy();
+
+	/**
+	 * The number of frames user programs may use (set with -pm). The frames
+	 * above are never given out.
+	 */
+	public static int mFrames = Machine.NumPhysPages;
+
+	static {
+		for (int i = 0; i < Machine.NumPhysPages; i++) {
+			mOwners[i] = new ArrayList<AddrSpace>();
+		}
+	}
+
+	/**
+	 * Takes the frames above mFrames out of use. Called once at start up.
+	 */
+	public static void init() {
+		FrameAllocator.init(mFrames);
+	}
+
+	/**
+	 * Chooses the replacement policy.
+	 *
+	 * @param pName
+	 *            the name of the policy: fifo, clock, enhanced, aging or
+	 *            wsclock.
+	 * @return false if there is no such policy.
+	 */
+	public static boolean setPolicy(String pName) {
+		ReplacementPolicy[] policies = { new FifoPolicy(), new ClockPolicy(), new EnhancedClockPolicy(),
+				new AgingPolicy(), new WSClockPolicy() };
+
+		for (ReplacementPolicy policy : policies) {
+			if (policy.getName().equals(pName)) {
+				mPolicy = policy;
+				Statistics.replacementPolicy = pName;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets a frame to hold a page, paging out another page if there is no
+	 * free frame. The frame is returned pinned; call unpin() once the page is
+	 * in it and mapped.
+	 *
+	 * @param pSpace
+	 *            the address space the page belongs to.
+	 * @param pVirtualPage
+	 *            the virtual page to be held.
+	 * @return the frame.
+	 */
+	public static int allocate(AddrSpace pSpace, int pVirtualPage) {
+		return allocate(pSpace, pVirtualPage, false);
+	}
+
+	/**
+	 * Gets a frame to hold a page, as allocate(pSpace, pVirtualPage), filled
+	 * with zeros if asked.
+	 *
+	 * @param pSpace
+	 *            the address space the page belongs to.
+	 * @param pVirtualPage
+	 *            the virtual page to be held.
+	 * @param pZeroed
+	 *            true if the frame must hold only zeros.
+	 * @return the frame.
+	 */
+	public static int allocate(AddrSpace pSpace, int pVirtualPage, boolean pZeroed) {
+		int frame = pZeroed ? FrameAllocator.allocateZeroed() : FrameAllocator.allocate();
+
+		if (frame < 0) {
+			frame = evict();
+
+			if (pZeroed) {
+				FrameAllocator.zero(frame);
+			}
+		}
+
+		mOwners[frame].add(pSpace);
+		mVirtualPage[frame] = pVirtualPage;
+		mPinned[frame] = true;
+		return frame;
+	}
+
+	/**
+	 * Keeps a frame from being chosen as a victim, as while its page is being
+	 * copied.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void pin(int pFrame) {
+		mPinned[pFrame] = true;
+	}
+
+	/**
+	 * Lets a frame be chosen as a victim again, once its page is in and
+	 * mapped.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void unpin(int pFrame) {
+		release(pFrame);
+
+		// Counted from here, not from allocate(): filling the frame may have
+		// taken a disk read, and the page has not been used yet
+		mPolicy.loaded(pFrame);
+	}
+
+	/**
+	 * Lets a frame pinned with pin() be chosen as a victim again. Unlike
+	 * unpin(), the replacement policy is not told: the page was resident all
+	 * along, and it keeps its place.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void release(int pFrame) {
+		mPinned[pFrame] = false;
+	}
+
+	/**
+	 * Records that a frame holds a page, as when restoring a snapshot.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @param pSpace
+	 *            the address space the page belongs to.
+	 * @param pVirtualPage
+	 *            the virtual page held.
+	 */
+	public static void assign(int pFrame, AddrSpace pSpace, int pVirtualPage) {
+		mOwners[pFrame].add(pSpace);
+		mVirtualPage[pFrame] = pVirtualPage;
+	}
+
+	/**
+	 * Records that another address space maps a frame, at the same virtual
+	 * page.
+	 *
+	 * @param pFrame
+	 *            the frame, which holds a page.
+	 * @param pSpace
+	 *            the address space now sharing it.
+	 */
+	public static void share(int pFrame, AddrSpace pSpace) {
+		assert (!mOwners[pFrame].isEmpty());
+
+		mOwners[pFrame].add(pSpace);
+	}
+
+	/**
+	 * Gets the number of address spaces mapping a frame.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return the number of address spaces sharing it.
+	 */
+	public static int refs(int pFrame) {
+		return mOwners[pFrame].size();
+	}
+
+	/**
+	 * Checks whether a frame may be chosen as a victim: it holds a page and
+	 * is not pinned.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return true if its page can be paged out.
+	 */
+	public static boolean isCandidate(int pFrame) {
+		return !mOwners[pFrame].isEmpty() && !mPinned[pFrame];
+	}
+
+	/**
+	 * Gets the page table entry mapping a frame, for its use and dirty bits
+	 * (see PageTable). If the frame is shared, the use bits of the other
+	 * entries are folded into the first one, so a policy need only look at
+	 * that.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return the entry, or 0 if no page is mapped to the frame.
+	 */
+	public static int entryOf(int pFrame) {
+		if (mOwners[pFrame].isEmpty()) {
+			return 0;
+		}
+
+		AddrSpace first = mOwners[pFrame].get(0);
+		int page = mVirtualPage[pFrame];
+		int entry = first.getEntry(page);
+		if (!PageTable.isValid(entry) || (PageTable.frame(entry) != pFrame)) {
+			return 0;
+		}
+
+		for (int i = 1; i < mOwners[pFrame].size(); i++) {
+			AddrSpace other = mOwners[pFrame].get(i);
+
+			if (PageTable.isUsed(other.getEntry(page))) {
+				entry |= PageTable.Use;
+				other.clearBits(page, PageTable.Use);
+			}
+		}
+
+		first.setBits(page, entry & PageTable.Use);
+		return entry;
+	}
+
+	/**
+	 * Clears the use bit of the page in a frame, once the replacement policy
+	 * has seen it.
+	 *
+	 * @param pFrame
+	 *            the frame, which holds a page.
+	 */
+	public static void clearUse(int pFrame) {
+		mOwners[pFrame].get(0).clearBits(mVirtualPage[pFrame], PageTable.Use);
+	}
+
+	/**
+	 * Lets the replacement policy sample the use bits. Called on every timer
+	 * interrupt.
+	 */
+	public static void tick() {
+		// The use bits being sampled may still be in the TLB
+		TlbManager.writeBack();
+		mPolicy.tick();
+	}
+
+	/**
+	 * Lets go of a frame. It is given back once no address space maps it.
+	 *
+	 * @param pFrame
+	 *            the frame no longer needed.
+	 * @param pSpace
+	 *            the address space that no longer maps it.
+	 */
+	public static void free(int pFrame, AddrSpace pSpace) {
+		boolean found = mOwners[pFrame].remove(pSpace);
+		assert (found);
+
+		if (mOwners[pFrame].isEmpty()) {
+			mPinned[pFrame] = false;
+			FrameAllocator.free(pFrame);
+		}
+	}
+
+	/**
+	 * Pages out the page in the frame the policy chooses.
+	 *
+	 * @return the frame, now pinned and no longer mapped.
+	 */
+	private static int evict() {
+		TlbManager.writeBack();
+		int frame = mPolicy.chooseVictim();
+		assert (isCandidate(frame));
+
+		Debug.print('a', () -> "Evicting page " + mVirtualPage[frame] + " from frame " + frame);
+		Statistics.numEvictions++;
+
+		AddrSpace[] sharers = mOwners[frame].toArray(new AddrSpace[0]);
+		mOwners[frame].clear();
+
+		mPinned[frame] = true;
+		AddrSpace.pageOut(sharers, mVirtualPage[frame], frame);
+		return frame;
+	}
+
+	/**
+	 * Writes the number of usable frames and the replacement policy to a
+	 * snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void save(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(mFrames);
+		pOut.writeUTF(mPolicy.getName());
+		mPolicy.save(pOut);
+	}
+
+	/**
+	 * Reads the number of usable frames and the replacement policy back from
+	 * a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public static void restore(DataInputStream pIn) throws IOException {
+		mFrames = pIn.readInt();
+		setPolicy(pIn.readUTF());
+		mPolicy.restore(pIn);
+	}
+}
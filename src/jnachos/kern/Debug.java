@@ -7,6 +7,8 @@
  **/
 package jnachos.kern;
 
+import java.util.function.Supplier;
+
 /**
  * Miscellaneous useful definitions, including debugging routines.
  *
@@ -24,7 +26,13 @@ public abstract class Debug {
 	/**
 	 * The set of flags used for debugging.
 	 */
-	private static String mFlags;
+	private static String mFlags = "";
+
+	/**
+	 * Which flags are on, indexed by the flag character. Worked out once in
+	 * debugInit so checking a flag is a single array lookup.
+	 */
+	private static boolean[] mEnabled = new boolean[128];
 
 	/**
 	 * Initializes the Debugging in Nachos.
@@ -34,6 +42,12 @@ public abstract class Debug {
 	 */
 	public static void debugInit(String pDebugArgs) {
 		mFlags = pDebugArgs;
+
+		// '+' turns on every flag
+		boolean all = (mFlags.indexOf('+') >= 0);
+		for (char c = 0; c < mEnabled.length; c++) {
+			mEnabled[c] = all || (mFlags.indexOf(c) >= 0);
+		}
 	}
 
 	/**
@@ -51,6 +65,23 @@ public abstract class Debug {
 		}
 	}
 
+	/**
+	 * A conditional print of a debug message that is only built if the flag
+	 * is active. Use this whenever the message is not a constant, so that
+	 * nothing is concatenated when debugging is off.
+	 * 
+	 * @param pFlag
+	 *            The conditional debug flag
+	 * @param pMessage
+	 *            builds the message to display if the flag is active.
+	 **/
+	public static void print(char pFlag, Supplier<String> pMessage) {
+		// Check if the flag is active
+		if (isEnabled(pFlag)) {
+			System.out.println(pMessage.get());
+		}
+	}
+
 	/**
 	 * Checks to see if a given debug flag is enabled.
 	 * 
@@ -58,23 +89,6 @@ public abstract class Debug {
 	 *            the flag to check.
 	 **/
 	public static boolean isEnabled(char pFlag) {
-		// The character arrays of active flags
-		char[] array = mFlags.toCharArray();
-
-		// Check each character
-		for (int i = 0; i < array.length; i++) {
-			// if the flag was found return true
-			if (array[i] == pFlag) {
-				return true;
-			}
-
-			// If all flags have been turned on
-			else if (array[i] == '+') {
-				return true;
-			}
-		}
-
-		// The flag was not found
-		return false;
+		return (pFlag < mEnabled.length) && mEnabled[pFlag];
 	}
 }
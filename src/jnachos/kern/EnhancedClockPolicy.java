@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.PageTable;
+
+/**
+ * Enhanced second chance: a clock that prefers pages it can drop without a
+ * write. Pages fall into four classes by their (use, dirty) bits. The hand
+ * first sweeps for an unused clean page, touching nothing; failing that it
+ * sweeps for an unused dirty page, clearing use bits as it goes. If both
+ * sweeps fail, every use bit is now clear and the two are tried again.
+ */
+public class EnhancedClockPolicy implements ReplacementPolicy {
+	/** The next frame the hand looks at. */
+	private int mHand = 0;
+
+	public String getName() {
+		return "enhanced";
+	}
+
+	public void loaded(int pFrame) {
+	}
+
+	public int chooseVictim() {
+		for (int pass = 0; pass < 4; pass++) {
+			boolean wantDirty = (pass % 2) == 1;
+
+			for (int i = 0; i < CoreMap.mFrames; i++) {
+				int frame = mHand;
+				mHand = (mHand + 1) % CoreMap.mFrames;
+
+				if (!CoreMap.isCandidate(frame)) {
+					continue;
+				}
+
+				int entry = CoreMap.entryOf(frame);
+				if (!PageTable.isUsed(entry) && (PageTable.isDirty(entry) == wantDirty)) {
+					return frame;
+				}
+
+				if (wantDirty) {
+					CoreMap.clearUse(frame);
+				}
+			}
+		}
+
+		assert (false);
+		return -1;
+	}
+
+	public void tick() {
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(mHand);
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		mHand = pIn.readInt();
+	}
+}
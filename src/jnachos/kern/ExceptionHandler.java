@@ -36,9 +36,34 @@ public abstract class ExceptionHandler {
 			SystemCallHandler.handleSystemCall(type);
 			break;
 
+		// The page is in the swap area, or with a TLB its translation is not
+		// loaded; bring it in and run the instruction again
+		case PageFaultException:
+			int page = Machine.readRegister(Machine.BadVAddrReg) / Machine.PageSize;
+
+			if (MMU.mTlb != null) {
+				TlbManager.handleMiss(JNachos.getCurrentProcess().getSpace(), page);
+			} else {
+				JNachos.getCurrentProcess().getSpace().pageIn(page);
+			}
+			break;
+
+		// A write to a page shared since a fork; give the process its own
+		// copy and run the instruction again
+		case ReadOnlyException:
+			int written = Machine.readRegister(Machine.BadVAddrReg) / Machine.PageSize;
+			AddrSpace space = JNachos.getCurrentProcess().getSpace();
+
+			if (space.isCopyOnWrite(written)) {
+				space.copyOnWrite(written);
+			} else {
+				JNachos.cleanUp();
+			}
+			break;
+
 		// All other exceptions shut down for now
 		default:
-			System.exit(0);
+			JNachos.cleanUp();
 		}
 	}
 }
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import jnachos.filesystem.OpenFile;
+import jnachos.machine.*;
+
+/**
+ * Keeps the executables recently run, parsed and with the pages read from
+ * them so far, so that running one again reads nothing from the file. An
+ * image is known by its file name, and is only used while the file's
+ * modification stamp is unchanged.
+ *
+ * The pages kept take at most mBudget bytes; past that the least recently
+ * run images are dropped. An address space still using a dropped image keeps
+ * it, but the next Exec of the file reads it afresh.
+ */
+public abstract class ExecutableCache {
+	/** The most bytes of pages to keep (set with -ec); 0 keeps nothing. */
+	public static int mBudget = 64 * 1024;
+
+	/** The images kept, the least recently run first. */
+	private static LinkedHashMap<String, ExecutableImage> mImages = new LinkedHashMap<String, ExecutableImage>(16,
+			0.75f, true);
+
+	/** The number of bytes of pages kept. */
+	private static int mBytes = 0;
+
+	/**
+	 * Gets the image of an executable, from the cache if it is there and the
+	 * file has not changed since, otherwise by opening the file.
+	 *
+	 * @param pName
+	 *            the file name.
+	 * @return the image, or null if there is no such file.
+	 */
+	public static ExecutableImage open(String pName) {
+		long stamp = JNachos.mFileSystem.getStamp(pName);
+		ExecutableImage image = mImages.get(pName);
+
+		if (image != null) {
+			if (image.getStamp() == stamp) {
+				Statistics.numExecutableCacheHits++;
+				return image;
+			}
+
+			// The file has changed since
+			drop(pName);
+		}
+
+		OpenFile file = JNachos.mFileSystem.open(pName);
+		if (file == null) {
+			return null;
+		}
+
+		image = new ExecutableImage(file, pName, stamp);
+		Statistics.numExecutableCacheMisses++;
+
+		// Without a stamp there is no telling whether the file changes
+		if ((mBudget > 0) && (stamp != -1)) {
+			mImages.put(pName, image);
+			image.mCached = true;
+		}
+
+		return image;
+	}
+
+	/**
+	 * Records that an image kept has read more pages, dropping the least
+	 * recently run images if there are now too many bytes kept.
+	 *
+	 * @param pBytes
+	 *            the number of bytes read.
+	 */
+	static void grown(int pBytes) {
+		mBytes += pBytes;
+
+		Iterator<ExecutableImage> images = mImages.values().iterator();
+		while ((mBytes > mBudget) && images.hasNext()) {
+			ExecutableImage image = images.next();
+
+			images.remove();
+			image.mCached = false;
+			mBytes -= image.getBytes();
+			Statistics.numExecutableCacheEvictions++;
+		}
+	}
+
+	/**
+	 * Stops keeping the image of an executable.
+	 *
+	 * @param pName
+	 *            the file name.
+	 */
+	private static void drop(String pName) {
+		ExecutableImage image = mImages.remove(pName);
+
+		image.mCached = false;
+		mBytes -= image.getBytes();
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import jnachos.filesystem.OpenFile;
+import jnachos.machine.*;
+import jnachos.userbin.NoffHeader;
+import jnachos.userbin.Segment;
+
+/**
+ * An executable in NOFF format: its header, and the pages of its code and
+ * initialized data, each read from the file the first time it is needed and
+ * kept from then on. Address spaces load their pages from here, and
+ * ExecutableCache keeps images for the next Exec of the same file.
+ *
+ * Page i is virtual page i of a process running the executable. Its bytes
+ * of code and initialized data are read from the file, and the rest of it is
+ * zero. Usually the initialized data directly follows the code, both in the
+ * file and in memory, and a page is one read; otherwise each segment is read
+ * separately.
+ */
+public class ExecutableImage {
+	/** The file name, null if not known. */
+	private String mName;
+
+	/** The modification stamp of the file when it was opened. */
+	private long mStamp;
+
+	/** The file, to read pages from. */
+	private OpenFile mFile;
+
+	/** The header, in host byte order. */
+	private NoffHeader mHeader;
+
+	/** The pages read so far, null for the others. */
+	private byte[][] mPages;
+
+	/**
+	 * True if the initialized data follows the code both in the file and in
+	 * memory, so the two can be read as one segment.
+	 */
+	private boolean mContiguous;
+
+	/** The number of bytes of pages read so far. */
+	private int mBytes = 0;
+
+	/** True while ExecutableCache keeps this image. */
+	boolean mCached = false;
+
+	/**
+	 * Reads the header of an executable.
+	 *
+	 * @param pFile
+	 *            the executable.
+	 * @param pName
+	 *            its file name, null if not known.
+	 * @param pStamp
+	 *            its modification stamp (see FileSystem.getStamp).
+	 */
+	public ExecutableImage(OpenFile pFile, String pName, long pStamp) {
+		mFile = pFile;
+		mName = pName;
+		mStamp = pStamp;
+
+		// Create buffer to hold onto the noff header
+		byte[] buffer = new byte[NoffHeader.size];
+		pFile.readAt(buffer, NoffHeader.size, 0);
+		mHeader = new NoffHeader(buffer);
+
+		// Check to see if the headers match
+		if ((mHeader.noffMagic != NoffHeader.NOFFMAGIC)
+				&& (MipsSim.wordToHost(mHeader.noffMagic) == NoffHeader.NOFFMAGIC)) {
+			// If so swap the headers
+			AddrSpace.swapHeader(mHeader);
+		}
+
+		// Make sure that the magic numbers match
+		assert (mHeader.noffMagic == NoffHeader.NOFFMAGIC);
+
+		Segment code = mHeader.code;
+		Segment data = mHeader.initData;
+		mContiguous = (data.size == 0) || ((data.virtualAddr == code.virtualAddr + code.size)
+				&& (data.inFileAddr == code.inFileAddr + code.size));
+
+		int end = Math.max(code.virtualAddr + code.size, (data.size > 0) ? data.virtualAddr + data.size : 0);
+		mPages = new byte[(end + Machine.PageSize - 1) / Machine.PageSize][];
+	}
+
+	/**
+	 * Checks whether a page holds any code or initialized data, and so is to
+	 * be read from the executable.
+	 *
+	 * @param pPage
+	 *            the virtual page.
+	 * @return true if getPage() has anything to read for it.
+	 */
+	public boolean holds(int pPage) {
+		int start = pPage * Machine.PageSize;
+
+		return overlaps(start, mHeader.code) || overlaps(start, mHeader.initData);
+	}
+
+	/**
+	 * Checks whether a page overlaps a segment.
+	 *
+	 * @param pStart
+	 *            the virtual address of the page.
+	 * @param pSegment
+	 *            the segment.
+	 * @return true if some of the segment is in the page.
+	 */
+	private static boolean overlaps(int pStart, Segment pSegment) {
+		return (pSegment.size > 0) && (pStart < pSegment.virtualAddr + pSegment.size)
+				&& (pSegment.virtualAddr < pStart + Machine.PageSize);
+	}
+
+	/**
+	 * Gets the file name of the executable.
+	 *
+	 * @return the name, or null if not known.
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Gets the modification stamp of the file when it was opened.
+	 *
+	 * @return the stamp, -1 if none.
+	 */
+	public long getStamp() {
+		return mStamp;
+	}
+
+	/**
+	 * Gets the header of the executable.
+	 *
+	 * @return the header, in host byte order. It must not be changed.
+	 */
+	public NoffHeader getHeader() {
+		return mHeader;
+	}
+
+	/**
+	 * Gets the memory taken by the pages read so far.
+	 *
+	 * @return the number of bytes.
+	 */
+	public int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Gets a page of the code and initialized data, reading it from the file
+	 * if it has not been read yet. The file is a host file, so this does not
+	 * sleep.
+	 *
+	 * @param pPage
+	 *            the virtual page.
+	 * @return the page, zero outside the code and initialized data. It must
+	 *         not be changed.
+	 */
+	public byte[] getPage(int pPage) {
+		if (mPages[pPage] == null) {
+			byte[] page = new byte[Machine.PageSize];
+			int start = pPage * Machine.PageSize;
+			Segment code = mHeader.code;
+			Segment data = mHeader.initData;
+
+			if (mContiguous) {
+				readPart(page, start, code.virtualAddr, code.inFileAddr, code.size + data.size);
+			} else {
+				readPart(page, start, code.virtualAddr, code.inFileAddr, code.size);
+				readPart(page, start, data.virtualAddr, data.inFileAddr, data.size);
+			}
+
+			mPages[pPage] = page;
+			mBytes += Machine.PageSize;
+			Statistics.numExecutablePageReads++;
+
+			if (mCached) {
+				ExecutableCache.grown(Machine.PageSize);
+			}
+		}
+
+		return mPages[pPage];
+	}
+
+	/**
+	 * Reads the part of a segment that falls in a page into it.
+	 *
+	 * @param pPage
+	 *            the page being filled.
+	 * @param pStart
+	 *            the virtual address of the page.
+	 * @param pVirtualAddr
+	 *            the virtual address of the segment.
+	 * @param pInFileAddr
+	 *            where the segment is in the file.
+	 * @param pSize
+	 *            the size of the segment.
+	 */
+	private void readPart(byte[] pPage, int pStart, int pVirtualAddr, int pInFileAddr, int pSize) {
+		int from = Math.max(pStart, pVirtualAddr);
+		int to = Math.min(pStart + Machine.PageSize, pVirtualAddr + pSize);
+
+		if (from >= to) {
+			return;
+		}
+
+		// The file reads whole buffers
+		if (to - from == Machine.PageSize) {
+			mFile.readAt(pPage, Machine.PageSize, pInFileAddr + (from - pVirtualAddr));
+		} else {
+			byte[] buffer = new byte[to - from];
+			mFile.readAt(buffer, to - from, pInFileAddr + (from - pVirtualAddr));
+			System.arraycopy(buffer, 0, pPage, from - pStart, to - from);
+		}
+	}
+}
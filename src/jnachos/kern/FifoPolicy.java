@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.Machine;
+
+/**
+ * First in, first out: pages out the page that has been in memory longest,
+ * however much it is used.
+ */
+public class FifoPolicy implements ReplacementPolicy {
+	/** When each frame was given its page, counted in pages loaded. */
+	private long[] mLoaded = new long[Machine.NumPhysPages];
+
+	/** The number of pages loaded so far. */
+	private long mCount = 0;
+
+	public String getName() {
+		return "fifo";
+	}
+
+	public void loaded(int pFrame) {
+		mLoaded[pFrame] = mCount++;
+	}
+
+	public int chooseVictim() {
+		int victim = -1;
+
+		for (int frame = 0; frame < CoreMap.mFrames; frame++) {
+			if (CoreMap.isCandidate(frame) && ((victim < 0) || (mLoaded[frame] < mLoaded[victim]))) {
+				victim = frame;
+			}
+		}
+
+		return victim;
+	}
+
+	public void tick() {
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeLong(mCount);
+		for (long loaded : mLoaded) {
+			pOut.writeLong(loaded);
+		}
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		mCount = pIn.readLong();
+		for (int i = 0; i < mLoaded.length; i++) {
+			mLoaded[i] = pIn.readLong();
+		}
+	}
+}
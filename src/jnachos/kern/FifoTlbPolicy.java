@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.MMU;
+
+/**
+ * First in, first out: each set replaces its entries in turn, however much
+ * they are used.
+ */
+public class FifoTlbPolicy implements TlbPolicy {
+	/** The entry each set replaces next, counted from its first entry. */
+	private int[] mNext;
+
+	public String getName() {
+		return "fifo";
+	}
+
+	public int chooseVictim(int pFirst, int pWays) {
+		if (mNext == null) {
+			mNext = new int[MMU.mTlbSets];
+		}
+
+		int set = pFirst / pWays;
+		int victim = pFirst + mNext[set];
+
+		mNext[set] = (mNext[set] + 1) % pWays;
+		return victim;
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		int sets = (mNext == null) ? 0 : mNext.length;
+
+		pOut.writeInt(sets);
+		for (int i = 0; i < sets; i++) {
+			pOut.writeInt(mNext[i]);
+		}
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		int sets = pIn.readInt();
+
+		mNext = (sets == 0) ? null : new int[sets];
+		for (int i = 0; i < sets; i++) {
+			mNext[i] = pIn.readInt();
+		}
+	}
+}
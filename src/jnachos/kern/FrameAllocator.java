@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.*;
+
+/**
+ * Gives out the frames of main memory. The free frames are kept on a stack,
+ * so a frame is found or given back in constant time, however large memory
+ * is; the frame freed last is the first given out again.
+ *
+ * Some free frames are zeroed ahead of need, while the machine is idle
+ * (Interrupt.idle), and kept on a stack of their own for pages that must
+ * start out zero (see AddrSpace.zeroFill). Other requests take them only
+ * when no other frame is free.
+ *
+ * Frames are taken from here by CoreMap, which pages another page out when
+ * none is free, and come back when the last address space mapping them lets
+ * go of them: when a page is copied on write, and when an address space is
+ * released on Exit, Exec or kill.
+ */
+public abstract class FrameAllocator {
+	/** The free frames; the top of the stack is mFree[mNumFree - 1]. */
+	private static int[] mFree = new int[Machine.NumPhysPages];
+
+	/** The number of free frames. */
+	private static int mNumFree = 0;
+
+	/** The free frames known to hold only zeros. */
+	private static int[] mZeroed = new int[Machine.NumPhysPages];
+
+	/** The number of zeroed free frames. */
+	private static int mNumZeroed = 0;
+
+	/** The most frames kept zeroed ahead of need. */
+	public static final int ZeroedPoolSize = 16;
+
+	/** True for each frame given out, or kept out of use. */
+	private static boolean[] mInUse = new boolean[Machine.NumPhysPages];
+
+	/** The number of frames given out. */
+	private static int mNumAllocated = 0;
+
+	/**
+	 * Makes the frames below pFrames free and keeps the others out of use.
+	 * Called once at start up.
+	 *
+	 * @param pFrames
+	 *            the number of frames user programs may use.
+	 */
+	public static void init(int pFrames) {
+		assert ((pFrames > 0) && (pFrames <= Machine.NumPhysPages));
+
+		mNumFree = 0;
+		mNumZeroed = 0;
+		mNumAllocated = 0;
+
+		// Pushed from the top down, so frame 0 is given out first
+		for (int frame = Machine.NumPhysPages - 1; frame >= 0; frame--) {
+			mInUse[frame] = (frame >= pFrames);
+			if (!mInUse[frame]) {
+				mFree[mNumFree++] = frame;
+			}
+		}
+	}
+
+	/**
+	 * Takes a free frame, leaving the zeroed ones for zero-filled pages if
+	 * there are others.
+	 *
+	 * @return the frame, or -1 if none is free.
+	 */
+	public static int allocate() {
+		if (mNumFree > 0) {
+			return take(mFree[--mNumFree]);
+		}
+
+		if (mNumZeroed > 0) {
+			return take(mZeroed[--mNumZeroed]);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Takes a free frame filled with zeros, zeroing one now if none was
+	 * zeroed ahead of need.
+	 *
+	 * @return the frame, or -1 if none is free.
+	 */
+	public static int allocateZeroed() {
+		if (mNumZeroed > 0) {
+			Statistics.numZeroedFramesUsed++;
+			return take(mZeroed[--mNumZeroed]);
+		}
+
+		if (mNumFree > 0) {
+			int frame = take(mFree[--mNumFree]);
+			zero(frame);
+			return frame;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Marks a free frame given out.
+	 *
+	 * @param pFrame
+	 *            the frame, just taken off a stack.
+	 * @return the frame.
+	 */
+	private static int take(int pFrame) {
+		assert (!mInUse[pFrame]);
+		mInUse[pFrame] = true;
+
+		Statistics.numFramesAllocated++;
+		Statistics.peakFramesInUse = Math.max(Statistics.peakFramesInUse, ++mNumAllocated);
+		return pFrame;
+	}
+
+	/**
+	 * Fills a frame with zeros.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void zero(int pFrame) {
+		Machine.mMemory.fill(pFrame * Machine.PageSize, Machine.PageSize, (byte) 0);
+
+		// Forget anything decoded from the frame's old contents
+		DecodeCache.invalidate(pFrame);
+	}
+
+	/**
+	 * Zeroes free frames until ZeroedPoolSize of them are zeroed or none is
+	 * left to zero. Called when the machine is idle, so it takes no simulated
+	 * time.
+	 */
+	public static void prezero() {
+		while ((mNumZeroed < ZeroedPoolSize) && (mNumFree > 0)) {
+			int frame = mFree[--mNumFree];
+
+			zero(frame);
+			mZeroed[mNumZeroed++] = frame;
+			Statistics.numFramesPrezeroed++;
+		}
+	}
+
+	/**
+	 * Gives back a frame.
+	 *
+	 * @param pFrame
+	 *            the frame, which was given out by allocate().
+	 */
+	public static void free(int pFrame) {
+		assert (mInUse[pFrame]);
+
+		mInUse[pFrame] = false;
+		mFree[mNumFree++] = pFrame;
+
+		Statistics.numFramesFreed++;
+		mNumAllocated--;
+	}
+
+	/**
+	 * Gets the number of free frames.
+	 *
+	 * @return the number of frames allocate() can give out.
+	 */
+	public static int numFree() {
+		return mNumFree + mNumZeroed;
+	}
+
+	/**
+	 * Writes the frames in use and the order of the free ones, zeroed or not,
+	 * to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void save(DataOutputStream pOut) throws IOException {
+		for (boolean inUse : mInUse) {
+			pOut.writeBoolean(inUse);
+		}
+
+		pOut.writeInt(mNumAllocated);
+		pOut.writeInt(mNumFree);
+		for (int i = 0; i < mNumFree; i++) {
+			pOut.writeInt(mFree[i]);
+		}
+
+		pOut.writeInt(mNumZeroed);
+		for (int i = 0; i < mNumZeroed; i++) {
+			pOut.writeInt(mZeroed[i]);
+		}
+	}
+
+	/**
+	 * Reads the frames in use and the free ones back from a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public static void restore(DataInputStream pIn) throws IOException {
+		for (int i = 0; i < mInUse.length; i++) {
+			mInUse[i] = pIn.readBoolean();
+		}
+
+		mNumAllocated = pIn.readInt();
+		mNumFree = pIn.readInt();
+		for (int i = 0; i < mNumFree; i++) {
+			mFree[i] = pIn.readInt();
+		}
+
+		// Main memory is restored after this, zeroed frames included
+		mNumZeroed = pIn.readInt();
+		for (int i = 0; i < mNumZeroed; i++) {
+			mZeroed[i] = pIn.readInt();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+/**
+ * Thrown to unwind the threads of a machine that has halted when the Java VM
+ * must keep running (see JNachos.mInBatch).
+ */
+public class Halt extends Error {
+	private static final long serialVersionUID = 1L;
+}
@@ -8,6 +8,8 @@
 
 package jnachos.kern;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.Hashtable;
 import java.util.Enumeration;
@@ -40,6 +42,9 @@ class TimerInterruptHandler implements VoidFunctionPtr {
 	 * @see jnachos.machine.Timer
 	 **/
 	public void call(Object pDummy) {
+		// Let the page replacement policy sample the use bits
+		CoreMap.tick();
+
 		// If we are not in idle mode
 		if (Interrupt.getStatus() != Interrupt.IdleMode) {
 			// Yield on return
@@ -98,6 +103,12 @@ public abstract class JNachos {
 	 */
 	public static SynchDisk mSynchDisk;
 
+	/**
+	 * True if this machine is one of many run by jnachos.Batch in the same
+	 * Java VM, so halting must not exit the VM.
+	 */
+	public static boolean mInBatch = false;
+
 	/*
 	 * 
 	 * private static PostOffice mPostOffice;
@@ -169,6 +180,116 @@ public abstract class JNachos {
 				format = true;
 			}
 
+			// Run user programs with the block engine
+			if (args[argv].compareTo("-bt") == 0) {
+				BlockEngine.mEnabled = true;
+			}
+
+			// Keep main memory off the Java heap
+			if (args[argv].compareTo("-om") == 0) {
+				Machine.mOffHeapMemory = true;
+			}
+
+			// Limit user programs to so many frames of main memory
+			if (args[argv].compareTo("-pm") == 0) {
+				assert (argc > 1);
+				CoreMap.mFrames = intArgument("-pm <frames>", args[argv + 1]);
+				argCount = 2;
+
+				// An instruction may need its code page and its data page in
+				// memory at once
+				if ((CoreMap.mFrames < 2) || (CoreMap.mFrames > Machine.NumPhysPages)) {
+					badArgument("-pm <frames>: <frames> must be from 2 to " + Machine.NumPhysPages);
+				}
+			}
+
+			// Keep so many kilobytes of executables for the next Exec
+			if (args[argv].compareTo("-ec") == 0) {
+				assert (argc > 1);
+				ExecutableCache.mBudget = intArgument("-ec <kilobytes>", args[argv + 1]) * 1024;
+				argCount = 2;
+			}
+
+			// Read so many pages ahead of each page read from an executable
+			if (args[argv].compareTo("-ra") == 0) {
+				assert (argc > 1);
+				AddrSpace.mPrefetchPages = intArgument("-ra <pages>", args[argv + 1]);
+				argCount = 2;
+			}
+
+			// Run user programs on so many CPUs at once
+			if (args[argv].compareTo("-cpus") == 0) {
+				assert (argc > 1);
+				Cpu.mCount = intArgument("-cpus <n>", args[argv + 1]);
+				argCount = 2;
+
+				if ((Cpu.mCount < 1) || (Cpu.mCount > 64)) {
+					badArgument("-cpus <n>: <n> must be from 1 to 64");
+				}
+			}
+
+			// Choose the page replacement policy
+			if (args[argv].compareTo("-pr") == 0) {
+				assert (argc > 1);
+				if (!CoreMap.setPolicy(args[argv + 1])) {
+					badArgument("-pr <fifo|clock|enhanced|aging|wsclock>: unknown policy " + args[argv + 1]);
+				}
+				argCount = 2;
+			}
+
+			// Give the machine a TLB of so many entries, in sets of so many
+			if (args[argv].compareTo("-tlb") == 0) {
+				assert (argc > 2);
+				Machine.mUSE_TLB = true;
+				Machine.mTlbSize = intArgument("-tlb <entries> <ways>", args[argv + 1]);
+				Machine.mTlbWays = intArgument("-tlb <entries> <ways>", args[argv + 2]);
+				argCount = 3;
+
+				// An instruction may need its code page and its data page in
+				// the same set; with one way each would evict the other
+				if ((Machine.mTlbWays < 2) || (Machine.mTlbSize < Machine.mTlbWays)
+						|| ((Machine.mTlbSize % Machine.mTlbWays) != 0)) {
+					badArgument("-tlb <entries> <ways>: <ways> must be at least 2, and divide <entries>");
+				}
+			}
+
+			// Choose the TLB replacement policy
+			if (args[argv].compareTo("-tp") == 0) {
+				assert (argc > 1);
+				if (!TlbManager.setPolicy(args[argv + 1])) {
+					badArgument("-tp <fifo|lru|random>: unknown policy " + args[argv + 1]);
+				}
+				argCount = 2;
+			}
+
+			// Profile user programs, sampling every so many ticks
+			if (args[argv].compareTo("-pf") == 0) {
+				assert (argc > 1);
+				Profiler.mEnabled = true;
+				Profiler.mInterval = intArgument("-pf <ticks>", args[argv + 1]);
+				argCount = 2;
+			}
+
+			// Save a snapshot of the machine at the given time
+			if (args[argv].compareTo("-sv") == 0) {
+				assert (argc > 2);
+				Snapshot.mSaveAt = intArgument("-sv <ticks> <file>", args[argv + 1]);
+				Snapshot.mSaveFile = args[argv + 2];
+				argCount = 3;
+			}
+
+			// Record or replay the times interrupts are delivered
+			if (args[argv].compareTo("-rec") == 0) {
+				assert (argc > 1);
+				Replay.mRecordFile = args[argv + 1];
+				argCount = 2;
+			}
+			if (args[argv].compareTo("-rp") == 0) {
+				assert (argc > 1);
+				Replay.mReplayFile = args[argv + 1];
+				argCount = 2;
+			}
+
 			if (args[argv].compareTo("-q") == 0) {
 				assert (argc >= 1);
 				rely = new Float(args[argv + 1]);
@@ -182,11 +303,20 @@ public abstract class JNachos {
 			}
 		}
 
+		// The CPUs of a multiprocessor share neither a timer, a TLB nor a
+		// block engine, and do not run in step with each other
+		if ((Cpu.mCount > 1) && (randomYield || debugUserProg || Machine.mUSE_TLB || BlockEngine.mEnabled
+				|| Profiler.mEnabled || (Snapshot.mSaveFile != null) || (Replay.mRecordFile != null)
+				|| (Replay.mReplayFile != null))) {
+			badArgument("-cpus <n>: more than one CPU cannot be used with -rs, -s, -tlb, -bt, -pf, -sv, -rec or -rp");
+		}
+
 		// initialize DEBUG messages
 		Debug.debugInit(debugArgs);
 
 		// Initialize the interrupts
 		Interrupt.init();
+		Replay.init();
 
 		// initialize the ready queue
 		setScheduler(new Scheduler());
@@ -205,16 +335,48 @@ public abstract class JNachos {
 
 		// this must come first
 		mMachine = new Machine(debugUserProg, (new TimerInterruptHandler()), seed, randomYield);
-		mSynchDisk = new SynchDisk("DISK");
+		CoreMap.init();
+		TlbManager.init();
+
+		// Every other CPU starts out with a process that gives it to the first
+		// process made ready for it
+		for (int i = 1; i < Cpu.mCount; i++) {
+			new NachosProcess("Idle " + i).startOn(i);
+		}
+
+		// The disk holds the swap area, so the machines of a batch each need
+		// their own
+		mSynchDisk = new SynchDisk(mInBatch ? batchDisk() : "DISK");
 
 		mFileSystem = new JavaFileSystem(format);
 
+		if (Snapshot.mSaveFile != null) {
+			Snapshot.schedule();
+		}
+
 		/*
 		 * mPostOffice = new PostOffice(netname, rely, 10);
 		 */
 
 	}
 
+	/**
+	 * Makes a disk file for a machine run by jnachos.Batch. It is deleted when
+	 * the Java VM exits.
+	 *
+	 * @return the name of the file.
+	 */
+	private static String batchDisk() {
+		try {
+			File disk = File.createTempFile("DISK", null);
+			disk.delete();
+			disk.deleteOnExit();
+			return disk.getPath();
+		} catch (IOException e) {
+			return "DISK";
+		}
+	}
+
 	/**
 	 * Cleaning up the operating system on shut down. JNachos is halting.
 	 * De-allocate global data structures.
@@ -222,10 +384,55 @@ public abstract class JNachos {
 	public static void cleanUp() {
 		Debug.print('n', "\nCleaning up...\n");
 
+		if (mInBatch) {
+			// Every other process of this machine is waiting in suspend();
+			// interrupting it makes it throw Halt as well
+			ThreadGroup group = Thread.currentThread().getThreadGroup();
+			Thread[] threads = new Thread[group.activeCount() + 16];
+			int count = group.enumerate(threads);
+
+			for (int i = 0; i < count; i++) {
+				if (threads[i] != Thread.currentThread()) {
+					threads[i].interrupt();
+				}
+			}
+
+			throw new Halt();
+		}
+
 		// Exit the program
 		System.exit(0);
 	}
 
+	/**
+	 * Reports a command line argument that cannot be used, and stops.
+	 *
+	 * @param pMessage
+	 *            says what is wrong.
+	 */
+	private static void badArgument(String pMessage) {
+		System.out.println("Usage: " + pMessage);
+		cleanUp();
+	}
+
+	/**
+	 * Reads a number given on the command line, stopping if it is not one.
+	 *
+	 * @param pUsage
+	 *            the flag and its arguments, for the usage message.
+	 * @param pValue
+	 *            the argument.
+	 * @return the number.
+	 */
+	private static int intArgument(String pUsage, String pValue) {
+		try {
+			return Integer.parseInt(pValue);
+		} catch (NumberFormatException e) {
+			badArgument(pUsage + ": " + pValue + " is not a number");
+			return 0;
+		}
+	}
+
 	/**
 	 * Returns the NachosProcess which is currently executing.
 	 * 
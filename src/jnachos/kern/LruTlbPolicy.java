@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.MMU;
+
+/**
+ * Least recently used: replaces the entry of the set whose last hit is the
+ * oldest (MMU.mTlbLastUse).
+ */
+public class LruTlbPolicy implements TlbPolicy {
+	public String getName() {
+		return "lru";
+	}
+
+	public int chooseVictim(int pFirst, int pWays) {
+		int victim = pFirst;
+
+		for (int i = pFirst + 1; i < pFirst + pWays; i++) {
+			if (MMU.mTlbLastUse[i] < MMU.mTlbLastUse[victim]) {
+				victim = i;
+			}
+		}
+
+		return victim;
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+	}
+}
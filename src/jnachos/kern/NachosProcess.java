@@ -79,6 +79,16 @@ public class NachosProcess implements Runnable {
 	 */
 	private boolean mStarted;
 
+	/**
+	 * The PMU counters for the events in this process.
+	 */
+	private long[] mCounters = new long[PMU.NumCounters];
+
+	/**
+	 * The CPU this process last ran on, or -1 if it has yet to run.
+	 */
+	private int mCpu = -1;
+
 
 
     /**
@@ -95,6 +105,11 @@ public class NachosProcess implements Runnable {
     {
         NachosProcess.set_pid = set_pid;
     }
+
+    public static int getSet_pid()
+    {
+        return set_pid;
+    }
 	
     
 	public NachosProcess(String pProcessName) {
@@ -123,6 +138,9 @@ public class NachosProcess implements Runnable {
 		Object o = new Object();
 		try {
 			this.wait();
+		} catch (InterruptedException e) {
+			// Only a machine halting in a batch interrupts its processes
+			throw new Halt();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -179,6 +197,14 @@ public class NachosProcess implements Runnable {
 			JNachos.setProcessToBeDestroyed(null);
 		}
 
+		// A forked user process needs its registers in the machine before an
+		// interrupt can switch it out, or whatever is there gets saved as its
+		// own
+		if (mSpace != null) {
+			restoreUserState();
+			mSpace.restoreState();
+		}
+
 		// Make sure that when we start to run a new proceess
 		// interrupts should be turned ON!!!
 		Interrupt.setLevel(true);
@@ -197,13 +223,38 @@ public class NachosProcess implements Runnable {
 	 * Nachos.
 	 **/
 	public void kill() {
-		Debug.print('t', "Deleting Process " + mName);
+		Debug.print('t', () -> "Deleting Process " + mName);
 		assert (this != JNachos.getCurrentProcess());
 		if (mSpace != null) {
-
+			// Give back its memory
+			mSpace.release();
 		}
 	}
 
+	/**
+	 * Starts this process as the first one on a CPU of a multiprocessor other
+	 * than CPU 0. It just goes to sleep, so that the CPU runs the first
+	 * process made ready for it.
+	 *
+	 * @param pCpu
+	 *            the CPU's number.
+	 */
+	public void startOn(int pCpu) {
+		myFunc = pArg -> {
+			Interrupt.setLevel(false);
+			sleep();
+		};
+
+		mCpu = pCpu;
+		mStatus = ProcessStatus.RUNNING;
+		mStarted = true;
+		mThread = new Thread(() -> {
+			Cpu.start(pCpu, this);
+			run();
+		});
+		mThread.start();
+	}
+
 	/**
 	 * Invoke VoidFunctionPtr.call, allowing caller and callee to execute
 	 * concurrently.
@@ -220,7 +271,7 @@ public class NachosProcess implements Runnable {
 	 *            is a single argument to be passed to the procedure.
 	 **/
 	public void fork(VoidFunctionPtr pFunc, Object pArg) {
-		Debug.print('t', "Forking Process " + mName + "with func = " + pFunc + ", arg = " + pArg);
+		Debug.print('t', () -> "Forking Process " + mName + "with func = " + pFunc + ", arg = " + pArg);
 
 		// Capture the current state of the interrupts
 		boolean oldLevel = Interrupt.setLevel(false);
@@ -256,7 +307,13 @@ public class NachosProcess implements Runnable {
 		// Processes can only kill themselves
 		assert (this == JNachos.getCurrentProcess());
 
-		Debug.print('t', "Finishing Process " + getName());
+		Debug.print('t', () -> "Finishing Process " + getName());
+
+		// On a multiprocessor, the process that finished last on another CPU
+		// may not be destroyed yet
+		if (JNachos.getProcessToBeDestroyed() != null) {
+			JNachos.getProcessToBeDestroyed().kill();
+		}
 
 		// Mark this process as to be destroyed
 		JNachos.setProcessToBeDestroyed(this);
@@ -290,7 +347,7 @@ public class NachosProcess implements Runnable {
 		// Only the currently executing process can yield
 		assert (this == JNachos.getCurrentProcess());
 
-		Debug.print('t', "Yielding Process " + getName());
+		Debug.print('t', () -> "Yielding Process " + getName());
 
 		// Find the next process to run
 		nextProcess = Scheduler.findNextToRun();
@@ -334,7 +391,7 @@ public class NachosProcess implements Runnable {
 		// interrupts should already be disabled
 		assert (Interrupt.getLevel() == false);
 
-		Debug.print('t', "Sleeping Process" + getName());
+		Debug.print('t', () -> "Sleeping Process" + getName());
 
 		// Set the status for this process to blocked
 		mStatus = ProcessStatus.BLOCKED;
@@ -367,6 +424,9 @@ public class NachosProcess implements Runnable {
 		if (oldProcess == pNextProcess)
 			return;
 
+		// Charge the events so far to the process giving up the CPU
+		PMU.switchOut(oldProcess.mCounters);
+
 		// If this process's address space is not null
 		if (oldProcess.getSpace() != null) {
 			// save the user's CPU registers
@@ -378,11 +438,17 @@ public class NachosProcess implements Runnable {
 
 		// switch to the next process
 		JNachos.setCurrentProcess(pNextProcess);
+		pNextProcess.mCpu = Cpu.current();
 
 		// nextProcess is now running
 		pNextProcess.setStatus(ProcessStatus.RUNNING);
 
-		Debug.print('t', "Switching from process " + oldProcess.getName() + " to process " + pNextProcess.getName());
+		Debug.print('t',
+				() -> "Switching from process " + oldProcess.getName() + " to process " + pNextProcess.getName());
+
+		// Each process carries on in the mode it gave up the CPU in (it may
+		// have been asleep in the kernel, waiting for a page)
+		int status = Interrupt.getStatus();
 
 		// Resume the other process
 		pNextProcess.resume();
@@ -390,7 +456,9 @@ public class NachosProcess implements Runnable {
 		// Stop the current process
 		oldProcess.suspend();
 
-		Debug.print('t', "Now in process " + pNextProcess.getName());
+		Interrupt.setStatus(status);
+
+		Debug.print('t', () -> "Now in process " + pNextProcess.getName());
 
 		// If the old process gave up the processor because it was finishing,
 		// we need to delete its carcass. Note we cannot delete the process
@@ -461,7 +529,7 @@ public class NachosProcess implements Runnable {
         {
             mUserRegisters[num] = value;
         }
-        Debug.print('m', "Save User Register " + num + ", value" + value);
+        Debug.print('m', () -> "Save User Register " + num + ", value" + value);
     }
 	public ProcessStatus getStatus() {
 		return mStatus;
@@ -477,6 +545,15 @@ public class NachosProcess implements Runnable {
 		mStatus = pStatus;
 	}
 
+	/**
+	 * Gets the CPU this process last ran on.
+	 *
+	 * @return the CPU's number, or -1 if it has yet to run.
+	 */
+	public int getCpu() {
+		return mCpu;
+	}
+
 	/**
 	 * Gets the name for this process.
 	 * 
@@ -486,6 +563,16 @@ public class NachosProcess implements Runnable {
 		return mName;
 	}
 
+	/**
+	 * Gets the PMU counters for this process. Those of the running process do
+	 * not include the events since it was switched in (see PMU.read).
+	 * 
+	 * @return the counters, indexed as PMU.mCounters.
+	 */
+	public long[] getCounters() {
+		return mCounters;
+	}
+
 	/**
 	 * Gets a string representing this process.
 	 * 
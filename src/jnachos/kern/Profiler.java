@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jnachos.machine.*;
+
+/**
+ * A sampling profiler for user programs.
+ *
+ * Every mInterval ticks of simulated time spent running user code, the
+ * machine calls sample(), which looks up the function containing the current
+ * program counter and counts it against the running process. Function names
+ * come from the ".sym" file that coff2noff writes next to each executable.
+ *
+ * When the machine halts the counts are written to OutputFile in the
+ * "collapsed stack" format read by flame graph tools: one line per
+ * process and function, "program[pid];function count".
+ */
+public class Profiler {
+	/** The file the profile is written to. */
+	public static final String OutputFile = "profile.folded";
+
+	/** True if user programs are being profiled. */
+	public static boolean mEnabled = false;
+
+	/** The number of ticks between samples. */
+	public static int mInterval = 1000;
+
+	/** The time at which the next sample is due. */
+	private static int mNextSample = 0;
+
+	/** The number of samples taken for each process and function. */
+	private static Map<String, Integer> mCounts = new TreeMap<String, Integer>();
+
+	/** The symbol tables read so far, by executable name. */
+	private static HashMap<String, SymbolTable> mSymbols = new HashMap<String, SymbolTable>();
+
+	/**
+	 * Gets how far away the next sample is.
+	 *
+	 * @return the number of ticks until the next sample is due.
+	 */
+	public static int ticksUntilSample() {
+		return mNextSample - Statistics.totalTicks;
+	}
+
+	/**
+	 * Records a sample of the current program counter if one is due. Called
+	 * by the machine after running user instructions.
+	 */
+	public static void sample() {
+		if (Statistics.totalTicks < mNextSample) {
+			return;
+		}
+
+		// Schedule the next sample from now, so a long system call counts once
+		mNextSample = Statistics.totalTicks + mInterval;
+
+		NachosProcess process = JNachos.getCurrentProcess();
+		AddrSpace space = process.getSpace();
+		String image = (space == null) ? null : space.getImageName();
+		int pc = Machine.mRegisters[Machine.PCReg];
+
+		String function;
+		if (image == null) {
+			image = process.getName();
+			function = "0x" + Integer.toHexString(pc);
+		} else {
+			function = symbolsFor(image).lookup(pc);
+		}
+
+		String key = image + "[" + process.getpid() + "];" + function;
+		Integer count = mCounts.get(key);
+		mCounts.put(key, (count == null) ? 1 : count + 1);
+	}
+
+	/**
+	 * Writes the profile to OutputFile. Called when the machine halts.
+	 */
+	public static void write() {
+		if (!mEnabled) {
+			return;
+		}
+
+		try (PrintWriter out = new PrintWriter(OutputFile)) {
+			for (Map.Entry<String, Integer> entry : mCounts.entrySet()) {
+				out.println(entry.getKey() + " " + entry.getValue());
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to write profile " + OutputFile + ": " + e);
+			return;
+		}
+
+		System.out.println("Profile: " + mCounts.size() + " functions sampled every " + mInterval
+				+ " ticks, written to " + OutputFile);
+	}
+
+	/**
+	 * Gets the symbol table for an executable, reading it the first time.
+	 *
+	 * @param pImage
+	 *            the file name of the executable.
+	 * @return the symbol table (empty if the executable has no .sym file).
+	 */
+	private static SymbolTable symbolsFor(String pImage) {
+		SymbolTable table = mSymbols.get(pImage);
+		if (table == null) {
+			table = new SymbolTable(pImage + ".sym");
+			mSymbols.put(pImage, table);
+		}
+
+		return table;
+	}
+}
+
+/**
+ * The function start addresses of one executable, sorted so that the
+ * function containing an address can be found by binary search.
+ */
+class SymbolTable {
+	/** The start address of each function, in increasing order. */
+	private int[] mAddrs;
+
+	/** The name of each function. */
+	private String[] mNames;
+
+	/**
+	 * Reads a symbol file of "address name" lines, address in hex. A missing
+	 * file gives an empty table.
+	 *
+	 * @param pFileName
+	 *            the name of the symbol file.
+	 */
+	public SymbolTable(String pFileName) {
+		TreeMap<Integer, String> symbols = new TreeMap<Integer, String>();
+
+		try (BufferedReader in = new BufferedReader(new FileReader(pFileName))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length == 2) {
+					symbols.put((int) Long.parseLong(fields[0], 16), fields[1]);
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			Debug.print('t', () -> "No symbols from " + pFileName + ": " + e);
+		}
+
+		mAddrs = new int[symbols.size()];
+		mNames = new ArrayList<String>(symbols.values()).toArray(new String[0]);
+
+		int i = 0;
+		for (int addr : symbols.keySet()) {
+			mAddrs[i++] = addr;
+		}
+	}
+
+	/**
+	 * Finds the function containing an address.
+	 *
+	 * @param pAddr
+	 *            the address (a program counter).
+	 * @return the function name, or the address in hex if it is before the
+	 *         first function.
+	 */
+	public String lookup(int pAddr) {
+		int low = 0;
+		int high = mAddrs.length - 1;
+
+		// Find the last function starting at or before the address
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (mAddrs[mid] <= pAddr) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		if (high < 0) {
+			return "0x" + Integer.toHexString(pAddr);
+		}
+
+		return mNames[high];
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Random: replaces any entry of the set. The numbers come from a fixed
+ * seed, so runs can be repeated.
+ */
+public class RandomTlbPolicy implements TlbPolicy {
+	/** The state of the xorshift generator; never 0. */
+	private int mState = 2463534;
+
+	public String getName() {
+		return "random";
+	}
+
+	public int chooseVictim(int pFirst, int pWays) {
+		mState ^= mState << 13;
+		mState ^= mState >>> 17;
+		mState ^= mState << 5;
+
+		return pFirst + Integer.remainderUnsigned(mState, pWays);
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(mState);
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		mState = pIn.readInt();
+	}
+}
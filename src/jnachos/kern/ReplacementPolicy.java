@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Chooses which page to take out of memory when a frame is needed and none
+ * is free. CoreMap keeps track of the frames and does the paging out; a
+ * policy only picks the frame.
+ *
+ * A policy may look at the use and dirty bits of the page in a frame
+ * (CoreMap.entryOf), and may only choose a frame for which
+ * CoreMap.isCandidate is true. The policy is chosen with "-pr <name>".
+ */
+public interface ReplacementPolicy {
+	/**
+	 * Gets the name the policy is chosen by.
+	 *
+	 * @return the name.
+	 */
+	String getName();
+
+	/**
+	 * Called when a frame has been given a page and the page is mapped.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	void loaded(int pFrame);
+
+	/**
+	 * Chooses the frame whose page is to be paged out. There is always at
+	 * least one candidate.
+	 *
+	 * @return the frame.
+	 */
+	int chooseVictim();
+
+	/**
+	 * Called on every timer interrupt, for policies that sample the use bits.
+	 */
+	void tick();
+
+	/**
+	 * Writes the state of the policy to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	void save(DataOutputStream pOut) throws IOException;
+
+	/**
+	 * Reads the state of the policy back from a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	void restore(DataInputStream pIn) throws IOException;
+}
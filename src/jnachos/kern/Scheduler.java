@@ -10,6 +10,7 @@ package jnachos.kern;
 
 import java.util.LinkedList;
 import java.util.HashMap;
+import jnachos.machine.*;
 
 /**
  * Routines to choose the next process to run, and to dispatch to that process.
@@ -24,24 +25,37 @@ import java.util.HashMap;
  * Very simple implementation -- no priorities, straight FIFO. Might need to be
  * improved in later assignments.
  * 
+ * On a multiprocessor (see Cpu) each CPU has a ready list of its own. A
+ * process made ready goes back to the CPU it last ran on if that one is idle
+ * or still has it as its process, else to an idle CPU with nothing waiting,
+ * else back to its last CPU; a new one goes to the shortest list. A CPU
+ * whose list is empty takes a process from the longest one.
  */
 public class Scheduler {
-	/**
-	 * The list of ready to run process.
-	 */
 	//Join-Req 2-Save a pointer to the invoking process some where
     //that can be accessed later (new data structure)
     private static HashMap<Integer,NachosProcess> processTable;
-	private static LinkedList<NachosProcess> readyList;
+
+	/**
+	 * The lists of ready to run processes, one for each CPU.
+	 */
+	private static LinkedList<NachosProcess>[] readyLists;
+
+	/** The number of processes on the ready lists. */
+	private static int mReady;
 	
 
 
 	/**
 	 * Initialize the list of ready but not running process to empty.
 	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	Scheduler() {
-		// Create a list of the processes
-		readyList = new LinkedList<NachosProcess>();
+		// Create a list of the processes for each CPU
+		readyLists = new LinkedList[Cpu.mCount];
+		for (int i = 0; i < readyLists.length; i++) {
+			readyLists[i] = new LinkedList<NachosProcess>();
+		}
 		processTable = new HashMap<Integer,NachosProcess>();
 	}
 
@@ -49,17 +63,20 @@ public class Scheduler {
 	 * De-allocate the list of ready process.
 	 */
 	public static void killScheduler() {
-		// Iterate through the list of ready Processes
-		while (!readyList.isEmpty()) {
-			// Remove the next process from the list
-			NachosProcess proc = readyList.removeFirst();
+		// Iterate through the lists of ready Processes
+		for (LinkedList<NachosProcess> readyList : readyLists) {
+			while (!readyList.isEmpty()) {
+				// Remove the next process from the list
+				NachosProcess proc = readyList.removeFirst();
 
-			// Kill this process
-			proc.kill();
+				// Kill this process
+				proc.kill();
+			}
 		}
 
-		// Mark the ready list as null
-		readyList = null;
+		// Mark the ready lists as null
+		readyLists = null;
+		mReady = 0;
 	}
 
 	/**
@@ -70,13 +87,56 @@ public class Scheduler {
 	 *            is the process to be put on the ready list.
 	 **/
 	public static void readyToRun(NachosProcess pProcess) {
-		Debug.print('t', "Putting process " + pProcess.getName() + " on ready list.\n");
+		Debug.print('t', () -> "Putting process " + pProcess.getName() + " on ready list.\n");
 
 		// Mark this process as ready to run
 		pProcess.setStatus(ProcessStatus.READY);
 
 		// Add this process to the list of process
-		readyList.addLast(pProcess);
+		readyLists[placeOf(pProcess)].addLast(pProcess);
+		mReady++;
+
+		Cpu.workAdded();
+	}
+
+	/**
+	 * Chooses the CPU whose ready list a process goes on.
+	 *
+	 * @param pProcess
+	 *            the process.
+	 * @return the CPU's number.
+	 */
+	private static int placeOf(NachosProcess pProcess) {
+		int last = pProcess.getCpu();
+		int shortest = 0;
+
+		if (readyLists.length == 1) {
+			return 0;
+		}
+
+		// One still on its CPU (asleep there, with nothing else to run) has to
+		// go back to it
+		if ((last >= 0) && (Cpu.isIdle(last) || (Cpu.getProcess(last) == pProcess))) {
+			return last;
+		}
+
+		for (int i = 0; i < readyLists.length; i++) {
+			if (Cpu.isIdle(i) && readyLists[i].isEmpty()) {
+				return i;
+			}
+		}
+
+		if (last >= 0) {
+			return last;
+		}
+
+		for (int i = 1; i < readyLists.length; i++) {
+			if (readyLists[i].size() < readyLists[shortest].size()) {
+				shortest = i;
+			}
+		}
+
+		return shortest;
 	}
 
 
@@ -117,12 +177,65 @@ public class Scheduler {
 	 * @return The next process that is able to run is returned, null if non.
 	 **/
 	public static NachosProcess findNextToRun() {
+		LinkedList<NachosProcess> readyList = readyLists[Cpu.current()];
+		NachosProcess next;
+
 		// If the list is empty return null
 		if (readyList.isEmpty())
-			return null;
+			return (readyLists.length == 1) ? null : steal();
 
 		// Return the head of the list
-		return readyList.removeFirst();
+		next = readyList.removeFirst();
+		mReady--;
+		return next;
+	}
+
+	/**
+	 * Takes a process from the longest ready list of another CPU, passing over
+	 * any still running on a CPU of its own (it has been woken, but has yet to
+	 * switch away).
+	 *
+	 * @return the process, or null if there is none.
+	 */
+	private static NachosProcess steal() {
+		LinkedList<NachosProcess> from = null;
+		NachosProcess next = null;
+
+		for (LinkedList<NachosProcess> readyList : readyLists) {
+			if ((from == null) || (readyList.size() > from.size())) {
+				for (NachosProcess process : readyList) {
+					if (!isRunningElsewhere(process)) {
+						from = readyList;
+						next = process;
+						break;
+					}
+				}
+			}
+		}
+
+		if (next != null) {
+			from.remove(next);
+			mReady--;
+		}
+
+		return next;
+	}
+
+	/**
+	 * Checks whether a process is on a CPU other than the one in the kernel.
+	 *
+	 * @param pProcess
+	 *            the process.
+	 * @return true if another CPU is running it, or last ran it and is idle.
+	 */
+	private static boolean isRunningElsewhere(NachosProcess pProcess) {
+		for (int i = 0; i < Cpu.mCount; i++) {
+			if ((i != Cpu.current()) && (Cpu.getProcess(i) == pProcess)) {
+				return true;
+			}
+		}
+
+		return false;
 	}
 
 	//Join Req 4 Every time a process calls the Exit System call,check if any other process is waiting for it to finish.
@@ -137,10 +250,21 @@ public class Scheduler {
      * list. For debugging.
      **/
 
+	/**
+	 * Checks that no process is ready to run or waiting in Join.
+	 *
+	 * @return true if the running process is the only one that can run.
+	 */
+	public static boolean isEmpty() {
+		return (mReady == 0) && processTable.isEmpty();
+	}
+
 	public static void Print() {
 		System.out.println("Ready list contents:\n");
-		for (NachosProcess np : readyList) {
-			System.out.println(np);
+		for (LinkedList<NachosProcess> readyList : readyLists) {
+			for (NachosProcess np : readyList) {
+				System.out.println(np);
+			}
 		}
 	}
 
@@ -148,10 +272,21 @@ public class Scheduler {
 
 	public static boolean checkProcess(int processID)
     {
-		for (int i = 0; i < readyList.size(); i++)
+		for (LinkedList<NachosProcess> readyList : readyLists)
+		{
+			for (NachosProcess nachosProcess : readyList)
+			{
+				if (processID == nachosProcess.getpid())
+				{
+					return true;
+				}
+			}
+		}
+
+		// On a multiprocessor it may be running on another CPU
+		for (int i = 0; i < Cpu.mCount; i++)
 		{
-			NachosProcess nachosProcess = readyList.get(i);
-			if (processID == nachosProcess.getpid())
+			if ((i != Cpu.current()) && !Cpu.isIdle(i) && (processID == Cpu.getProcess(i).getpid()))
 			{
 				return true;
 			}
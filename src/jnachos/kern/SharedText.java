@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.util.HashMap;
+
+/**
+ * Keeps track of the code pages of the executables being run, so that the
+ * processes running the same executable share one copy of its code.
+ *
+ * An executable is known by its file name and the size of its code. For
+ * each, the table holds the frame each code page is in, -1 if it is not in
+ * memory. Code pages are never written: one that is paged out is simply
+ * dropped and read again from the executable (see AddrSpace.loadText).
+ */
+public abstract class SharedText {
+	/** The frames holding the code pages of each executable. */
+	private static HashMap<String, int[]> mFrames = new HashMap<String, int[]>();
+
+	/** The number of address spaces running each executable. */
+	private static HashMap<String, Integer> mUsers = new HashMap<String, Integer>();
+
+	/**
+	 * Starts using the code pages of an executable.
+	 *
+	 * @param pKey
+	 *            names the executable.
+	 * @param pNumPages
+	 *            the number of code pages it has.
+	 * @return the frame of each code page, -1 if not in memory, shared by
+	 *         all address spaces running the executable.
+	 */
+	public static int[] attach(String pKey, int pNumPages) {
+		int[] frames = mFrames.get(pKey);
+
+		if (frames == null) {
+			frames = new int[pNumPages];
+			for (int i = 0; i < pNumPages; i++) {
+				frames[i] = -1;
+			}
+
+			mFrames.put(pKey, frames);
+			mUsers.put(pKey, 0);
+		}
+
+		assert (frames.length == pNumPages);
+		mUsers.put(pKey, mUsers.get(pKey) + 1);
+		return frames;
+	}
+
+	/**
+	 * Stops using the code pages of an executable. The table is dropped once
+	 * no address space runs it; by then none of its pages is in memory.
+	 *
+	 * @param pKey
+	 *            names the executable.
+	 */
+	public static void detach(String pKey) {
+		int users = mUsers.get(pKey) - 1;
+
+		if (users > 0) {
+			mUsers.put(pKey, users);
+			return;
+		}
+
+		for (int frame : mFrames.get(pKey)) {
+			assert (frame < 0);
+		}
+
+		mFrames.remove(pKey);
+		mUsers.remove(pKey);
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import jnachos.machine.*;
+
+/**
+ * Saves the whole machine to a file in the middle of a run, and starts later
+ * runs from that file instead of from the beginning.
+ *
+ * "-sv <ticks> <file>" takes the snapshot at the first user instruction
+ * boundary at or after the given time at which it can be taken; "-ld <file>"
+ * then runs from it in place of "-x". A snapshot holds main memory, the
+ * registers, the page table and free frame map, the pending timer interrupts
+ * (with the state of the -rs random slices), Statistics, the PMU counters,
+ * the -pm frame limit and the state of the -pr replacement policy.
+ * A restored run prints the same results as the run it was taken from.
+ *
+ * Each process is a Java thread whose kernel stack cannot be saved, so a
+ * snapshot is only taken while exactly one process exists and it is running
+ * user code, with no disk or console operation in flight and no page in the
+ * swap area. Until then it is retried just after each interrupt, since that
+ * is what changes the state of the machine. If the programs finish first,
+ * the snapshot is not taken. The file system is the host's (JavaFileSystem),
+ * so there is no disk image to save.
+ */
+public class Snapshot implements VoidFunctionPtr {
+	/** Identifies a snapshot file ("JNSN"). */
+	private static final int Magic = 0x4a4e534e;
+
+	/** The layout version of the snapshot file. */
+	private static final int Version = 11;
+
+	/** The file to save a snapshot to, or null if none is to be taken. */
+	public static String mSaveFile = null;
+
+	/** The time at which to save the snapshot. */
+	public static int mSaveAt = 0;
+
+	/** How long to wait before trying again when no interrupt is pending. */
+	private static final int RetryTicks = Statistics.TimerTicks;
+
+	/**
+	 * Arranges for the snapshot to be taken. Called once the machine is up.
+	 */
+	public static void schedule() {
+		Interrupt.schedule(new Snapshot(), null, Math.max(mSaveAt - Statistics.totalTicks, 1),
+				InterruptType.SnapshotInt);
+	}
+
+	/**
+	 * Called as an interrupt when the snapshot is due. Takes it if the
+	 * machine is in a state that can be saved, otherwise tries again just
+	 * after the next interrupt. Gives up once no process is left to run.
+	 *
+	 * @param pDummy
+	 *            not used.
+	 */
+	public void call(Object pDummy) {
+		if (Interrupt.isHalted()) {
+			return;
+		}
+
+		// Idle with nothing but timers pending, nothing will run again; the
+		// machine halts once this interrupt is no longer pending
+		if ((Interrupt.getInterruptedStatus() == Interrupt.IdleMode) && Scheduler.isEmpty()
+				&& Interrupt.onlyTimersPending()) {
+			System.out.println("Snapshot " + mSaveFile + " not taken: no process left to save");
+			return;
+		}
+
+		// Another interrupt due now would run after this one, and so after
+		// the point the snapshot resumes from
+		if ((Interrupt.getInterruptedStatus() != Interrupt.UserMode) || !Scheduler.isEmpty()
+				|| !Interrupt.onlyTimersPending() || (Interrupt.ticksUntilDue() <= 0)
+				|| (SwapSpace.inUse() > 0)) {
+			int due = Interrupt.ticksUntilDue();
+
+			Interrupt.schedule(this, null, (due == Integer.MAX_VALUE) ? RetryTicks : Math.max(due, 0) + 1,
+					InterruptType.SnapshotInt);
+			return;
+		}
+
+		try {
+			save(mSaveFile);
+		} catch (IOException e) {
+			System.out.println("Unable to write snapshot " + mSaveFile + ": " + e);
+			return;
+		}
+
+		System.out.println("Snapshot of " + JNachos.getCurrentProcess().getName() + " at tick "
+				+ Statistics.totalTicks + " written to " + mSaveFile);
+	}
+
+	/**
+	 * Writes the snapshot.
+	 *
+	 * @param pFileName
+	 *            the file to write.
+	 */
+	private static void save(String pFileName) throws IOException {
+		NachosProcess process = JNachos.getCurrentProcess();
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(pFileName)))) {
+			out.writeInt(Magic);
+			out.writeInt(Version);
+
+			// The process, with its counters up to now
+			out.writeUTF(process.getName());
+			out.writeInt(process.getpid());
+			out.writeInt(NachosProcess.getSet_pid());
+			for (int i = 0; i < PMU.NumCounters; i++) {
+				out.writeLong(PMU.read(process.getCounters(), i));
+			}
+
+			Statistics.save(out);
+			PMU.save(out);
+			Machine.getTimer().save(out);
+			Interrupt.saveTimers(out);
+			CoreMap.save(out);
+			FrameAllocator.save(out);
+			TlbManager.save(out);
+			process.getSpace().save(out);
+			Machine.save(out);
+		}
+	}
+
+	/**
+	 * Reads a snapshot and creates its process, which continues from the
+	 * snapshot when it is first run. Called in place of starting a program.
+	 *
+	 * @param pFileName
+	 *            the snapshot file.
+	 */
+	public static void load(String pFileName) {
+		DataInputStream in;
+		String name;
+		int pid;
+		int nextPid;
+		long[] counters = new long[PMU.NumCounters];
+
+		// A snapshot holds the state of a single CPU
+		if (Cpu.mCount > 1) {
+			System.out.println("Usage: -ld <file> cannot be used with more than one CPU");
+			return;
+		}
+
+		try {
+			// The whole file is needed, so read it in one go
+			in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(Paths.get(pFileName))));
+
+			if ((in.readInt() != Magic) || (in.readInt() != Version)) {
+				System.out.println(pFileName + " is not a snapshot");
+				return;
+			}
+
+			name = in.readUTF();
+			pid = in.readInt();
+			nextPid = in.readInt();
+			for (int i = 0; i < PMU.NumCounters; i++) {
+				counters[i] = in.readLong();
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to read snapshot " + pFileName + ": " + e);
+			return;
+		}
+
+		// Give the process its old pid, and keep later pids as they were
+		NachosProcess.setSet_pid(pid);
+		NachosProcess process = new NachosProcess(name);
+		NachosProcess.setSet_pid(nextPid);
+		System.arraycopy(counters, 0, process.getCounters(), 0, PMU.NumCounters);
+
+		process.fork(new RestoreProcess(), in);
+	}
+}
+
+/**
+ * Starts the process of a snapshot: puts the machine back as the snapshot
+ * has it and continues running user code from there.
+ */
+class RestoreProcess implements VoidFunctionPtr {
+	/**
+	 * @param pArg
+	 *            the rest of the snapshot, after the process.
+	 */
+	public void call(Object pArg) {
+		DataInputStream in = (DataInputStream) pArg;
+		AddrSpace space;
+
+		try {
+			Statistics.restore(in);
+			PMU.restore(in);
+			Machine.getTimer().restore(in);
+			Interrupt.restoreTimers(in, Machine.getTimer());
+			CoreMap.restore(in);
+			FrameAllocator.restore(in);
+			TlbManager.restore(in);
+			space = new AddrSpace(in);
+			Machine.restore(in);
+		} catch (IOException e) {
+			System.out.println("Unable to read snapshot: " + e);
+			return;
+		}
+
+		JNachos.getCurrentProcess().setSpace(space);
+		space.restoreState();
+
+		// Never returns, as in StartProcess
+		Machine.run();
+
+		assert (false);
+	}
+}
@@ -5,7 +5,6 @@
 
 package jnachos.kern;
 
-import jnachos.filesystem.OpenFile;
 import jnachos.machine.Machine;
 
 /**
@@ -22,12 +21,12 @@ public class StartProcess implements VoidFunctionPtr {
 
 		String filename = (String) arg;
 
-		// The executable file to run
-		OpenFile executable = JNachos.mFileSystem.open(filename);
+		// The executable file to run, parsed already if it has run before
+		ExecutableImage executable = ExecutableCache.open(filename);
 
 		// If the file does not exist
 		if (executable == null) {
-			Debug.print('t', "Unable to open file" + filename);
+			Debug.print('t', () -> "Unable to open file" + filename);
 			return;
 		}
 
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import jnachos.filesystem.BitMap;
+import jnachos.machine.*;
+
+/**
+ * The swap area: the sectors of the simulated disk that hold pages which
+ * have been paged out of main memory. A page fits exactly in one sector, so
+ * each slot of the swap area is one sector.
+ *
+ * The kernel keeps its files on the host (JavaFileSystem), so nothing else
+ * uses the disk and the swap area is all of it.
+ *
+ * A slot may be shared by the address spaces sharing a page copy-on-write
+ * after a fork; it is counted, and given back when the last one frees it.
+ *
+ * Reads and writes go through JNachos.mSynchDisk and so put the calling
+ * process to sleep until the disk is done.
+ */
+public abstract class SwapSpace {
+	/** The first sector of the swap area. */
+	public static final int FirstSector = 0;
+
+	/** The number of slots (sectors) in the swap area. */
+	public static final int NumSlots = Disk.NumSectors - FirstSector;
+
+	/** The slots in use. */
+	private static BitMap mSlots = new BitMap(NumSlots);
+
+	/** The number of address spaces using each slot. */
+	private static int[] mRefs = new int[NumSlots];
+
+	/**
+	 * Finds a free slot and marks it used.
+	 *
+	 * @return the slot, or -1 if the swap area is full.
+	 */
+	public static int allocate() {
+		assert (Machine.PageSize == Disk.SectorSize);
+
+		int slot = mSlots.find();
+		if (slot >= 0) {
+			mRefs[slot] = 1;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Records that one more address space uses a slot.
+	 *
+	 * @param pSlot
+	 *            the slot, which is in use.
+	 */
+	public static void share(int pSlot) {
+		assert (mRefs[pSlot] > 0);
+
+		mRefs[pSlot]++;
+	}
+
+	/**
+	 * Lets go of a slot. It is given back once no address space uses it.
+	 *
+	 * @param pSlot
+	 *            the slot no longer needed.
+	 */
+	public static void free(int pSlot) {
+		assert (mRefs[pSlot] > 0);
+
+		if (--mRefs[pSlot] == 0) {
+			mSlots.clear(pSlot);
+		}
+	}
+
+	/**
+	 * Gets the number of slots in use.
+	 *
+	 * @return the number of slots holding a page.
+	 */
+	public static int inUse() {
+		return NumSlots - mSlots.numClear();
+	}
+
+	/**
+	 * Reads a page from the swap area into a frame of main memory.
+	 *
+	 * @param pSlot
+	 *            the slot holding the page.
+	 * @param pFrame
+	 *            the physical page to read it into.
+	 */
+	public static void read(int pSlot, int pFrame) {
+		// Each request has its own buffer, as the disk is shared by processes
+		byte[] buffer = new byte[Disk.SectorSize];
+
+		Debug.print('a', () -> "Swap in slot " + pSlot + " to frame " + pFrame);
+		JNachos.mSynchDisk.readSector(FirstSector + pSlot, buffer);
+
+		Machine.mMemory.copyIn(pFrame * Machine.PageSize, buffer, 0, Machine.PageSize);
+
+		// Forget anything decoded from the frame's old contents
+		DecodeCache.invalidate(pFrame);
+	}
+
+	/**
+	 * Writes a frame of main memory to the swap area.
+	 *
+	 * @param pSlot
+	 *            the slot to write.
+	 * @param pFrame
+	 *            the physical page to write.
+	 */
+	public static void write(int pSlot, int pFrame) {
+		byte[] buffer = new byte[Disk.SectorSize];
+
+		Debug.print('a', () -> "Swap out frame " + pFrame + " to slot " + pSlot);
+		Machine.mMemory.copyOut(pFrame * Machine.PageSize, buffer, 0, Machine.PageSize);
+
+		JNachos.mSynchDisk.writeSector(FirstSector + pSlot, buffer);
+	}
+}
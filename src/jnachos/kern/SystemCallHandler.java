@@ -45,6 +45,9 @@ public class SystemCallHandler {
 	/** The System call index for yielding a program. */
 	public static final int SC_Yield = 10;
 
+	/** The System call index for reading a PMU counter. */
+	public static final int SC_ReadCounter = 11;
+
 	/**
 	 * Entry point into the Nachos kernel. Called when a user program is
 	 * executing, and either does a syscall, or generates an addressing or
@@ -81,6 +84,7 @@ public class SystemCallHandler {
 
                 case SC_Halt:
                     Debug.print('a', "Shutdown, initiated by user program.");
+                    retirecounters();
                     Interrupt.halt();
                     break;
 
@@ -101,6 +105,7 @@ public class SystemCallHandler {
                     //check for the waiting process
                     //Join- req 4-6
                     Scheduler.checkwaitingproc(JNachos.getCurrentProcess().getpid(), arg);
+                    retirecounters();
                     // Finish the invoking process
                     JNachos.getCurrentProcess().finish();
 
@@ -140,6 +145,10 @@ public class SystemCallHandler {
 
                     break;
 
+                case SC_ReadCounter:
+                    readcounter();
+                    break;
+
 
                 default:
                     Interrupt.halt();
@@ -151,6 +160,33 @@ public class SystemCallHandler {
             System.out.println(e);
         }
         }
+//ReadCounter system call: r4 is the PMU counter to read, r5 is 0 for this
+//process's count or 1 for the whole machine's. The 64-bit value is returned
+//in r2 (low word) and r3 (high word); an unknown counter reads as 0.
+    private static void readcounter() {
+
+        int which = Machine.readRegister(4);
+        long value = 0;
+
+        if ((which >= 0) && (which < PMU.NumCounters)) {
+            if (Machine.readRegister(5) != 0) {
+                value = PMU.total(which);
+            } else {
+                value = PMU.read(JNachos.getCurrentProcess().getCounters(), which);
+            }
+        }
+
+        Machine.writeRegister(2, (int) value);
+        Machine.writeRegister(3, (int) (value >>> 32));
+    }
+
+//keep the PMU counts of the current process for the shutdown report
+    private static void retirecounters() {
+
+        NachosProcess process = JNachos.getCurrentProcess();
+        PMU.retire(process.getName() + "[" + process.getpid() + "]", process.getCounters());
+    }
+
 //exec system call
     private static void execfunc() {
 
@@ -167,13 +203,18 @@ public class SystemCallHandler {
         //Exec req 3 Reset the processs registers to their initial default  state.
 
 
-        OpenFile executablefile;
-        executablefile = JNachos.mFileSystem.open(file);
+        ExecutableImage executablefile;
+        executablefile = ExecutableCache.open(file);
         if(executablefile==null)
         {
             System.out.println("File path is not correct");
         }
         System.out.println("The file being executed is " + file);
+        //the old address space is overwritten, so give its memory back first
+        if(executablefile!=null)
+        {
+            JNachos.getCurrentProcess().getSpace().release();
+        }
         AddrSpace newaddressspace;
         newaddressspace = new AddrSpace(executablefile);
         JNachos.getCurrentProcess().setSpace(newaddressspace);
@@ -196,7 +237,13 @@ public class SystemCallHandler {
         int asciivalue = 1;
         while((char) asciivalue!='\0')
         {
-            asciivalue = Machine.readMem(regvalue, 1);
+            asciivalue = Machine.loadByte(regvalue);
+            //the page was paged out; it is back in now, so read it again
+            if(Machine.mMemException == ExceptionType.PageFaultException)
+            {
+                asciivalue = 1;
+                continue;
+            }
             if((char) asciivalue!= '\0')
             {
                 file = file + (char) asciivalue;
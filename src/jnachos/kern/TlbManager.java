@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.*;
+
+/**
+ * Loads the TLB, when the machine has one (-tlb). The machine then only
+ * translates through the TLB, and a missing translation raises
+ * PageFaultException; handleMiss() loads the entry from the page table of
+ * the running process, paging the page in first if it is not in memory.
+ *
+ * Each address space is given an address space identifier (ASID), and the
+ * TLB entries are tagged with it, so the TLB is not flushed on a context
+ * switch. When the identifiers run out the whole TLB is flushed and a new
+ * generation of them is started; an address space whose identifier is from
+ * an older generation is given a new one the next time it runs.
+ *
+ * The hardware sets the use and dirty bits of the TLB entry, not of the page
+ * table entry. They are copied back to the page table whenever an entry is
+ * replaced or invalidated, and before the page replacement policy looks at
+ * the page tables (see CoreMap).
+ */
+public abstract class TlbManager {
+	/** The number of address space identifiers. */
+	public static final int NumAsids = 256;
+
+	/** The address space each TLB entry was loaded from. */
+	private static AddrSpace[] mSource;
+
+	/** Chooses the entry to replace when a set is full. */
+	private static TlbPolicy mPolicy = new FifoTlbPolicy();
+
+	/** The generation the address space identifiers now given out belong to. */
+	private static int mGeneration = 1;
+
+	/** The next address space identifier to give out. */
+	private static int mNextAsid = 0;
+
+	/**
+	 * Gets ready to load the TLB, if the machine has one. Called once at
+	 * start up, after the machine is created.
+	 */
+	public static void init() {
+		mSource = (MMU.mTlb == null) ? null : new AddrSpace[MMU.mTlb.length];
+	}
+
+	/**
+	 * Chooses the TLB replacement policy.
+	 *
+	 * @param pName
+	 *            the name of the policy: fifo, lru or random.
+	 * @return false if there is no such policy.
+	 */
+	public static boolean setPolicy(String pName) {
+		TlbPolicy[] policies = { new FifoTlbPolicy(), new LruTlbPolicy(), new RandomTlbPolicy() };
+
+		for (TlbPolicy policy : policies) {
+			if (policy.getName().equals(pName)) {
+				mPolicy = policy;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the generation of the address space identifiers now given out. An
+	 * identifier from an older one may be in use by another address space.
+	 *
+	 * @return the generation.
+	 */
+	public static int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Gives out an address space identifier of the current generation. If
+	 * there are none left, the TLB is flushed and a new generation started.
+	 *
+	 * @return the identifier.
+	 */
+	public static int newAsid() {
+		if (mNextAsid == NumAsids) {
+			Debug.print('a', () -> "Out of address space identifiers, flushing the TLB");
+
+			flushAll();
+			mGeneration++;
+			mNextAsid = 0;
+		}
+
+		return mNextAsid++;
+	}
+
+	/**
+	 * Loads the translation of a page into the TLB. Called on a TLB miss; the
+	 * faulting instruction is run again once this returns.
+	 *
+	 * @param pSpace
+	 *            the address space of the running process.
+	 * @param pVirtualPage
+	 *            the virtual page that missed.
+	 */
+	public static void handleMiss(AddrSpace pSpace, int pVirtualPage) {
+		Statistics.numTlbMisses++;
+
+		if ((pVirtualPage < 0) || (pVirtualPage >= pSpace.getNumPages())) {
+			Debug.print('a', () -> "Virtual page " + pVirtualPage + " is outside the address space");
+			JNachos.cleanUp();
+			return;
+		}
+
+		int entry = pSpace.getEntry(pVirtualPage);
+		if (!PageTable.isValid(entry)) {
+			pSpace.pageIn(pVirtualPage);
+
+			// Paging in may have slept, and the page may be gone again; the
+			// instruction will miss again
+			entry = pSpace.getEntry(pVirtualPage);
+			if (!PageTable.isValid(entry)) {
+				return;
+			}
+		}
+
+		int first = (pVirtualPage % MMU.mTlbSets) * MMU.mTlbWays;
+		int slot = -1;
+
+		for (int i = first; i < first + MMU.mTlbWays; i++) {
+			if (!MMU.mTlb[i].valid) {
+				slot = i;
+				break;
+			}
+		}
+
+		if (slot < 0) {
+			slot = mPolicy.chooseVictim(first, MMU.mTlbWays);
+			writeBack(slot);
+		}
+
+		TranslationEntry tlb = MMU.mTlb[slot];
+		tlb.virtualPage = pVirtualPage;
+		tlb.physicalPage = PageTable.frame(entry);
+		tlb.readOnly = PageTable.isReadOnly(entry);
+		tlb.use = false;
+		tlb.dirty = false;
+		tlb.asid = MMU.mAsid;
+		tlb.valid = true;
+
+		mSource[slot] = pSpace;
+	}
+
+	/**
+	 * Copies the use and dirty bits of one TLB entry back to its page table
+	 * entry.
+	 *
+	 * @param pSlot
+	 *            the TLB entry.
+	 */
+	private static void writeBack(int pSlot) {
+		TranslationEntry tlb = MMU.mTlb[pSlot];
+
+		if (tlb.valid) {
+			mSource[pSlot].setBits(tlb.virtualPage, (tlb.use ? PageTable.Use : 0) | (tlb.dirty ? PageTable.Dirty : 0));
+			tlb.use = false;
+			tlb.dirty = false;
+		}
+	}
+
+	/**
+	 * Copies the use and dirty bits of every TLB entry back to the page
+	 * tables. Does nothing if there is no TLB.
+	 */
+	public static void writeBack() {
+		if (mSource == null) {
+			return;
+		}
+
+		for (int i = 0; i < MMU.mTlb.length; i++) {
+			writeBack(i);
+		}
+	}
+
+	/**
+	 * Drops the translation of a page from the TLB, as when its page table
+	 * entry changes.
+	 *
+	 * @param pAsid
+	 *            the address space identifier of the page.
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 */
+	public static void invalidate(int pAsid, int pVirtualPage) {
+		int first = (pVirtualPage % MMU.mTlbSets) * MMU.mTlbWays;
+
+		for (int i = first; i < first + MMU.mTlbWays; i++) {
+			TranslationEntry tlb = MMU.mTlb[i];
+
+			if (tlb.valid && (tlb.virtualPage == pVirtualPage) && (tlb.asid == pAsid)) {
+				writeBack(i);
+				tlb.valid = false;
+			}
+		}
+	}
+
+	/**
+	 * Drops every translation of an address space from the TLB.
+	 *
+	 * @param pAsid
+	 *            the address space identifier.
+	 */
+	public static void flush(int pAsid) {
+		for (int i = 0; i < MMU.mTlb.length; i++) {
+			if (MMU.mTlb[i].valid && (MMU.mTlb[i].asid == pAsid)) {
+				writeBack(i);
+				MMU.mTlb[i].valid = false;
+			}
+		}
+	}
+
+	/**
+	 * Drops every translation from the TLB.
+	 */
+	private static void flushAll() {
+		for (int i = 0; i < MMU.mTlb.length; i++) {
+			writeBack(i);
+			MMU.mTlb[i].valid = false;
+		}
+	}
+
+	/**
+	 * Writes the shape of the TLB and its replacement policy to a snapshot.
+	 * The TLB itself is not saved: it is flushed, here and in the restored
+	 * machine, and the running process is given a new identifier, so both go
+	 * on alike.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void save(DataOutputStream pOut) throws IOException {
+		pOut.writeBoolean(MMU.mTlb != null);
+		if (MMU.mTlb == null) {
+			return;
+		}
+
+		pOut.writeInt(MMU.mTlb.length);
+		pOut.writeInt(MMU.mTlbWays);
+		pOut.writeUTF(mPolicy.getName());
+		mPolicy.save(pOut);
+
+		flushAll();
+		mGeneration++;
+		mNextAsid = 0;
+		pOut.writeInt(mGeneration);
+
+		JNachos.getCurrentProcess().getSpace().restoreState();
+	}
+
+	/**
+	 * Reads the shape of the TLB and its replacement policy back from a
+	 * snapshot, and creates the TLB afresh, empty.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public static void restore(DataInputStream pIn) throws IOException {
+		Machine.mUSE_TLB = pIn.readBoolean();
+		if (!Machine.mUSE_TLB) {
+			MMU.mTlb = null;
+			init();
+			return;
+		}
+
+		Machine.mTlbSize = pIn.readInt();
+		Machine.mTlbWays = pIn.readInt();
+		MMU.createTlb(Machine.mTlbSize, Machine.mTlbWays);
+		MMU.mPageTable = null;
+		init();
+
+		setPolicy(pIn.readUTF());
+		mPolicy.restore(pIn);
+
+		mGeneration = pIn.readInt();
+		mNextAsid = 0;
+	}
+}
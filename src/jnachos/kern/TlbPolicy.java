@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Chooses which entry of a full TLB set to replace on a TLB miss.
+ * TlbManager loads the entries; a policy only picks the one to give up. It
+ * is only asked when every entry of the set is valid. The policy is chosen
+ * with "-tp <name>".
+ */
+public interface TlbPolicy {
+	/**
+	 * Gets the name the policy is chosen by.
+	 *
+	 * @return the name.
+	 */
+	String getName();
+
+	/**
+	 * Chooses the entry to replace.
+	 *
+	 * @param pFirst
+	 *            the first entry of the set.
+	 * @param pWays
+	 *            the number of entries in the set.
+	 * @return the entry, between pFirst and pFirst + pWays - 1.
+	 */
+	int chooseVictim(int pFirst, int pWays);
+
+	/**
+	 * Writes the state of the policy to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	void save(DataOutputStream pOut) throws IOException;
+
+	/**
+	 * Reads the state of the policy back from a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	void restore(DataInputStream pIn) throws IOException;
+}
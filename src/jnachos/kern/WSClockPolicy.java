@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jnachos.machine.Machine;
+import jnachos.machine.PageTable;
+import jnachos.machine.Statistics;
+
+/**
+ * WSClock: a clock over the frames that keeps the working set, the pages
+ * used in the last Window ticks of user time. User time is used rather than
+ * total time so that waiting for the disk does not age pages. Each timer
+ * interrupt records the time of use of every page whose use bit is set, and
+ * clears the bit.
+ *
+ * The hand clears use bits as Clock does, and pages out the first clean
+ * page that has left the working set. An old page that is dirty would need
+ * a write, so it is only taken if a whole sweep finds no old clean page;
+ * failing that, the page used longest ago goes.
+ */
+public class WSClockPolicy implements ReplacementPolicy {
+	/** How long (in user ticks) a page stays in the working set after its last use. */
+	public static final int Window = 50 * Statistics.TimerTicks;
+
+	/** The time each frame's page was last seen used. */
+	private int[] mLastUse = new int[Machine.NumPhysPages];
+
+	/** The next frame the hand looks at. */
+	private int mHand = 0;
+
+	public String getName() {
+		return "wsclock";
+	}
+
+	public void loaded(int pFrame) {
+		mLastUse[pFrame] = Statistics.userTicks;
+	}
+
+	public int chooseVictim() {
+		int oldDirty = -1;
+		int oldest = -1;
+
+		for (int i = 0; i < CoreMap.mFrames; i++) {
+			int frame = mHand;
+			mHand = (mHand + 1) % CoreMap.mFrames;
+
+			if (!CoreMap.isCandidate(frame)) {
+				continue;
+			}
+
+			int entry = CoreMap.entryOf(frame);
+			if (PageTable.isUsed(entry)) {
+				CoreMap.clearUse(frame);
+				mLastUse[frame] = Statistics.userTicks;
+			} else if (Statistics.userTicks - mLastUse[frame] > Window) {
+				if (!PageTable.isDirty(entry)) {
+					return frame;
+				}
+
+				if (oldDirty < 0) {
+					oldDirty = frame;
+				}
+			}
+
+			if ((oldest < 0) || (mLastUse[frame] < mLastUse[oldest])) {
+				oldest = frame;
+			}
+		}
+
+		int victim = (oldDirty >= 0) ? oldDirty : oldest;
+		mHand = (victim + 1) % CoreMap.mFrames;
+		return victim;
+	}
+
+	public void tick() {
+		for (int frame = 0; frame < CoreMap.mFrames; frame++) {
+			if (PageTable.isUsed(CoreMap.entryOf(frame))) {
+				mLastUse[frame] = Statistics.userTicks;
+				CoreMap.clearUse(frame);
+			}
+		}
+	}
+
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(mHand);
+		for (int time : mLastUse) {
+			pOut.writeInt(time);
+		}
+	}
+
+	public void restore(DataInputStream pIn) throws IOException {
+		mHand = pIn.readInt();
+		for (int i = 0; i < mLastUse.length; i++) {
+			mLastUse[i] = pIn.readInt();
+		}
+	}
+}
@@ -7,25 +7,67 @@
  */
 package jnachos.kern.sync;
 
-/** */
+import jnachos.kern.*;
+
+/**
+ * A lock lets only one process at a time into a critical section. It is a
+ * semaphore with an initial value of 1 that remembers which process holds
+ * it, so that only that process can release it.
+ */
 public class Lock {
-	/** */
+	/** The name of this lock for debugging. */
 	private String mName;
 
-	public void delete() {
+	/** Holds the processes waiting for the lock. */
+	private Semaphore mSemaphore;
+
+	/** The process holding the lock, null if it is free. */
+	private NachosProcess mOwner;
 
+	/**
+	 * If we are killing a lock, kill all of the processes waiting for it.
+	 */
+	public void delete() {
+		mSemaphore.delete();
 	}
 
+	/**
+	 * Waits until the lock is free, then takes it.
+	 */
 	public void acquire() {
-
+		mSemaphore.P();
+		mOwner = JNachos.getCurrentProcess();
 	}
 
+	/**
+	 * Frees the lock, waking up a process waiting for it if there is one.
+	 * Only the process holding the lock may release it.
+	 */
 	public void release() {
+		assert (isHeldByCurrentProcess());
+
+		mOwner = null;
+		mSemaphore.V();
+	}
 
+	/**
+	 * Checks whether the running process holds the lock.
+	 *
+	 * @return true if it does.
+	 */
+	public boolean isHeldByCurrentProcess() {
+		return mOwner == JNachos.getCurrentProcess();
 	}
 
+	/**
+	 * Creates a free lock.
+	 *
+	 * @param pName
+	 *            The debug name for this lock.
+	 */
 	public Lock(String pName) {
 		mName = pName;
+		mSemaphore = new Semaphore(pName, 1);
 	}
 
 }
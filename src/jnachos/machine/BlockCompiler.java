@@ -0,0 +1,903 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+
+import static jnachos.machine.ClassFile.*;
+
+/**
+ * Translates a basic block of MIPS instructions into a JVM method, and loads
+ * it as a hidden class (MethodHandles.Lookup.defineHiddenClass) for HotSpot
+ * to compile to native code.
+ *
+ * The method is the block's instructions one after the other, with no
+ * dispatch. The guest registers it uses are kept in JVM local variables:
+ * each is read from Machine.mRegisters when first needed and written back
+ * only when the method returns, so HotSpot can keep them in host registers.
+ * The delayed load of each load instruction is resolved here too, since
+ * within a block it always lands after the next instruction.
+ *
+ * Each way out of the method (the end of the block, a memory access that
+ * would fault, an overflow, a store into the block's own page) writes back
+ * the registers changed so far and the program counters and pending load as
+ * they would be at that point, and returns the number of instructions
+ * completed; BlockEngine lets MipsSim.oneInstruction run the instruction it
+ * stopped at, so any exception is raised the usual way.
+ *
+ * The ALU ops, branches and jumps are emitted as MipsSim.execute() does them
+ * (including its OR, which or's rs with itself); multiplies and divides are
+ * left to MipsSim.execute() itself.
+ */
+class BlockCompiler {
+	/** The largest method HotSpot compiles (its HugeMethodLimit). */
+	public static final int MaxCodeSize = 8000;
+
+	/** The local variables of the generated method. */
+	private static final int RegsLocal = 1; // Machine.mRegisters
+	private static final int MemoryLocal = 2; // Machine.mMemory
+	private static final int PageLocal = 3; // the physical page of the block
+	private static final int StartLocal = 4; // the PC of the first instruction
+	private static final int AddrLocal = 5; // a physical address, or scratch
+	private static final int PendingLocal = 6; // the value of a delayed load
+	private static final int TargetLocal = 7; // where the branch goes
+	private static final int FirstRegLocal = 8; // guest register k is in 8 + k
+
+	/** The guest registers kept in locals: 1 to 31, HiReg and LoReg. */
+	private static final int NumCached = Machine.LoReg + 1;
+
+	/** The operand stack the generated code needs at most. */
+	private static final int MaxStack = 12;
+
+	/** The classes and methods the generated code uses. */
+	private static final String Self = "jnachos/machine/TranslatedBlock";
+	private static final String Super = "jnachos/machine/Translation";
+	private static final String Memory = "jnachos/machine/PhysicalMemory";
+
+	/** Defines the hidden classes, in this package. */
+	private static final MethodHandles.Lookup mLookup = MethodHandles.lookup();
+
+	/** log2(PageSize), to get a page from a physical address. */
+	private static final int PageShift = Integer.numberOfTrailingZeros(Machine.PageSize);
+
+	/**
+	 * A way out of the generated method that still has to be written: where
+	 * it is jumped to from, and the state of the block at that point.
+	 */
+	private static class Exit {
+		/** The label jumped to. */
+		int label;
+
+		/** The number of instructions completed. */
+		int done;
+
+		/** The registers whose locals differ from Machine.mRegisters. */
+		boolean[] dirty;
+
+		/** The loads and stores completed. */
+		int loads;
+		int stores;
+	}
+
+	/** The class being written. */
+	private ClassFile mOut;
+
+	/** The instructions of the block. */
+	private Instruction[] mInstrs;
+	private int mLength;
+
+	/** The index of the branch or jump, or -1 if the block has none. */
+	private int mBranch = -1;
+
+	/** For each guest register, true if its local holds its value. */
+	private boolean[] mLoaded = new boolean[NumCached];
+
+	/** For each guest register, true if its local was changed. */
+	private boolean[] mDirty = new boolean[NumCached];
+
+	/** The loads and stores completed so far. */
+	private int mLoads = 0;
+	private int mStores = 0;
+
+	/** The ways out still to be written. */
+	private ArrayList<Exit> mExits = new ArrayList<Exit>();
+
+	/**
+	 * Translates a block.
+	 *
+	 * @param pInstrs
+	 *            the decoded instructions; a branch or jump can only be the
+	 *            next to last, followed by its delay slot.
+	 * @param pLength
+	 *            the number of instructions to translate.
+	 * @return the translation, or null if its method would be too big for
+	 *         HotSpot to compile.
+	 */
+	public static Translation compile(Instruction[] pInstrs, int pLength) {
+		BlockCompiler compiler = new BlockCompiler(pInstrs, pLength);
+		byte[] bytes = compiler.generate();
+		if (bytes == null) {
+			return null;
+		}
+
+		try {
+			Class<?> translated = mLookup.defineHiddenClass(bytes, true).lookupClass();
+			Translation translation = (Translation) translated.getDeclaredConstructor().newInstance();
+			translation.mLength = pLength;
+			return translation;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to load a translated block", e);
+		}
+	}
+
+	/**
+	 * Gets ready to translate a block.
+	 */
+	private BlockCompiler(Instruction[] pInstrs, int pLength) {
+		mInstrs = pInstrs;
+		mLength = pLength;
+
+		for (int i = 0; i < pLength; i++) {
+			if (isBranch(pInstrs[i].opCode)) {
+				mBranch = i;
+			}
+		}
+	}
+
+	/**
+	 * Writes the class.
+	 *
+	 * @return the class file, or null if the method is too big.
+	 */
+	private byte[] generate() {
+		mOut = new ClassFile(Self, Super);
+
+		// The constructor
+		mOut.local(ALOAD, 0);
+		mOut.op(INVOKESPECIAL, mOut.methodRef(Super, "<init>", "()V"));
+		mOut.op(RETURN);
+		mOut.endMethod(ACC_PUBLIC, "<init>", "()V", 1, 1);
+
+		// int run(int[] r, PhysicalMemory pMemory, int pPage)
+		mOut.local(ALOAD, RegsLocal);
+		mOut.push(Machine.PCReg);
+		mOut.op(IALOAD);
+		mOut.local(ISTORE, StartLocal);
+
+		for (int i = 0; i < mLength; i++) {
+			instruction(i);
+		}
+
+		// The end of the block falls through to its own way out, then come
+		// those jumped to
+		exitAt(mLength);
+		leave(mExits.remove(mExits.size() - 1));
+		for (Exit exit : mExits) {
+			leave(exit);
+		}
+
+		if (mOut.codeSize() >= MaxCodeSize) {
+			return null;
+		}
+
+		mOut.endMethod(ACC_PUBLIC, "run", "([IL" + Memory + ";I)I", MaxStack, FirstRegLocal + NumCached);
+		return mOut.toBytes(ACC_FINAL | ACC_SUPER);
+	}
+
+	/**
+	 * Writes one instruction.
+	 *
+	 * @param i
+	 *            its index in the block.
+	 */
+	private void instruction(int i) {
+		Instruction instr = mInstrs[i];
+
+		switch (instr.opCode) {
+		case MipsSim.OP_LB:
+		case MipsSim.OP_LBU:
+		case MipsSim.OP_LH:
+		case MipsSim.OP_LHU:
+		case MipsSim.OP_LW:
+			load(i, instr);
+			break;
+
+		case MipsSim.OP_SB:
+		case MipsSim.OP_SH:
+		case MipsSim.OP_SW:
+			store(i, instr);
+			break;
+
+		case MipsSim.OP_MULT:
+		case MipsSim.OP_MULTU:
+		case MipsSim.OP_DIV:
+		case MipsSim.OP_DIVU:
+			// Rare enough to leave to the interpreter's code
+			flush();
+			mOut.local(ALOAD, RegsLocal);
+			mOut.push(instr.opCode);
+			mOut.push(instr.rs);
+			mOut.push(instr.rt);
+			mOut.push(instr.rd);
+			mOut.push(instr.extra);
+			mOut.push(0);
+			mOut.op(INVOKESTATIC, mOut.methodRef("jnachos/machine/MipsSim", "execute", "([IIIIIII)I"));
+			mOut.op(POP);
+			mLoaded[Machine.HiReg] = false;
+			mLoaded[Machine.LoReg] = false;
+			land(i);
+			break;
+
+		default:
+			if (isBranch(instr.opCode)) {
+				branch(i, instr);
+			} else {
+				alu(i, instr);
+			}
+			land(i);
+		}
+	}
+
+	/**
+	 * Writes a load. The value goes to PendingLocal, and lands in its register
+	 * after the next instruction.
+	 */
+	private void load(int i, Instruction pInstr) {
+		int size = (pInstr.opCode == MipsSim.OP_LW) ? 4
+				: (((pInstr.opCode == MipsSim.OP_LH) || (pInstr.opCode == MipsSim.OP_LHU)) ? 2 : 1);
+		translate(i, pInstr, size, false);
+
+		// The load before this one lands now
+		land(i);
+
+		mOut.local(ALOAD, MemoryLocal);
+		mOut.local(ILOAD, AddrLocal);
+		String read = (size == 4) ? "readWord" : ((size == 2) ? "readHalf" : "readByte");
+		mOut.invokeInterface(mOut.interfaceMethodRef(Memory, read, "(I)I"), 2);
+
+		// As MipsSim.extendLoad
+		switch (pInstr.opCode) {
+		case MipsSim.OP_LB:
+			mOut.op(I2B);
+			break;
+
+		case MipsSim.OP_LBU:
+			mOut.push(0xff);
+			mOut.op(IAND);
+			break;
+
+		case MipsSim.OP_LH:
+			mOut.op(I2S);
+			break;
+
+		case MipsSim.OP_LHU:
+			mOut.push(0xffff);
+			mOut.op(IAND);
+			break;
+
+		default:
+			break;
+		}
+
+		mOut.local(ISTORE, PendingLocal);
+		mLoads++;
+	}
+
+	/**
+	 * Writes a store. A store into the block's own page throws its
+	 * translation away, so the block stops right after it.
+	 */
+	private void store(int i, Instruction pInstr) {
+		int size = (pInstr.opCode == MipsSim.OP_SW) ? 4 : ((pInstr.opCode == MipsSim.OP_SH) ? 2 : 1);
+		translate(i, pInstr, size, true);
+
+		mOut.local(ALOAD, MemoryLocal);
+		mOut.local(ILOAD, AddrLocal);
+		read(pInstr.rt);
+		String write = (size == 4) ? "writeWord" : ((size == 2) ? "writeHalf" : "writeByte");
+		mOut.invokeInterface(mOut.interfaceMethodRef(Memory, write, "(II)V"), 3);
+
+		// DecodeCache.invalidate(pa / PageSize)
+		mOut.local(ILOAD, AddrLocal);
+		mOut.push(PageShift);
+		mOut.op(ISHR);
+		mOut.op(INVOKESTATIC, mOut.methodRef("jnachos/machine/DecodeCache", "invalidate", "(I)V"));
+		mStores++;
+
+		land(i);
+
+		// if (pa / PageSize == pPage) stop here; the block is out of date
+		mOut.local(ILOAD, AddrLocal);
+		mOut.push(PageShift);
+		mOut.op(ISHR);
+		mOut.local(ILOAD, PageLocal);
+		mOut.jump(IF_ICMPEQ, exitAt(i + 1));
+	}
+
+	/**
+	 * Writes the address translation of a load or store, leaving the block
+	 * before it if it would fault.
+	 */
+	private void translate(int i, Instruction pInstr, int pSize, boolean pWriting) {
+		read(pInstr.rs);
+		mOut.push(pInstr.extra);
+		mOut.op(IADD);
+		mOut.push(pSize);
+		mOut.push(pWriting ? 1 : 0);
+		mOut.op(INVOKESTATIC, mOut.methodRef("jnachos/machine/MMU", "translate", "(IIZ)I"));
+		mOut.op(DUP);
+		mOut.local(ISTORE, AddrLocal);
+		mOut.jump(IFLT, exitAt(i));
+	}
+
+	/**
+	 * Writes an instruction that only reads and writes registers.
+	 */
+	private void alu(int i, Instruction pInstr) {
+		int rs = pInstr.rs;
+		int rt = pInstr.rt;
+		int rd = pInstr.rd;
+		int extra = pInstr.extra;
+
+		switch (pInstr.opCode) {
+		case MipsSim.OP_ADD:
+			checkedAdd(i, rs, rt, false, 0, rd);
+			break;
+
+		case MipsSim.OP_ADDI:
+			checkedAdd(i, rs, 0, true, extra, rt);
+			break;
+
+		case MipsSim.OP_SUB:
+			checkedSub(i, rs, rt, rd);
+			break;
+
+		case MipsSim.OP_ADDU:
+			binary(rs, rt, IADD, rd);
+			break;
+
+		case MipsSim.OP_ADDIU:
+			immediate(rs, extra, IADD, rt);
+			break;
+
+		case MipsSim.OP_SUBU:
+			binary(rs, rt, ISUB, rd);
+			break;
+
+		case MipsSim.OP_AND:
+			binary(rs, rt, IAND, rd);
+			break;
+
+		case MipsSim.OP_ANDI:
+			immediate(rs, extra & 0xffff, IAND, rt);
+			break;
+
+		case MipsSim.OP_OR:
+			// As MipsSim.execute: rs is or'ed with itself
+			read(rs);
+			write(rd);
+			break;
+
+		case MipsSim.OP_ORI:
+			immediate(rs, extra & 0xffff, IOR, rt);
+			break;
+
+		case MipsSim.OP_XOR:
+			binary(rs, rt, IXOR, rd);
+			break;
+
+		case MipsSim.OP_XORI:
+			immediate(rs, extra & 0xffff, IXOR, rt);
+			break;
+
+		case MipsSim.OP_NOR:
+			read(rs);
+			read(rt);
+			mOut.op(IOR);
+			mOut.op(ICONST_M1);
+			mOut.op(IXOR);
+			write(rd);
+			break;
+
+		case MipsSim.OP_SLL:
+			immediate(rt, extra, ISHL, rd);
+			break;
+
+		case MipsSim.OP_SRA:
+		case MipsSim.OP_SRL:
+			immediate(rt, extra, ISHR, rd);
+			break;
+
+		case MipsSim.OP_SLLV:
+			// The JVM uses the low 5 bits of the count, as r[rs] & 0x1f
+			binary(rt, rs, ISHL, rd);
+			break;
+
+		case MipsSim.OP_SRAV:
+		case MipsSim.OP_SRLV:
+			binary(rt, rs, ISHR, rd);
+			break;
+
+		case MipsSim.OP_SLT:
+		case MipsSim.OP_SLTU:
+			// (a < b) ? 1 : 0 is the sign of a - b, done in 64 bits
+			read(rs);
+			mOut.op(I2L);
+			read(rt);
+			mOut.op(I2L);
+			lessThan(rd);
+			break;
+
+		case MipsSim.OP_SLTI:
+		case MipsSim.OP_SLTIU:
+			read(rs);
+			mOut.op(I2L);
+			mOut.push(extra);
+			mOut.op(I2L);
+			lessThan(rt);
+			break;
+
+		case MipsSim.OP_LUI:
+			mOut.push(extra << 16);
+			write(rt);
+			break;
+
+		case MipsSim.OP_MFHI:
+			read(Machine.HiReg);
+			write(rd);
+			break;
+
+		case MipsSim.OP_MFLO:
+			read(Machine.LoReg);
+			write(rd);
+			break;
+
+		case MipsSim.OP_MTHI:
+			read(rs);
+			write(Machine.HiReg);
+			break;
+
+		case MipsSim.OP_MTLO:
+			read(rs);
+			write(Machine.LoReg);
+			break;
+
+		default:
+			assert (false);
+		}
+	}
+
+	/**
+	 * Writes r[pDest] = r[pA] op r[pB].
+	 */
+	private void binary(int pA, int pB, int pOp, int pDest) {
+		read(pA);
+		read(pB);
+		mOut.op(pOp);
+		write(pDest);
+	}
+
+	/**
+	 * Writes r[pDest] = r[pA] op pValue.
+	 */
+	private void immediate(int pA, int pValue, int pOp, int pDest) {
+		read(pA);
+		mOut.push(pValue);
+		mOut.op(pOp);
+		write(pDest);
+	}
+
+	/**
+	 * Finishes a set-on-less-than: with a and b as longs on the stack, writes
+	 * (a - b) >>> 63 to pDest.
+	 */
+	private void lessThan(int pDest) {
+		mOut.op(LSUB);
+		mOut.push(63);
+		mOut.op(LUSHR);
+		mOut.op(L2I);
+		write(pDest);
+	}
+
+	/**
+	 * Writes an ADD or ADDI, leaving the block before it if it overflows (as
+	 * MipsSim.overflows).
+	 */
+	private void checkedAdd(int i, int pA, int pB, boolean pImmediate, int pValue, int pDest) {
+		int ok = mOut.newLabel();
+
+		// sum = a + b
+		read(pA);
+		if (pImmediate) {
+			mOut.push(pValue);
+		} else {
+			read(pB);
+		}
+		mOut.op(IADD);
+		mOut.local(ISTORE, AddrLocal);
+
+		// Overflow if a and b have the same sign and the sum another
+		read(pA);
+		if (pImmediate) {
+			mOut.push(pValue);
+		} else {
+			read(pB);
+		}
+		mOut.op(IXOR);
+		mOut.jump(IFLT, ok);
+		read(pA);
+		mOut.local(ILOAD, AddrLocal);
+		mOut.op(IXOR);
+		mOut.jump(IFLT, exitAt(i));
+		mOut.bind(ok);
+
+		mOut.local(ILOAD, AddrLocal);
+		write(pDest);
+	}
+
+	/**
+	 * Writes a SUB, leaving the block before it if it overflows.
+	 */
+	private void checkedSub(int i, int pA, int pB, int pDest) {
+		int ok = mOut.newLabel();
+
+		read(pA);
+		read(pB);
+		mOut.op(ISUB);
+		mOut.local(ISTORE, AddrLocal);
+
+		// Overflow if a and b have different signs and the difference not a's
+		read(pA);
+		read(pB);
+		mOut.op(IXOR);
+		mOut.jump(IFGE, ok);
+		read(pA);
+		mOut.local(ILOAD, AddrLocal);
+		mOut.op(IXOR);
+		mOut.jump(IFLT, exitAt(i));
+		mOut.bind(ok);
+
+		mOut.local(ILOAD, AddrLocal);
+		write(pDest);
+	}
+
+	/**
+	 * Writes a branch or jump: its link, and where it goes in TargetLocal.
+	 */
+	private void branch(int i, Instruction pInstr) {
+		int op = pInstr.opCode;
+		int nextPC = 4 * i + 4; // relative to the block's first PC
+		int fallThrough = nextPC + 4;
+
+		// The link is written before the test or target reads registers
+		int link = -1;
+		if ((op == MipsSim.OP_JAL) || (op == MipsSim.OP_BGEZAL) || (op == MipsSim.OP_BLTZAL)) {
+			link = MipsSim.R31;
+		} else if (op == MipsSim.OP_JALR) {
+			link = pInstr.rd;
+		}
+
+		if (link >= 0) {
+			pc(fallThrough);
+			write(link);
+		}
+
+		switch (op) {
+		case MipsSim.OP_J:
+		case MipsSim.OP_JAL:
+			pc(fallThrough);
+			mOut.push(0xf0000000);
+			mOut.op(IAND);
+			mOut.push(MipsSim.indexToAddr(pInstr.extra));
+			mOut.op(IOR);
+			mOut.local(ISTORE, TargetLocal);
+			break;
+
+		case MipsSim.OP_JR:
+		case MipsSim.OP_JALR:
+			operand(pInstr.rs, link, fallThrough);
+			mOut.local(ISTORE, TargetLocal);
+			break;
+
+		default:
+			int notTaken = mOut.newLabel();
+			int done = mOut.newLabel();
+
+			operand(pInstr.rs, link, fallThrough);
+			switch (op) {
+			case MipsSim.OP_BEQ:
+				operand(pInstr.rt, link, fallThrough);
+				mOut.jump(IF_ICMPNE, notTaken);
+				break;
+
+			case MipsSim.OP_BNE:
+				operand(pInstr.rt, link, fallThrough);
+				mOut.jump(IF_ICMPEQ, notTaken);
+				break;
+
+			case MipsSim.OP_BLEZ:
+				mOut.jump(IFGT, notTaken);
+				break;
+
+			case MipsSim.OP_BGTZ:
+				mOut.jump(IFLE, notTaken);
+				break;
+
+			case MipsSim.OP_BLTZ:
+			case MipsSim.OP_BLTZAL:
+				mOut.jump(IFGE, notTaken);
+				break;
+
+			default: // BGEZ, BGEZAL
+				mOut.jump(IFLT, notTaken);
+				break;
+			}
+
+			pc(nextPC + MipsSim.indexToAddr(pInstr.extra));
+			mOut.local(ISTORE, TargetLocal);
+			mOut.jump(GOTO, done);
+			mOut.bind(notTaken);
+			pc(fallThrough);
+			mOut.local(ISTORE, TargetLocal);
+			mOut.bind(done);
+		}
+
+		// PMU.mCounters[PMU.Branches]++ unless it goes on to the next
+		int skip = mOut.newLabel();
+		mOut.local(ILOAD, TargetLocal);
+		pc(fallThrough);
+		mOut.jump(IF_ICMPEQ, skip);
+		mOut.op(GETSTATIC, mOut.fieldRef("jnachos/machine/PMU", "mCounters", "[J"));
+		mOut.push(PMU.Branches);
+		mOut.op(DUP2);
+		mOut.op(LALOAD);
+		mOut.op(LCONST_1);
+		mOut.op(LADD);
+		mOut.op(LASTORE);
+		mOut.bind(skip);
+	}
+
+	/**
+	 * Pushes a register read by a branch or jump: the link if it is the
+	 * register just linked (which may be register 0, until the instruction
+	 * ends).
+	 */
+	private void operand(int pReg, int pLink, int pLinkPC) {
+		if (pReg == pLink) {
+			pc(pLinkPC);
+		} else {
+			read(pReg);
+		}
+	}
+
+	/**
+	 * Lands the delayed load that was pending when instruction i started, as
+	 * Machine.delayedLoad does at its end.
+	 */
+	private void land(int i) {
+		if (i == 0) {
+			// Whatever was pending when the block was entered; it may be any
+			// register, so the locals are written back and read again
+			flush();
+			for (int k = 0; k < NumCached; k++) {
+				mLoaded[k] = false;
+			}
+
+			// r[r[LoadReg]] = r[LoadValueReg]; r[0] = 0
+			mOut.local(ALOAD, RegsLocal);
+			mOut.local(ALOAD, RegsLocal);
+			mOut.push(Machine.LoadReg);
+			mOut.op(IALOAD);
+			mOut.local(ALOAD, RegsLocal);
+			mOut.push(Machine.LoadValueReg);
+			mOut.op(IALOAD);
+			mOut.op(IASTORE);
+			mOut.local(ALOAD, RegsLocal);
+			mOut.push(0);
+			mOut.push(0);
+			mOut.op(IASTORE);
+		} else if (isLoad(mInstrs[i - 1].opCode) && (mInstrs[i - 1].rt != 0)) {
+			mOut.local(ILOAD, PendingLocal);
+			write(mInstrs[i - 1].rt);
+		}
+	}
+
+	/**
+	 * Pushes a guest register, reading it into its local the first time.
+	 */
+	private void read(int pReg) {
+		if (pReg == 0) {
+			mOut.push(0);
+		} else if (mLoaded[pReg]) {
+			mOut.local(ILOAD, FirstRegLocal + pReg);
+		} else {
+			mOut.local(ALOAD, RegsLocal);
+			mOut.push(pReg);
+			mOut.op(IALOAD);
+			mOut.op(DUP);
+			mOut.local(ISTORE, FirstRegLocal + pReg);
+			mLoaded[pReg] = true;
+		}
+	}
+
+	/**
+	 * Pops a value into a guest register. Register 0 is always zero once an
+	 * instruction ends, so the value is dropped.
+	 */
+	private void write(int pReg) {
+		if (pReg == 0) {
+			mOut.op(POP);
+		} else {
+			mOut.local(ISTORE, FirstRegLocal + pReg);
+			mLoaded[pReg] = true;
+			mDirty[pReg] = true;
+		}
+	}
+
+	/**
+	 * Writes the changed locals back to the registers.
+	 */
+	private void flush() {
+		for (int k = 1; k < NumCached; k++) {
+			if (mDirty[k]) {
+				store(k);
+				mDirty[k] = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes r[pReg] = its local.
+	 */
+	private void store(int pReg) {
+		mOut.local(ALOAD, RegsLocal);
+		mOut.push(pReg);
+		mOut.local(ILOAD, FirstRegLocal + pReg);
+		mOut.op(IASTORE);
+	}
+
+	/**
+	 * Pushes the block's first PC plus an offset.
+	 */
+	private void pc(int pOffset) {
+		mOut.local(ILOAD, StartLocal);
+		if (pOffset != 0) {
+			mOut.push(pOffset);
+			mOut.op(IADD);
+		}
+	}
+
+	/**
+	 * Gets a label that leaves the block with so many instructions done, in
+	 * the state the block is in now.
+	 *
+	 * @param pDone
+	 *            the number of instructions completed.
+	 * @return the label.
+	 */
+	private int exitAt(int pDone) {
+		Exit exit = new Exit();
+		exit.label = mOut.newLabel();
+		exit.done = pDone;
+		exit.dirty = mDirty.clone();
+		exit.loads = mLoads;
+		exit.stores = mStores;
+		mExits.add(exit);
+		return exit.label;
+	}
+
+	/**
+	 * Writes a way out: the changed registers, the program counters and the
+	 * pending load, then BlockEngine.leave() for the rest.
+	 */
+	private void leave(Exit pExit) {
+		mOut.bind(pExit.label);
+
+		int done = pExit.done;
+		if (done == 0) {
+			// Stopped before the first instruction changed anything
+			mOut.push(0);
+			mOut.op(IRETURN);
+			return;
+		}
+
+		for (int k = 1; k < NumCached; k++) {
+			if (pExit.dirty[k]) {
+				store(k);
+			}
+		}
+
+		// The state after instruction j
+		int j = done - 1;
+		mOut.local(ALOAD, RegsLocal);
+		mOut.push(done);
+
+		// PC
+		if ((mBranch >= 0) && (j == mBranch + 1)) {
+			mOut.local(ILOAD, TargetLocal);
+		} else {
+			pc(4 * j + 4);
+		}
+
+		// NextPC
+		if ((mBranch < 0) || (j < mBranch)) {
+			pc(4 * j + 8);
+		} else {
+			mOut.local(ILOAD, TargetLocal);
+			if (j > mBranch) {
+				mOut.push(4);
+				mOut.op(IADD);
+			}
+		}
+
+		// PrevPC
+		pc(4 * j);
+
+		// LoadReg and LoadValueReg
+		if (isLoad(mInstrs[j].opCode)) {
+			mOut.push(mInstrs[j].rt);
+			mOut.local(ILOAD, PendingLocal);
+		} else {
+			mOut.push(0);
+			mOut.push(0);
+		}
+
+		mOut.push(pExit.loads);
+		mOut.push(pExit.stores);
+		mOut.op(INVOKESTATIC, mOut.methodRef("jnachos/machine/BlockEngine", "leave", "([IIIIIIIII)I"));
+		mOut.op(IRETURN);
+	}
+
+	/**
+	 * Checks whether an instruction is a load with a delay slot.
+	 *
+	 * @param pOpCode
+	 *            the op code.
+	 * @return true for LB, LBU, LH, LHU and LW.
+	 */
+	private static boolean isLoad(int pOpCode) {
+		switch (pOpCode) {
+		case MipsSim.OP_LB:
+		case MipsSim.OP_LBU:
+		case MipsSim.OP_LH:
+		case MipsSim.OP_LHU:
+		case MipsSim.OP_LW:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether an instruction ends a basic block.
+	 *
+	 * @param pOpCode
+	 *            the op code.
+	 * @return true for branches and jumps.
+	 */
+	public static boolean isBranch(int pOpCode) {
+		switch (pOpCode) {
+		case MipsSim.OP_BEQ:
+		case MipsSim.OP_BNE:
+		case MipsSim.OP_BLEZ:
+		case MipsSim.OP_BGTZ:
+		case MipsSim.OP_BLTZ:
+		case MipsSim.OP_BGEZ:
+		case MipsSim.OP_BLTZAL:
+		case MipsSim.OP_BGEZAL:
+		case MipsSim.OP_J:
+		case MipsSim.OP_JAL:
+		case MipsSim.OP_JR:
+		case MipsSim.OP_JALR:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+import jnachos.kern.*;
+
+/**
+ * A translated basic block. A block is a straight run of instructions from
+ * one physical page that ends with a branch or jump plus its delay slot, or
+ * just before an instruction the block engine leaves to the interpreter.
+ */
+class Block {
+	/** Physical address of the first instruction. */
+	public int phys;
+
+	/** Physical page holding the block. */
+	public int page;
+
+	/** The page generation the block was translated in. */
+	public int gen;
+
+	/** Number of instructions in the block. */
+	public int length;
+
+	/** The generated code. */
+	public Translation code;
+
+	/** The last two blocks that followed this one (chaining). */
+	public Block next0;
+	public Block next1;
+
+	/**
+	 * Creates a block.
+	 *
+	 * @param pPhys
+	 *            the physical address of the first instruction.
+	 * @param pLength
+	 *            the number of instructions in the block.
+	 * @param pCode
+	 *            the generated code.
+	 */
+	public Block(int pPhys, int pLength, Translation pCode) {
+		phys = pPhys;
+		page = pPhys / Machine.PageSize;
+		length = pLength;
+		code = pCode;
+	}
+}
+
+/**
+ * An optional execution engine that runs user code a basic block at a time.
+ *
+ * Blocks are found once an address has been reached HotThreshold times. Each
+ * block is translated by BlockCompiler into a hidden class of its own, whose
+ * JVM code HotSpot then compiles like any other, and the block runs without
+ * going through the interpreter's dispatch. Simulated time is charged once
+ * per block instead of once per instruction. A block is only entered when
+ * the whole block fits before the next pending interrupt, so simulated
+ * timing is the same as with MipsSim.oneInstruction.
+ *
+ * The engine never raises an exception itself. If an instruction would fault
+ * (bad address, overflow, system call, ...) the block stops just before it and
+ * the instruction is re-run by MipsSim.oneInstruction, which raises the
+ * exception exactly as it would have without the engine.
+ *
+ * Blocks are discarded when their physical page is written (see
+ * DecodeCache.invalidate). Their translations are kept, by instruction words,
+ * for the next time the same code turns up in memory.
+ */
+public class BlockEngine {
+	/** If true, Machine.run uses the block engine. */
+	public static boolean mEnabled = false;
+
+	/** How many times an address is reached before it is translated. */
+	public static final int HotThreshold = 16;
+
+	/** The longest block we translate. */
+	public static final int MaxBlockLength = 64;
+
+	/** The translated blocks, indexed by physical word address. */
+	private static Block[] mBlocks = new Block[Machine.MemorySize / 4];
+
+	/**
+	 * How often each physical word has started a block. Negative if the
+	 * address cannot start a block.
+	 */
+	private static int[] mHeat = new int[Machine.MemorySize / 4];
+
+	/** Bumped whenever a page's blocks are thrown away. */
+	private static int[] mPageGen = new int[Machine.NumPhysPages];
+
+	/**
+	 * The translations made so far, by the instruction words they were made
+	 * from (an IntBuffer is equal to another with the same contents). A page
+	 * paged out and back in, or the same program run again, gets the same
+	 * code back without defining another class.
+	 */
+	private static HashMap<IntBuffer, Translation> mTranslations = new HashMap<IntBuffer, Translation>();
+
+	/** True if the page has any blocks or heat counts. */
+	private static boolean[] mPageUsed = new boolean[Machine.NumPhysPages];
+
+	/** Statistics. */
+	public static int mBlocksTranslated = 0;
+	public static int mBlocksRun = 0;
+	public static int mPagesFlushed = 0;
+
+	/**
+	 * Runs user code using translated blocks where possible. Never returns.
+	 *
+	 * @param pInstr
+	 *            storage for instructions run by the interpreter.
+	 */
+	public static void run(Instruction pInstr) {
+		int[] regs = Machine.mRegisters;
+
+		// The instructions left of a block being single stepped
+		int quiet = 0;
+
+		while (true) {
+			int pc = regs[Machine.PCReg];
+			int phys = 0;
+			Block block = null;
+			boolean heat = (quiet == 0);
+			if (quiet > 0) {
+				quiet--;
+			}
+
+			// Only start blocks on a plain instruction boundary (not in a
+			// branch delay slot), with interrupts on.
+			if ((regs[Machine.NextPCReg] == pc + 4) && Interrupt.getLevel()
+					&& ((phys = MMU.translate(pc, 4, false)) >= 0)) {
+				block = lookup(phys, heat);
+			}
+
+			// Run it if every instruction will complete before the next
+			// interrupt is due
+			int done = 0;
+			while ((block != null) && ((long) block.length * Interrupt.tickLength() < Interrupt.ticksUntilDue())) {
+				done = block.code.run(regs, Machine.mMemory, block.page);
+				mBlocksRun++;
+				PMU.mCounters[PMU.Instructions] += done;
+
+				Interrupt.advanceTicks(done);
+
+				if (done < block.length) {
+					// Stopped early; let the interpreter deal with it
+					break;
+				}
+
+				// Chain to the next block
+				pc = regs[Machine.PCReg];
+				if ((regs[Machine.NextPCReg] != pc + 4) || ((phys = MMU.translate(pc, 4, false)) < 0)) {
+					block = null;
+					break;
+				}
+
+				Block next;
+				if ((block.next0 != null) && (block.next0.phys == phys)
+						&& (block.next0.gen == mPageGen[block.next0.page])) {
+					next = block.next0;
+				} else if ((block.next1 != null) && (block.next1.phys == phys)
+						&& (block.next1.gen == mPageGen[block.next1.page])) {
+					next = block.next1;
+				} else {
+					next = lookup(phys, true);
+					if (next != null) {
+						block.next1 = block.next0;
+						block.next0 = next;
+					}
+				}
+				block = next;
+				done = 0;
+			}
+
+			// A block that could not run to its end is stepped through; its
+			// middle is not a place blocks start, so it is not made hot
+			if (block != null) {
+				quiet = block.length - done - 1;
+			}
+
+			// Single step one instruction the normal way
+			MipsSim.oneInstruction(pInstr);
+			Interrupt.oneTick();
+		}
+	}
+
+	/**
+	 * Finds the block starting at a physical address, translating it if the
+	 * address has become hot.
+	 *
+	 * @param pPhys
+	 *            the physical address of the instruction.
+	 * @param pHeat
+	 *            true to count this as the address being reached.
+	 * @return the block, or null if there is none (yet).
+	 */
+	private static Block lookup(int pPhys, boolean pHeat) {
+		int slot = pPhys >> 2;
+		Block block = mBlocks[slot];
+
+		if ((block != null) || !pHeat) {
+			return block;
+		}
+
+		if ((mHeat[slot] < 0) || (++mHeat[slot] < HotThreshold)) {
+			mPageUsed[pPhys / Machine.PageSize] = true;
+			return null;
+		}
+
+		block = translate(pPhys);
+		if (block == null) {
+			mHeat[slot] = -1;
+		} else {
+			mBlocks[slot] = block;
+		}
+
+		return block;
+	}
+
+	/**
+	 * Throws away all blocks on a physical page. Called when the page is
+	 * written.
+	 *
+	 * @param pPage
+	 *            the physical page.
+	 */
+	public static void invalidate(int pPage) {
+		if (!mPageUsed[pPage]) {
+			return;
+		}
+
+		int first = (pPage * Machine.PageSize) >> 2;
+		for (int i = 0; i < DecodeCache.WordsPerPage; i++) {
+			mBlocks[first + i] = null;
+			mHeat[first + i] = 0;
+		}
+
+		mPageGen[pPage]++;
+		mPageUsed[pPage] = false;
+		mPagesFlushed++;
+	}
+
+	/**
+	 * Checks whether the block engine can run an instruction.
+	 *
+	 * @param pOpCode
+	 *            the op code.
+	 * @return true if the instruction can be part of a block.
+	 */
+	static boolean isSimple(int pOpCode) {
+		switch (pOpCode) {
+		case MipsSim.OP_SYSCALL:
+		case MipsSim.OP_RES:
+		case MipsSim.OP_UNIMP:
+		case MipsSim.OP_RFE:
+		case MipsSim.OP_LWL:
+		case MipsSim.OP_LWR:
+		case MipsSim.OP_SWL:
+		case MipsSim.OP_SWR:
+			return false;
+
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Translates the basic block starting at a physical address.
+	 *
+	 * @param pPhys
+	 *            the physical address of the first instruction.
+	 * @return the block, or null if no instruction could be translated.
+	 */
+	private static Block translate(int pPhys) {
+		Instruction instr = new Instruction();
+		int pageEnd = (pPhys / Machine.PageSize + 1) * Machine.PageSize;
+		int length = 0;
+
+		// Find where the block ends
+		for (int addr = pPhys; (addr < pageEnd) && (length < MaxBlockLength); addr += 4) {
+			DecodeCache.fetch(addr, instr);
+
+			if (!isSimple(instr.opCode)) {
+				break;
+			}
+
+			if (BlockCompiler.isBranch(instr.opCode)) {
+				// The delay slot has to be in the same page and be simple
+				if (addr + 4 < pageEnd) {
+					DecodeCache.fetch(addr + 4, instr);
+					if (isSimple(instr.opCode) && !BlockCompiler.isBranch(instr.opCode)) {
+						length += 2;
+					}
+				}
+				break;
+			}
+
+			length++;
+		}
+
+		if (length == 0) {
+			return null;
+		}
+
+		Instruction[] instrs = new Instruction[length];
+		int[] words = new int[length];
+		for (int i = 0; i < length; i++) {
+			instrs[i] = new Instruction();
+			DecodeCache.fetch(pPhys + (i << 2), instrs[i]);
+			words[i] = instrs[i].value;
+		}
+
+		Translation code = mTranslations.get(IntBuffer.wrap(words));
+		if (code == null) {
+			// Too long a block makes a method HotSpot will not compile; a
+			// block only ends with its branch, so a shorter one stops before it
+			while ((code = BlockCompiler.compile(instrs, length)) == null) {
+				length /= 2;
+			}
+
+			mTranslations.put(IntBuffer.wrap(words), code);
+			mBlocksTranslated++;
+		}
+
+		Block block = new Block(pPhys, code.mLength, code);
+		block.gen = mPageGen[pPhys / Machine.PageSize];
+
+		mPageUsed[block.page] = true;
+		return block;
+	}
+
+	/**
+	 * Writes back the state of a block that has stopped, and counts its loads
+	 * and stores. Called by the generated code on its way out.
+	 *
+	 * @param r
+	 *            the registers.
+	 * @param pDone
+	 *            the number of instructions completed.
+	 * @param pPC
+	 *            the new PCReg.
+	 * @param pNextPC
+	 *            the new NextPCReg.
+	 * @param pPrevPC
+	 *            the new PrevPCReg.
+	 * @param pLoadReg
+	 *            the new LoadReg.
+	 * @param pLoadValue
+	 *            the new LoadValueReg.
+	 * @param pLoads
+	 *            the number of loads completed.
+	 * @param pStores
+	 *            the number of stores completed.
+	 * @return pDone.
+	 */
+	static int leave(int[] r, int pDone, int pPC, int pNextPC, int pPrevPC, int pLoadReg, int pLoadValue,
+			int pLoads, int pStores) {
+		r[Machine.PCReg] = pPC;
+		r[Machine.NextPCReg] = pNextPC;
+		r[Machine.PrevPCReg] = pPrevPC;
+		r[Machine.LoadReg] = pLoadReg;
+		r[Machine.LoadValueReg] = pLoadValue;
+		PMU.mCounters[PMU.Loads] += pLoads;
+		PMU.mCounters[PMU.Stores] += pStores;
+		return pDone;
+	}
+}
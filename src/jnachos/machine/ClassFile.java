@@ -0,0 +1,512 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes a Java class file, just enough of one for BlockCompiler: a constant
+ * pool, no fields, and methods made of straight code with forward and
+ * backward jumps to labels.
+ *
+ * The class file version is 49 (Java 5), the last one that needs no stack
+ * map frames, so the code is checked by the JVM's type inferencing verifier
+ * and nothing here has to work out the types at each jump target.
+ */
+class ClassFile {
+	/** The JVM op codes used. */
+	public static final int ICONST_M1 = 0x02;
+	public static final int ICONST_0 = 0x03;
+	public static final int BIPUSH = 0x10;
+	public static final int SIPUSH = 0x11;
+	public static final int LDC = 0x12;
+	public static final int LDC_W = 0x13;
+	public static final int ILOAD = 0x15;
+	public static final int ALOAD = 0x19;
+	public static final int IALOAD = 0x2e;
+	public static final int LALOAD = 0x2f;
+	public static final int ISTORE = 0x36;
+	public static final int IASTORE = 0x4f;
+	public static final int LASTORE = 0x50;
+	public static final int POP = 0x57;
+	public static final int DUP = 0x59;
+	public static final int DUP2 = 0x5c;
+	public static final int IADD = 0x60;
+	public static final int LADD = 0x61;
+	public static final int ISUB = 0x64;
+	public static final int LSUB = 0x65;
+	public static final int ISHL = 0x78;
+	public static final int ISHR = 0x7a;
+	public static final int LUSHR = 0x7d;
+	public static final int IAND = 0x7e;
+	public static final int IOR = 0x80;
+	public static final int IXOR = 0x82;
+	public static final int I2L = 0x85;
+	public static final int L2I = 0x88;
+	public static final int I2B = 0x91;
+	public static final int I2S = 0x93;
+	public static final int LCONST_1 = 0x0a;
+	public static final int IFEQ = 0x99;
+	public static final int IFLT = 0x9b;
+	public static final int IFGE = 0x9c;
+	public static final int IFGT = 0x9d;
+	public static final int IFLE = 0x9e;
+	public static final int IF_ICMPEQ = 0x9f;
+	public static final int IF_ICMPNE = 0xa0;
+	public static final int GOTO = 0xa7;
+	public static final int IRETURN = 0xac;
+	public static final int RETURN = 0xb1;
+	public static final int GETSTATIC = 0xb2;
+	public static final int INVOKESPECIAL = 0xb7;
+	public static final int INVOKESTATIC = 0xb8;
+	public static final int INVOKEINTERFACE = 0xb9;
+
+	/** Access flags. */
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	/** Constant pool tags. */
+	private static final int CONSTANT_Utf8 = 1;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_InterfaceMethodref = 11;
+	private static final int CONSTANT_NameAndType = 12;
+
+	/** The class file version: Java 5, verified without stack map frames. */
+	private static final int MajorVersion = 49;
+
+	/** The constant pool entries written so far. */
+	private DataOutputStream mPool;
+	private ByteArrayOutputStream mPoolBytes = new ByteArrayOutputStream();
+
+	/** The index of each constant pool entry, by its contents. */
+	private HashMap<String, Integer> mPoolIndex = new HashMap<String, Integer>();
+
+	/** The next free constant pool index. */
+	private int mPoolCount = 1;
+
+	/** The methods finished so far. */
+	private DataOutputStream mMethods;
+	private ByteArrayOutputStream mMethodBytes = new ByteArrayOutputStream();
+	private int mMethodCount = 0;
+
+	/** The code of the method being written. */
+	private byte[] mCode = new byte[1024];
+	private int mCodeSize = 0;
+
+	/** The position of each label, -1 until it is bound. */
+	private int[] mLabels = new int[64];
+	private int mLabelCount = 0;
+
+	/** The jumps to labels: where each offset goes, and where its op is. */
+	private ArrayList<int[]> mFixups = new ArrayList<int[]>();
+
+	/** The name of the class and of its superclass, as constant pool indexes. */
+	private int mThis;
+	private int mSuper;
+
+	/**
+	 * Starts a class.
+	 *
+	 * @param pName
+	 *            the internal name of the class (a/b/C).
+	 * @param pSuper
+	 *            the internal name of its superclass.
+	 */
+	public ClassFile(String pName, String pSuper) {
+		mPool = new DataOutputStream(mPoolBytes);
+		mMethods = new DataOutputStream(mMethodBytes);
+		mThis = classRef(pName);
+		mSuper = classRef(pSuper);
+	}
+
+	/**
+	 * Gets the constant pool index of a string.
+	 *
+	 * @param pValue
+	 *            the string.
+	 * @return its index.
+	 */
+	private int utf8(String pValue) {
+		Integer index = mPoolIndex.get("U" + pValue);
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			mPool.writeByte(CONSTANT_Utf8);
+			mPool.writeUTF(pValue);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return add("U" + pValue, 1);
+	}
+
+	/**
+	 * Gets the constant pool index of an entry made of one or two other
+	 * entries, adding it if need be.
+	 *
+	 * @param pTag
+	 *            the tag of the entry.
+	 * @param pFirst
+	 *            the index of the first entry it refers to.
+	 * @param pSecond
+	 *            the index of the second, or -1 if it refers to one only.
+	 * @return its index.
+	 */
+	private int ref(int pTag, int pFirst, int pSecond) {
+		String key = pTag + ":" + pFirst + ":" + pSecond;
+		Integer index = mPoolIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			mPool.writeByte(pTag);
+			mPool.writeShort(pFirst);
+			if (pSecond >= 0) {
+				mPool.writeShort(pSecond);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return add(key, 1);
+	}
+
+	/**
+	 * Records the index of the entry just written.
+	 *
+	 * @param pKey
+	 *            its contents.
+	 * @param pSlots
+	 *            the number of indexes it takes.
+	 * @return its index.
+	 */
+	private int add(String pKey, int pSlots) {
+		int index = mPoolCount;
+		mPoolIndex.put(pKey, index);
+		mPoolCount += pSlots;
+		return index;
+	}
+
+	/**
+	 * Gets the constant pool index of a class.
+	 *
+	 * @param pName
+	 *            the internal name of the class.
+	 * @return its index.
+	 */
+	public int classRef(String pName) {
+		return ref(CONSTANT_Class, utf8(pName), -1);
+	}
+
+	/**
+	 * Gets the constant pool index of a static field.
+	 *
+	 * @param pOwner
+	 *            the internal name of the class the field is in.
+	 * @param pName
+	 *            the field.
+	 * @param pType
+	 *            its type descriptor.
+	 * @return its index.
+	 */
+	public int fieldRef(String pOwner, String pName, String pType) {
+		return ref(CONSTANT_Fieldref, classRef(pOwner), ref(CONSTANT_NameAndType, utf8(pName), utf8(pType)));
+	}
+
+	/**
+	 * Gets the constant pool index of a method of a class.
+	 *
+	 * @param pOwner
+	 *            the internal name of the class.
+	 * @param pName
+	 *            the method.
+	 * @param pType
+	 *            its type descriptor.
+	 * @return its index.
+	 */
+	public int methodRef(String pOwner, String pName, String pType) {
+		return ref(CONSTANT_Methodref, classRef(pOwner), ref(CONSTANT_NameAndType, utf8(pName), utf8(pType)));
+	}
+
+	/**
+	 * Gets the constant pool index of a method of an interface.
+	 *
+	 * @param pOwner
+	 *            the internal name of the interface.
+	 * @param pName
+	 *            the method.
+	 * @param pType
+	 *            its type descriptor.
+	 * @return its index.
+	 */
+	public int interfaceMethodRef(String pOwner, String pName, String pType) {
+		return ref(CONSTANT_InterfaceMethodref, classRef(pOwner),
+				ref(CONSTANT_NameAndType, utf8(pName), utf8(pType)));
+	}
+
+	/**
+	 * Gets the constant pool index of an int constant.
+	 *
+	 * @param pValue
+	 *            the constant.
+	 * @return its index.
+	 */
+	private int integer(int pValue) {
+		Integer index = mPoolIndex.get("I" + pValue);
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			mPool.writeByte(CONSTANT_Integer);
+			mPool.writeInt(pValue);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return add("I" + pValue, 1);
+	}
+
+	/**
+	 * Adds a byte to the code.
+	 *
+	 * @param pByte
+	 *            the byte.
+	 */
+	private void put(int pByte) {
+		if (mCodeSize == mCode.length) {
+			mCode = Arrays.copyOf(mCode, mCodeSize * 2);
+		}
+
+		mCode[mCodeSize++] = (byte) pByte;
+	}
+
+	/**
+	 * Adds an instruction without operands.
+	 *
+	 * @param pOp
+	 *            the op code.
+	 */
+	public void op(int pOp) {
+		put(pOp);
+	}
+
+	/**
+	 * Adds an instruction with a constant pool index as its operand.
+	 *
+	 * @param pOp
+	 *            the op code (GETSTATIC, INVOKESTATIC, ...).
+	 * @param pIndex
+	 *            the index.
+	 */
+	public void op(int pOp, int pIndex) {
+		put(pOp);
+		put(pIndex >> 8);
+		put(pIndex);
+	}
+
+	/**
+	 * Adds an invokeinterface.
+	 *
+	 * @param pIndex
+	 *            the constant pool index of the method.
+	 * @param pArgSlots
+	 *            the number of argument slots, the receiver included.
+	 */
+	public void invokeInterface(int pIndex, int pArgSlots) {
+		op(INVOKEINTERFACE, pIndex);
+		put(pArgSlots);
+		put(0);
+	}
+
+	/**
+	 * Pushes an int constant, in the shortest way.
+	 *
+	 * @param pValue
+	 *            the constant.
+	 */
+	public void push(int pValue) {
+		if ((pValue >= -1) && (pValue <= 5)) {
+			put(ICONST_0 + pValue);
+		} else if (pValue == (byte) pValue) {
+			put(BIPUSH);
+			put(pValue);
+		} else if (pValue == (short) pValue) {
+			put(SIPUSH);
+			put(pValue >> 8);
+			put(pValue);
+		} else {
+			int index = integer(pValue);
+			if (index < 256) {
+				put(LDC);
+				put(index);
+			} else {
+				op(LDC_W, index);
+			}
+		}
+	}
+
+	/**
+	 * Adds a load or store of a local variable.
+	 *
+	 * @param pOp
+	 *            ILOAD, ALOAD or ISTORE.
+	 * @param pLocal
+	 *            the local variable.
+	 */
+	public void local(int pOp, int pLocal) {
+		if (pLocal < 4) {
+			// iload_0 and the like
+			int shortForm = (pOp == ILOAD) ? 0x1a : ((pOp == ALOAD) ? 0x2a : 0x3b);
+			put(shortForm + pLocal);
+		} else {
+			put(pOp);
+			put(pLocal);
+		}
+	}
+
+	/**
+	 * Creates a label, to be bound later.
+	 *
+	 * @return the label.
+	 */
+	public int newLabel() {
+		if (mLabelCount == mLabels.length) {
+			mLabels = Arrays.copyOf(mLabels, mLabelCount * 2);
+		}
+
+		mLabels[mLabelCount] = -1;
+		return mLabelCount++;
+	}
+
+	/**
+	 * Binds a label to the current position in the code.
+	 *
+	 * @param pLabel
+	 *            the label.
+	 */
+	public void bind(int pLabel) {
+		mLabels[pLabel] = mCodeSize;
+	}
+
+	/**
+	 * Adds a jump to a label.
+	 *
+	 * @param pOp
+	 *            the jump (GOTO, IFEQ, IF_ICMPNE, ...).
+	 * @param pLabel
+	 *            the label.
+	 */
+	public void jump(int pOp, int pLabel) {
+		mFixups.add(new int[] { mCodeSize + 1, mCodeSize, pLabel });
+		put(pOp);
+		put(0);
+		put(0);
+	}
+
+	/**
+	 * Gets the size of the code of the method being written.
+	 *
+	 * @return its size in bytes.
+	 */
+	public int codeSize() {
+		return mCodeSize;
+	}
+
+	/**
+	 * Finishes the method being written.
+	 *
+	 * @param pAccess
+	 *            its access flags.
+	 * @param pName
+	 *            its name.
+	 * @param pType
+	 *            its type descriptor.
+	 * @param pMaxStack
+	 *            the deepest its operand stack gets.
+	 * @param pMaxLocals
+	 *            the number of local variable slots, the arguments included.
+	 */
+	public void endMethod(int pAccess, String pName, String pType, int pMaxStack, int pMaxLocals) {
+		for (int[] fixup : mFixups) {
+			int target = mLabels[fixup[2]];
+			assert (target >= 0);
+
+			int offset = target - fixup[1];
+			assert (offset == (short) offset);
+			mCode[fixup[0]] = (byte) (offset >> 8);
+			mCode[fixup[0] + 1] = (byte) offset;
+		}
+
+		try {
+			mMethods.writeShort(pAccess);
+			mMethods.writeShort(utf8(pName));
+			mMethods.writeShort(utf8(pType));
+			mMethods.writeShort(1);
+
+			mMethods.writeShort(utf8("Code"));
+			mMethods.writeInt(12 + mCodeSize);
+			mMethods.writeShort(pMaxStack);
+			mMethods.writeShort(pMaxLocals);
+			mMethods.writeInt(mCodeSize);
+			mMethods.write(mCode, 0, mCodeSize);
+			mMethods.writeShort(0); // exception table
+			mMethods.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		mMethodCount++;
+		mCodeSize = 0;
+		mLabelCount = 0;
+		mFixups.clear();
+	}
+
+	/**
+	 * Gets the class file.
+	 *
+	 * @param pAccess
+	 *            the access flags of the class.
+	 * @return the bytes of the class file.
+	 */
+	public byte[] toBytes(int pAccess) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(MajorVersion);
+			out.writeShort(mPoolCount);
+			mPoolBytes.writeTo(out);
+			out.writeShort(pAccess);
+			out.writeShort(mThis);
+			out.writeShort(mSuper);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(mMethodCount);
+			mMethodBytes.writeTo(out);
+			out.writeShort(0); // attributes
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,696 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import jnachos.kern.*;
+
+/**
+ * One CPU of a multiprocessor machine (-cpus). Without that flag there is a
+ * single CPU, and none of this is used.
+ *
+ * Each CPU has its own registers, page table, interrupt state, PMU counters
+ * and current process, and runs user code on the thread of its process, at
+ * the same time as the others. The kernel, which still assumes it has the
+ * machine to itself, is entered under one big kernel lock: the CPU entering
+ * waits for the others to stop at the end of their current chunk of user
+ * instructions, then installs its own state in Machine, MMU, Interrupt, PMU
+ * and JNachos, where the kernel expects to find it. Disabling interrupts is
+ * thus again enough for mutual exclusion, on whichever CPU the kernel runs.
+ * Like the CPU itself, the lock passes from process to process in
+ * NachosProcess.switchProcess().
+ *
+ * User code traps into the kernel as on a single CPU: the chunk stops before
+ * an instruction that would raise an exception (or is not one the CPU runs
+ * itself, see BlockEngine.isSimple), and MipsSim.oneInstruction() runs it
+ * again in the kernel. A CPU also enters the kernel when a device interrupt
+ * is due, and when its own timer runs out.
+ *
+ * Each CPU keeps its own clock, counting the user instructions it runs;
+ * Statistics.totalTicks is the latest of these clocks (brought up to date
+ * when a CPU enters the kernel), and userTicks their sum. A device interrupt
+ * is delivered by the first CPU whose clock reaches it, up to a chunk late.
+ * Which CPU gets there first depends on the host, so unlike a single CPU an
+ * SMP machine is not deterministic.
+ */
+public class Cpu {
+	/** The number of CPUs (-cpus). */
+	public static int mCount = 1;
+
+	/** The longest chunk of user instructions run between checks. */
+	private static final int ChunkLength = 1000;
+
+	/** Why a CPU stopped running user code. */
+	private static final int Trapped = 0;
+	private static final int Interrupted = 1;
+	private static final int TimeSlice = 2;
+
+	/** The CPUs, or null with only one. */
+	private static Cpu[] mCpus;
+
+	/** The CPU whose state is installed: the one in the kernel. */
+	private static Cpu mInstalled;
+
+	/** Guards the fields below, and mInUser and mIdle of each CPU. */
+	private static final Object mLock = new Object();
+
+	/** True while a CPU is in the kernel. */
+	private static boolean mHeld;
+
+	/** The number of CPUs waiting to enter the kernel. */
+	private static int mWanted;
+
+	/**
+	 * True while a CPU is in the kernel or waiting to be; the others stop
+	 * running user code at the end of their chunk.
+	 */
+	private static volatile boolean mStop;
+
+	/** When the first pending interrupt is due, as of leaving the kernel. */
+	private static volatile int mNextDue = Integer.MAX_VALUE;
+
+	/** The kernel's timer interrupt handler. */
+	private static VoidFunctionPtr mTimerHandler;
+
+	/** The number of times CPUs entered the kernel from user code. */
+	private static long mTraps, mInterrupts, mTimeSlices;
+
+	/** This CPU's number. */
+	private final int mId;
+
+	/** The registers. */
+	private final int[] mRegisters;
+
+	/** The page table in use, and its size. */
+	private int[] mPageTable;
+	private int mPageTableSize;
+
+	/** The PMU counters, and their values at the last process switch. */
+	final long[] mCounters;
+	final long[] mAtSwitch;
+
+	/** The interrupt state (see Interrupt.save). */
+	boolean mIntEnabled = false;
+	boolean mIntInHandler = false;
+	boolean mIntYieldOnReturn = false;
+	int mIntStatus = Interrupt.SystemMode;
+	int mIntInterruptedStatus = Interrupt.SystemMode;
+
+	/** The process running on this CPU. */
+	private NachosProcess mProcess;
+
+	/** True while running user code. */
+	private boolean mInUser = false;
+
+	/** True while waiting for a process to run. */
+	private volatile boolean mIdle;
+
+	/** The clock, and the user ticks not yet added to Statistics. */
+	private int mTicks;
+	private int mUserTicks;
+
+	/** When the time slice runs out. */
+	private int mTimerDue = Statistics.TimerTicks;
+
+	/** The decoded instructions, by physical word. */
+	private final Instruction[] mDecoded = new Instruction[Machine.MemorySize / 4];
+
+	/**
+	 * Creates a CPU.
+	 *
+	 * @param pId
+	 *            its number.
+	 * @param pRegisters
+	 *            its registers.
+	 * @param pCounters
+	 *            its PMU counters.
+	 * @param pAtSwitch
+	 *            their values at the last process switch.
+	 */
+	private Cpu(int pId, int[] pRegisters, long[] pCounters, long[] pAtSwitch) {
+		mId = pId;
+		mRegisters = pRegisters;
+		mCounters = pCounters;
+		mAtSwitch = pAtSwitch;
+		mIdle = (pId != 0);
+	}
+
+	/**
+	 * Creates the CPUs. The one running now, CPU 0, starts out in the kernel
+	 * with the registers and counters the machine already has. Called by
+	 * Machine when there is more than one CPU.
+	 *
+	 * @param pTimerHandler
+	 *            the kernel's timer interrupt handler.
+	 */
+	static void init(VoidFunctionPtr pTimerHandler) {
+		mTimerHandler = pTimerHandler;
+		mCpus = new Cpu[mCount];
+		mCpus[0] = new Cpu(0, Machine.mRegisters, PMU.mCounters, PMU.mAtSwitch);
+		for (int i = 1; i < mCount; i++) {
+			mCpus[i] = new Cpu(i, new int[Machine.NumTotalRegs], new long[PMU.NumCounters],
+					new long[PMU.NumCounters]);
+		}
+
+		mInstalled = mCpus[0];
+		mHeld = true;
+	}
+
+	/**
+	 * Gets the number of the CPU in the kernel.
+	 *
+	 * @return its number; 0 with only one CPU.
+	 */
+	public static int current() {
+		return (mInstalled == null) ? 0 : mInstalled.mId;
+	}
+
+	/**
+	 * Checks whether a CPU is waiting for a process to run.
+	 *
+	 * @param pCpu
+	 *            the CPU's number.
+	 * @return true if it is idle.
+	 */
+	public static boolean isIdle(int pCpu) {
+		return mCpus[pCpu].mIdle;
+	}
+
+	/**
+	 * Gets the process running on a CPU (or, if it is idle, the one it ran
+	 * last).
+	 *
+	 * @param pCpu
+	 *            the CPU's number.
+	 * @return the process.
+	 */
+	public static NachosProcess getProcess(int pCpu) {
+		return (mCpus[pCpu] == mInstalled) ? JNachos.getCurrentProcess() : mCpus[pCpu].mProcess;
+	}
+
+	/**
+	 * Tells idle CPUs a process was made ready to run. They count as busy
+	 * from now on, until they have looked for it.
+	 */
+	public static void workAdded() {
+		if (mCpus != null) {
+			synchronized (mLock) {
+				for (Cpu cpu : mCpus) {
+					cpu.mIdle = false;
+				}
+
+				mLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Starts a CPU other than CPU 0, on the thread of the process it runs
+	 * first. Returns once that CPU is in the kernel.
+	 *
+	 * @param pCpu
+	 *            the CPU's number.
+	 * @param pProcess
+	 *            the process.
+	 */
+	public static void start(int pCpu, NachosProcess pProcess) {
+		Cpu cpu = mCpus[pCpu];
+
+		synchronized (mLock) {
+			acquire();
+			cpu.mProcess = pProcess;
+			cpu.mIdle = false;
+		}
+
+		cpu.install();
+	}
+
+	/**
+	 * Waits, outside the kernel, until a process is made ready to run or no
+	 * other CPU is running one. Called by Interrupt.idle() when the CPU in
+	 * the kernel has nothing to run.
+	 *
+	 * @return false at once if no other CPU is running a process, in which
+	 *         case only an interrupt can bring more work.
+	 */
+	static boolean waitForWork() {
+		Cpu cpu = mInstalled;
+
+		if (mCpus == null) {
+			return false;
+		}
+
+		synchronized (mLock) {
+			if (!cpu.othersBusy()) {
+				return false;
+			}
+
+			cpu.uninstall();
+			cpu.mIdle = true;
+			release();
+
+			while (cpu.mIdle && cpu.othersBusy()) {
+				await();
+			}
+
+			cpu.mIdle = false;
+			acquire();
+		}
+
+		cpu.install();
+		return true;
+	}
+
+	/**
+	 * Runs the user program of the process in the kernel, on the CPU it is
+	 * on, leaving the kernel while it runs user code. Called by Machine.run()
+	 * when there is more than one CPU; never returns.
+	 *
+	 * @param pInstr
+	 *            storage for the instructions run in the kernel.
+	 */
+	static void run(Instruction pInstr) {
+		while (true) {
+			// The process may be on another CPU after each trip into the
+			// kernel
+			Cpu cpu = leave();
+			int why = cpu.runUser();
+			cpu.enter();
+
+			switch (why) {
+			case Trapped:
+				// The interpreter raises the exception (or runs the
+				// instruction), from a decoded page brought up to date with
+				// what this CPU stored there
+				mTraps++;
+				int physPC = MMU.translate(Machine.mRegisters[Machine.PCReg], 4, false);
+				if (physPC >= 0) {
+					DecodeCache.invalidate(physPC / Machine.PageSize);
+				}
+
+				MipsSim.oneInstruction(pInstr);
+				Interrupt.oneTick();
+				break;
+
+			case TimeSlice:
+				mTimeSlices++;
+				Interrupt.localTimer(mTimerHandler);
+				break;
+
+			default:
+				mInterrupts++;
+				Interrupt.deliverDue();
+			}
+		}
+	}
+
+	/**
+	 * Prints how the CPUs shared the work. Called by Statistics.Print().
+	 */
+	public static void print() {
+		if (mCpus == null) {
+			return;
+		}
+
+		String instructions = "";
+		for (Cpu cpu : mCpus) {
+			instructions += ((cpu.mId == 0) ? "" : ", ") + cpu.mCounters[PMU.Instructions];
+		}
+
+		System.out.println("CPUs: " + mCount + ", instructions " + instructions + "; kernel entries for traps "
+				+ mTraps + ", interrupts " + mInterrupts + ", time slices " + mTimeSlices);
+	}
+
+	/**
+	 * Adds up a PMU counter over all CPUs.
+	 *
+	 * @param pWhich
+	 *            the counter.
+	 * @return the total for the machine.
+	 */
+	static long total(int pWhich) {
+		if (mCpus == null) {
+			return PMU.mCounters[pWhich];
+		}
+
+		long total = 0;
+		for (Cpu cpu : mCpus) {
+			total += cpu.mCounters[pWhich];
+		}
+
+		return total;
+	}
+
+	/**
+	 * Makes this CPU's state the machine's, for the kernel. The kernel lock
+	 * must be held.
+	 */
+	private void install() {
+		Machine.mRegisters = mRegisters;
+		MMU.mPageTable = mPageTable;
+		MMU.mPageTableSize = mPageTableSize;
+		MMU.flushCache();
+		Interrupt.restore(this);
+		PMU.mCounters = mCounters;
+		PMU.mAtSwitch = mAtSwitch;
+		JNachos.setCurrentProcess(mProcess);
+		mInstalled = this;
+
+		// Bring the machine's time up to date with what every CPU has done
+		for (Cpu cpu : mCpus) {
+			Statistics.totalTicks = Math.max(Statistics.totalTicks, cpu.mTicks);
+			Statistics.userTicks += cpu.mUserTicks;
+			cpu.mUserTicks = 0;
+		}
+	}
+
+	/**
+	 * Takes this CPU's state back from the machine, as the kernel left it.
+	 */
+	private void uninstall() {
+		mPageTable = MMU.mPageTable;
+		mPageTableSize = MMU.mPageTableSize;
+		Interrupt.save(this);
+		mProcess = JNachos.getCurrentProcess();
+		mInstalled = null;
+
+		// Time went by in the kernel
+		mTicks = Math.max(mTicks, Statistics.totalTicks);
+		mNextDue = Interrupt.nextDue();
+	}
+
+	/**
+	 * Leaves the kernel to run user code.
+	 *
+	 * @return the CPU the process in the kernel is on.
+	 */
+	private static Cpu leave() {
+		Cpu cpu = mInstalled;
+		cpu.uninstall();
+
+		synchronized (mLock) {
+			release();
+			while (mStop) {
+				await();
+			}
+
+			cpu.mInUser = true;
+		}
+
+		return cpu;
+	}
+
+	/**
+	 * Enters the kernel from user code.
+	 */
+	private void enter() {
+		synchronized (mLock) {
+			mInUser = false;
+			mLock.notifyAll();
+			acquire();
+		}
+
+		install();
+	}
+
+	/**
+	 * Stops running user code while another CPU is in the kernel.
+	 */
+	private void pause() {
+		synchronized (mLock) {
+			mInUser = false;
+			mLock.notifyAll();
+
+			while (mStop) {
+				await();
+			}
+
+			mInUser = true;
+		}
+	}
+
+	/**
+	 * Waits for the kernel, then for the other CPUs to stop running user
+	 * code. Called with mLock held.
+	 */
+	private static void acquire() {
+		mWanted++;
+		mStop = true;
+		while (mHeld) {
+			await();
+		}
+
+		mHeld = true;
+		mWanted--;
+
+		for (Cpu cpu : mCpus) {
+			while (cpu.mInUser) {
+				await();
+			}
+		}
+	}
+
+	/**
+	 * Leaves the kernel to the next CPU waiting for it, if any, or lets the
+	 * others carry on. Called with mLock held.
+	 */
+	private static void release() {
+		mHeld = false;
+		mStop = (mWanted > 0);
+		mLock.notifyAll();
+	}
+
+	/**
+	 * Waits for mLock to be notified. Called with mLock held.
+	 */
+	private static void await() {
+		try {
+			mLock.wait();
+		} catch (InterruptedException e) {
+			// Only a machine halting in a batch interrupts its processes
+			throw new Halt();
+		}
+	}
+
+	/**
+	 * Checks whether another CPU is running a process.
+	 *
+	 * @return true if some other CPU is not idle.
+	 */
+	private boolean othersBusy() {
+		for (Cpu cpu : mCpus) {
+			if ((cpu != this) && !cpu.mIdle) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Runs user code until the kernel is needed.
+	 *
+	 * @return Trapped, Interrupted or TimeSlice.
+	 */
+	private int runUser() {
+		while (true) {
+			if (mStop) {
+				pause();
+			}
+
+			if (mTicks >= mNextDue) {
+				return Interrupted;
+			}
+
+			// The timer interrupt is taken even with nothing else to run: the
+			// page replacement policy samples the use bits on it
+			if (mTicks >= mTimerDue) {
+				mTimerDue = mTicks + Statistics.TimerTicks;
+				return TimeSlice;
+			}
+
+			int count = Math.min(ChunkLength, Math.min(mTimerDue, mNextDue) - mTicks) / Statistics.UserTick;
+			int done = runChunk(Math.max(count, 1));
+
+			mTicks += done * Statistics.UserTick;
+			mUserTicks += done * Statistics.UserTick;
+
+			if (done < Math.max(count, 1)) {
+				return Trapped;
+			}
+		}
+	}
+
+	/**
+	 * Runs user instructions as MipsSim.oneInstruction() would, stopping
+	 * before one it would raise an exception for, or that the CPU leaves to
+	 * it (see BlockEngine.isSimple).
+	 *
+	 * @param pCount
+	 *            the most instructions to run.
+	 * @return the number run.
+	 */
+	private int runChunk(int pCount) {
+		int[] r = mRegisters;
+		PhysicalMemory memory = Machine.mMemory;
+		long[] counters = mCounters;
+
+		for (int done = 0; done < pCount; done++) {
+			int pc = r[Machine.PCReg];
+			int physPC = translate(pc, 4, false);
+			if (physPC < 0) {
+				return done;
+			}
+
+			Instruction instr = decoded(physPC, memory.readWord(physPC));
+			int op = instr.opCode;
+			if (!BlockEngine.isSimple(op)) {
+				return done;
+			}
+
+			int nextPC = r[Machine.NextPCReg];
+			int pcAfter = nextPC + 4;
+			int nextLoadReg = 0;
+			int nextLoadValue = 0;
+			int addr;
+
+			switch (op) {
+			case MipsSim.OP_LB:
+			case MipsSim.OP_LBU:
+				if ((addr = translate(r[instr.rs] + instr.extra, 1, false)) < 0) {
+					return done;
+				}
+				counters[PMU.Loads]++;
+				nextLoadReg = instr.rt;
+				nextLoadValue = MipsSim.extendLoad(op, memory.readByte(addr));
+				break;
+
+			case MipsSim.OP_LH:
+			case MipsSim.OP_LHU:
+				if ((addr = translate(r[instr.rs] + instr.extra, 2, false)) < 0) {
+					return done;
+				}
+				counters[PMU.Loads]++;
+				nextLoadReg = instr.rt;
+				nextLoadValue = MipsSim.extendLoad(op, memory.readHalf(addr));
+				break;
+
+			case MipsSim.OP_LW:
+				if ((addr = translate(r[instr.rs] + instr.extra, 4, false)) < 0) {
+					return done;
+				}
+				counters[PMU.Loads]++;
+				nextLoadReg = instr.rt;
+				nextLoadValue = memory.readWord(addr);
+				break;
+
+			case MipsSim.OP_SB:
+				if ((addr = translate(r[instr.rs] + instr.extra, 1, true)) < 0) {
+					return done;
+				}
+				counters[PMU.Stores]++;
+				memory.writeByte(addr, r[instr.rt]);
+				break;
+
+			case MipsSim.OP_SH:
+				if ((addr = translate(r[instr.rs] + instr.extra, 2, true)) < 0) {
+					return done;
+				}
+				counters[PMU.Stores]++;
+				memory.writeHalf(addr, r[instr.rt]);
+				break;
+
+			case MipsSim.OP_SW:
+				if ((addr = translate(r[instr.rs] + instr.extra, 4, true)) < 0) {
+					return done;
+				}
+				counters[PMU.Stores]++;
+				memory.writeWord(addr, r[instr.rt]);
+				break;
+
+			default:
+				if (MipsSim.overflows(r, op, instr.rs, instr.rt, instr.extra)) {
+					return done;
+				}
+
+				pcAfter = MipsSim.execute(r, op, instr.rs, instr.rt, instr.rd, instr.extra, nextPC);
+			}
+
+			counters[PMU.Instructions]++;
+			if (pcAfter != nextPC + 4) {
+				counters[PMU.Branches]++;
+			}
+
+			// The delayed load, then the program counters
+			r[r[Machine.LoadReg]] = r[Machine.LoadValueReg];
+			r[Machine.LoadReg] = nextLoadReg;
+			r[Machine.LoadValueReg] = nextLoadValue;
+			r[0] = 0;
+
+			r[Machine.PrevPCReg] = pc;
+			r[Machine.PCReg] = nextPC;
+			r[Machine.NextPCReg] = pcAfter;
+		}
+
+		return pCount;
+	}
+
+	/**
+	 * Gets an instruction decoded, decoding it again if the word in memory
+	 * has changed since.
+	 *
+	 * @param pPhysAddr
+	 *            its physical address.
+	 * @param pWord
+	 *            the word there now.
+	 * @return the decoded instruction.
+	 */
+	private Instruction decoded(int pPhysAddr, int pWord) {
+		Instruction instr = mDecoded[pPhysAddr >> 2];
+
+		if (instr == null) {
+			instr = mDecoded[pPhysAddr >> 2] = new Instruction();
+		} else if (instr.value == pWord) {
+			return instr;
+		}
+
+		instr.value = pWord;
+		return instr.decode();
+	}
+
+	/**
+	 * Translates a virtual address with this CPU's page table, as
+	 * MMU.translate() would, setting the use and dirty bits.
+	 *
+	 * @param pVirtAddr
+	 *            the virtual address.
+	 * @param pSize
+	 *            the number of bytes accessed.
+	 * @param pWriting
+	 *            true for a store.
+	 * @return the physical address, or -1 if MMU.translate() would fail.
+	 */
+	private int translate(int pVirtAddr, int pSize, boolean pWriting) {
+		int vpn = pVirtAddr >>> Integer.numberOfTrailingZeros(Machine.PageSize);
+
+		if (((pVirtAddr & (pSize - 1)) != 0) || (pVirtAddr < 0) || (vpn >= mPageTableSize)) {
+			return -1;
+		}
+
+		int pte = mPageTable[vpn];
+		int frame = pte & PageTable.FrameMask;
+		if (((pte & PageTable.Valid) == 0) || (pWriting && ((pte & PageTable.ReadOnly) != 0))
+				|| (frame >= Machine.NumPhysPages)) {
+			return -1;
+		}
+
+		int bits = pWriting ? (PageTable.Use | PageTable.Dirty) : PageTable.Use;
+		if ((pte & bits) != bits) {
+			mPageTable[vpn] = pte | bits;
+		}
+
+		return frame * Machine.PageSize + (pVirtAddr & (Machine.PageSize - 1));
+	}
+}
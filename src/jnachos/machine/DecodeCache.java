@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+/**
+ * A cache of decoded instructions, indexed by physical address.
+ *
+ * The first time the CPU fetches an instruction from a physical page, every
+ * word in that page is decoded and the fields are stored in the arrays below.
+ * Later fetches from the page just copy the fields back out, which skips both
+ * the byte-by-byte memory read and Instruction.decode(). Each word also records
+ * whether it starts a pair of instructions that MipsSim can run as one (see
+ * MipsSim.fusionOf).
+ *
+ * Any write to a decoded page (by the simulated CPU or by the kernel loading
+ * a page) must call invalidate(), so that stale instructions are never run.
+ */
+public class DecodeCache {
+	/** The number of instruction words in a page. */
+	public static final int WordsPerPage = Machine.PageSize / 4;
+
+	/** True if the page has been decoded. */
+	private static boolean[] mDecoded = new boolean[Machine.NumPhysPages];
+
+	/** The raw instruction words. */
+	private static int[] mValue = new int[Machine.MemorySize / 4];
+
+	/** The decoded op codes. */
+	private static byte[] mOpCode = new byte[Machine.MemorySize / 4];
+
+	/** The decoded register fields. */
+	private static byte[] mRs = new byte[Machine.MemorySize / 4];
+	private static byte[] mRt = new byte[Machine.MemorySize / 4];
+	private static byte[] mRd = new byte[Machine.MemorySize / 4];
+
+	/** The decoded (sign-extended) immediate, target or shift fields. */
+	private static int[] mExtra = new int[Machine.MemorySize / 4];
+
+	/** The kind of fused pair starting at each word, MipsSim.FUSE_NONE if none. */
+	private static byte[] mFusion = new byte[Machine.MemorySize / 4];
+
+	/** Scratch instructions used while decoding a page. */
+	private static Instruction mScratch = new Instruction();
+	private static Instruction mFollowing = new Instruction();
+
+	/**
+	 * Fills in the instruction at the given physical address, decoding the
+	 * whole page first if needed.
+	 *
+	 * @param pPhysAddr
+	 *            the (word aligned) physical address of the instruction.
+	 * @param pInstr
+	 *            the instruction to fill in.
+	 */
+	public static void fetch(int pPhysAddr, Instruction pInstr) {
+		int page = pPhysAddr / Machine.PageSize;
+
+		if (!mDecoded[page]) {
+			decodePage(page);
+		}
+
+		int slot = pPhysAddr >> 2;
+		pInstr.value = mValue[slot];
+		pInstr.opCode = (char) mOpCode[slot];
+		pInstr.rs = (char) mRs[slot];
+		pInstr.rt = (char) mRt[slot];
+		pInstr.rd = (char) mRd[slot];
+		pInstr.extra = mExtra[slot];
+	}
+
+	/**
+	 * Gets the kind of fused pair that starts at the given physical address,
+	 * decoding the page first if needed. Both halves of a pair are always in
+	 * the same page.
+	 *
+	 * @param pPhysAddr
+	 *            the (word aligned) physical address of the first instruction.
+	 * @return the kind of pair, or MipsSim.FUSE_NONE.
+	 */
+	public static int fusion(int pPhysAddr) {
+		int page = pPhysAddr / Machine.PageSize;
+
+		if (!mDecoded[page]) {
+			decodePage(page);
+		}
+
+		return mFusion[pPhysAddr >> 2];
+	}
+
+	/**
+	 * Drops the decoded instructions for a physical page. Called whenever the
+	 * contents of the page change.
+	 *
+	 * @param pPage
+	 *            the physical page number.
+	 */
+	public static void invalidate(int pPage) {
+		if (mDecoded[pPage]) {
+			mDecoded[pPage] = false;
+
+			// Translated blocks were built from the decoded page
+			BlockEngine.invalidate(pPage);
+		}
+	}
+
+	/**
+	 * Checks whether a physical page currently holds decoded instructions.
+	 *
+	 * @param pPage
+	 *            the physical page number.
+	 * @return true if the page has been decoded.
+	 */
+	public static boolean isDecoded(int pPage) {
+		return mDecoded[pPage];
+	}
+
+	/**
+	 * Decodes every word of a physical page into the cache.
+	 *
+	 * @param pPage
+	 *            the physical page number.
+	 */
+	private static void decodePage(int pPage) {
+		int base = pPage * Machine.PageSize;
+
+		// Work backwards so the following instruction is at hand for fusion
+		for (int i = WordsPerPage - 1; i >= 0; i--) {
+			int addr = base + (i << 2);
+			int slot = addr >> 2;
+
+			mScratch.value = Machine.mMemory.readWord(addr);
+			mScratch.decode();
+
+			mValue[slot] = mScratch.value;
+			mOpCode[slot] = (byte) mScratch.opCode;
+			mRs[slot] = (byte) mScratch.rs;
+			mRt[slot] = (byte) mScratch.rt;
+			mRd[slot] = (byte) mScratch.rd;
+			mExtra[slot] = mScratch.extra;
+
+			if (i < WordsPerPage - 1) {
+				mFusion[slot] = (byte) MipsSim.fusionOf(mScratch, mFollowing);
+			} else {
+				mFusion[slot] = MipsSim.FUSE_NONE;
+			}
+
+			Instruction swap = mFollowing;
+			mFollowing = mScratch;
+			mScratch = swap;
+		}
+
+		mDecoded[pPage] = true;
+	}
+}
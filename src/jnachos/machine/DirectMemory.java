@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Physical memory kept off the Java heap, in a little endian direct
+ * ByteBuffer. The garbage collector never has to scan or move it, so large
+ * memories cost nothing at collection time.
+ */
+public class DirectMemory implements PhysicalMemory {
+	/** The contents of memory. */
+	private final ByteBuffer mBuffer;
+
+	/**
+	 * Creates a zeroed memory.
+	 *
+	 * @param pSize
+	 *            the size in bytes.
+	 */
+	public DirectMemory(int pSize) {
+		// Direct buffers start out zeroed
+		mBuffer = ByteBuffer.allocateDirect(pSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public int size() {
+		return mBuffer.capacity();
+	}
+
+	public int readWord(int pAddr) {
+		return mBuffer.getInt(pAddr);
+	}
+
+	public int readHalf(int pAddr) {
+		return mBuffer.getShort(pAddr) & 0xffff;
+	}
+
+	public int readByte(int pAddr) {
+		return mBuffer.get(pAddr);
+	}
+
+	public void writeWord(int pAddr, int pValue) {
+		mBuffer.putInt(pAddr, pValue);
+	}
+
+	public void writeHalf(int pAddr, int pValue) {
+		mBuffer.putShort(pAddr, (short) pValue);
+	}
+
+	public void writeByte(int pAddr, int pValue) {
+		mBuffer.put(pAddr, (byte) pValue);
+	}
+
+	public void fill(int pAddr, int pLength, byte pValue) {
+		// Fill a word at a time where we can
+		int word = (pValue & 0xff) * 0x01010101;
+		int end = pAddr + pLength;
+		int i = pAddr;
+
+		for (; i + 4 <= end; i += 4) {
+			mBuffer.putInt(i, word);
+		}
+		for (; i < end; i++) {
+			mBuffer.put(i, pValue);
+		}
+	}
+
+	public void copyIn(int pAddr, byte[] pSrc, int pOffset, int pLength) {
+		mBuffer.put(pAddr, pSrc, pOffset, pLength);
+	}
+
+	public void copyOut(int pAddr, byte[] pDest, int pOffset, int pLength) {
+		mBuffer.get(pAddr, pDest, pOffset, pLength);
+	}
+
+	public void copy(int pFrom, int pTo, int pLength) {
+		mBuffer.put(pTo, mBuffer, pFrom, pLength);
+	}
+}
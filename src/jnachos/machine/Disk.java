@@ -73,7 +73,7 @@ public class Disk implements VoidFunctionPtr {
 		int magicNum;
 		int tmp = 0;
 
-		Debug.print('d', "Initializing the disk, " + callWhenDone + ", " + callArg);
+		Debug.print('d', () -> "Initializing the disk, " + callWhenDone + ", " + callArg);
 
 		mHandler = callWhenDone;
 		mHandlerArg = callArg;
@@ -88,12 +88,14 @@ public class Disk implements VoidFunctionPtr {
 			JavaSys.lseek(mFileno, 0);
 			JavaSys.read(mFileno, buffer, MagicSize);
 
-			for (int i = 0; i < 4; i++) {
-				Debug.print('d', i + "::" + buffer[i]);
+			if (Debug.isEnabled('d')) {
+				for (int i = 0; i < 4; i++) {
+					Debug.print('d', i + "::" + buffer[i]);
+				}
 			}
 
 			magicNum = JavaSys.bytesToInt(buffer, 0).intValue();
-			Debug.print('j', "Magic: " + magicNum);
+			Debug.print('j', () -> "Magic: " + magicNum);
 
 			assert (magicNum == MagicNumber);
 		}
@@ -105,16 +107,18 @@ public class Disk implements VoidFunctionPtr {
 
 			JavaSys.intToBytes(MagicNumber, magicArray, 0);
 
-			for (int i = 0; i < 4; i++) {
-				Debug.print('j', i + "::" + magicArray[i]);
+			if (Debug.isEnabled('j')) {
+				for (int i = 0; i < 4; i++) {
+					Debug.print('j', i + "::" + magicArray[i]);
+				}
 			}
 
-			Debug.print('j', "Translated:" + JavaSys.bytesToInt(magicArray, 0));
+			Debug.print('j', () -> "Translated:" + JavaSys.bytesToInt(magicArray, 0));
 			// write magic number
 			JavaSys.lseek(mFileno, 0);
 			JavaSys.writeFile(mFileno, magicArray, MagicSize);
 
-			Debug.print('j', "DS:" + DiskSize);
+			Debug.print('j', () -> "DS:" + DiskSize);
 
 			// need to write at end of file, so that reads will not return EOF
 			JavaSys.lseek(mFileno, DiskSize - 4);
@@ -188,7 +192,7 @@ public class Disk implements VoidFunctionPtr {
 		// only one request at a time
 		assert ((sectorNumber >= 0) && (sectorNumber < NumSectors));
 
-		Debug.print('d', "Reading from sector" + sectorNumber);
+		Debug.print('d', () -> "Reading from sector" + sectorNumber);
 
 		JavaSys.lseek(mFileno, SectorSize * sectorNumber + MagicSize);
 		JavaSys.read(mFileno, data, SectorSize);
@@ -201,6 +205,7 @@ public class Disk implements VoidFunctionPtr {
 		updateLast(sectorNumber);
 
 		Statistics.numDiskReads++;
+		Statistics.diskTicks += ticks;
 
 		Interrupt.schedule(this, null, ticks, InterruptType.DiskInt);
 	}
@@ -224,8 +229,8 @@ public class Disk implements VoidFunctionPtr {
 		assert (!mActive);
 		assert ((sectorNumber >= 0) && (sectorNumber < NumSectors));
 
-		Debug.print('d', "Writing to sector " + sectorNumber);
-		Debug.print('d', "Location: " + SectorSize * sectorNumber + MagicSize);
+		Debug.print('d', () -> "Writing to sector " + sectorNumber);
+		Debug.print('d', () -> "Location: " + SectorSize * sectorNumber + MagicSize);
 		JavaSys.lseek(mFileno, SectorSize * sectorNumber + MagicSize);
 		JavaSys.writeFile(mFileno, data, SectorSize);
 
@@ -237,6 +242,7 @@ public class Disk implements VoidFunctionPtr {
 		updateLast(sectorNumber);
 
 		Statistics.numDiskWrites++;
+		Statistics.diskTicks += ticks;
 		Interrupt.schedule(this, null, ticks, InterruptType.DiskInt);
 	}
 
@@ -310,7 +316,7 @@ public class Disk implements VoidFunctionPtr {
 
 		rotation[0] += moduloDiff(newSector, timeAfter / Statistics.RotationTime) * Statistics.RotationTime;
 
-		Debug.print('d', "Request latency = " + seek + rotation + Statistics.RotationTime);
+		Debug.print('d', () -> "Request latency = " + seek + rotation + Statistics.RotationTime);
 
 		return (seek + rotation[0] + Statistics.RotationTime);
 	}
@@ -329,6 +335,6 @@ public class Disk implements VoidFunctionPtr {
 
 		mLastSector = newSector;
 
-		Debug.print('d', "Updating last sector = " + mLastSector + " ," + mBufferInit);
+		Debug.print('d', () -> "Updating last sector = " + mLastSector + " ," + mBufferInit);
 	}
 }
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Physical memory kept in a byte array on the Java heap. Words and half words
+ * are read and written through little endian VarHandle views of the array.
+ */
+public class HeapMemory implements PhysicalMemory {
+	/** Little endian int view of a byte array. */
+	private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/** Little endian short view of a byte array. */
+	private static final VarHandle HALF = MethodHandles.byteArrayViewVarHandle(short[].class,
+			ByteOrder.LITTLE_ENDIAN);
+
+	/** The contents of memory. */
+	private final byte[] mBytes;
+
+	/**
+	 * Creates a zeroed memory.
+	 *
+	 * @param pSize
+	 *            the size in bytes.
+	 */
+	public HeapMemory(int pSize) {
+		mBytes = new byte[pSize];
+	}
+
+	public int size() {
+		return mBytes.length;
+	}
+
+	public int readWord(int pAddr) {
+		return (int) WORD.get(mBytes, pAddr);
+	}
+
+	public int readHalf(int pAddr) {
+		return ((short) HALF.get(mBytes, pAddr)) & 0xffff;
+	}
+
+	public int readByte(int pAddr) {
+		return mBytes[pAddr];
+	}
+
+	public void writeWord(int pAddr, int pValue) {
+		WORD.set(mBytes, pAddr, pValue);
+	}
+
+	public void writeHalf(int pAddr, int pValue) {
+		HALF.set(mBytes, pAddr, (short) pValue);
+	}
+
+	public void writeByte(int pAddr, int pValue) {
+		mBytes[pAddr] = (byte) pValue;
+	}
+
+	public void fill(int pAddr, int pLength, byte pValue) {
+		Arrays.fill(mBytes, pAddr, pAddr + pLength, pValue);
+	}
+
+	public void copyIn(int pAddr, byte[] pSrc, int pOffset, int pLength) {
+		System.arraycopy(pSrc, pOffset, mBytes, pAddr, pLength);
+	}
+
+	public void copyOut(int pAddr, byte[] pDest, int pOffset, int pLength) {
+		System.arraycopy(mBytes, pAddr, pDest, pOffset, pLength);
+	}
+
+	public void copy(int pFrom, int pTo, int pLength) {
+		System.arraycopy(mBytes, pFrom, mBytes, pTo, pLength);
+	}
+}
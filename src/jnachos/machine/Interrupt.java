@@ -8,6 +8,9 @@
 package jnachos.machine;
 
 import jnachos.kern.*;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.ListIterator;
 
@@ -124,7 +127,7 @@ public class Interrupt {
 
 	/** Strings for debug display of InterruptTypes */
 	public final static String intTypeNames[] = { "timer", "disk", "console write", "console read", "network send",
-			"network recv" };
+			"network recv", "snapshot" };
 
 	/** Are interrupts enabled or disabled? */
 	private static boolean mEnabled;
@@ -143,6 +146,12 @@ public class Interrupt {
 	/** current status. */
 	private static int mStatus; // idle, kernel mode, user mode
 
+	/** The status when the running interrupt handler was called. */
+	private static int mInterruptedStatus;
+
+	/** True once the machine has halted. */
+	private static boolean mHalted = false;
+
 	/**
 	 * Gets the current interrupt status.
 	 * 
@@ -152,6 +161,16 @@ public class Interrupt {
 		return mStatus;
 	}
 
+	/**
+	 * Gets what the machine was doing when the running interrupt handler was
+	 * called.
+	 *
+	 * @return IdleMode, SystemMode or UserMode.
+	 */
+	public static int getInterruptedStatus() {
+		return mInterruptedStatus;
+	}
+
 	/**
 	 * Initialize the simulation of hardware device interrupts. Interrupts start
 	 * disabled, with no interrupts pending, etc.
@@ -193,7 +212,7 @@ public class Interrupt {
 	 */
 	public static void changeLevel(boolean pOld, boolean pNow) {
 		mEnabled = pNow;
-		Debug.print('i', "\tinterrupts:" + pOld + "-> " + pNow);
+		Debug.print('i', () -> "\tinterrupts:" + pOld + "-> " + pNow);
 	}
 
 	/**
@@ -266,8 +285,16 @@ public class Interrupt {
 			Statistics.userTicks += Statistics.UserTick;
 		}
 
-		Debug.print('i', "\n== Tick " + Statistics.totalTicks + "==");
+		Debug.print('i', () -> "\n== Tick " + Statistics.totalTicks + "==");
 
+		deliverDue();
+	}
+
+	/**
+	 * Calls the handlers of the interrupts that are due, then switches
+	 * processes if one of them asked to. The second half of oneTick().
+	 */
+	static void deliverDue() {
 		// check any pending interrupts are now ready to fire
 		// first, turn off interrupts (interrupt handlers run with interrupts
 		// disabled)
@@ -288,6 +315,101 @@ public class Interrupt {
 		}
 	}
 
+	/**
+	 * Delivers the timer interrupt of a CPU of a multiprocessor, whose time
+	 * slice has run out (see Cpu), along with anything else that is due.
+	 *
+	 * @param pHandler
+	 *            the kernel's timer interrupt handler.
+	 */
+	static void localTimer(VoidFunctionPtr pHandler) {
+		SortedInsert(new PendingInterrupt(pHandler, null, Statistics.totalTicks, InterruptType.TimerInt),
+				Statistics.totalTicks);
+		deliverDue();
+	}
+
+	/**
+	 * Gets when the next scheduled interrupt is due.
+	 *
+	 * @return the time of the earliest pending interrupt, or
+	 *         Integer.MAX_VALUE if nothing is pending.
+	 */
+	static int nextDue() {
+		return mPending.isEmpty() ? Integer.MAX_VALUE : mPending.getFirst().getWhen();
+	}
+
+	/**
+	 * Saves the interrupt state of a CPU leaving the kernel (see Cpu).
+	 *
+	 * @param pCpu
+	 *            the CPU.
+	 */
+	static void save(Cpu pCpu) {
+		pCpu.mIntEnabled = mEnabled;
+		pCpu.mIntInHandler = mInHandler;
+		pCpu.mIntYieldOnReturn = mYieldOnReturn;
+		pCpu.mIntStatus = mStatus;
+		pCpu.mIntInterruptedStatus = mInterruptedStatus;
+	}
+
+	/**
+	 * Restores the interrupt state of a CPU entering the kernel.
+	 *
+	 * @param pCpu
+	 *            the CPU.
+	 */
+	static void restore(Cpu pCpu) {
+		mEnabled = pCpu.mIntEnabled;
+		mInHandler = pCpu.mIntInHandler;
+		mYieldOnReturn = pCpu.mIntYieldOnReturn;
+		mStatus = pCpu.mIntStatus;
+		mInterruptedStatus = pCpu.mIntInterruptedStatus;
+	}
+
+	/**
+	 * Gets how long until the next scheduled interrupt is due.
+	 *
+	 * @return the number of ticks until the earliest pending interrupt, or
+	 *         Integer.MAX_VALUE if nothing is pending.
+	 */
+	public static int ticksUntilDue() {
+		if (mPending.isEmpty()) {
+			return Integer.MAX_VALUE;
+		}
+
+		return mPending.getFirst().getWhen() - Statistics.totalTicks;
+	}
+
+	/**
+	 * Gets how far one call to oneTick() advances simulated time in the
+	 * current mode.
+	 *
+	 * @return the length of a tick.
+	 */
+	public static int tickLength() {
+		return (mStatus == SystemMode) ? Statistics.SystemTick : Statistics.UserTick;
+	}
+
+	/**
+	 * Advances simulated time by several ticks in one step.
+	 *
+	 * Only valid when the caller has checked (with ticksUntilDue and
+	 * tickLength) that no interrupt came due during those ticks, since then
+	 * this is all that oneTick() would have done for each of them.
+	 *
+	 * @param pTicks
+	 *            the number of ticks to advance.
+	 */
+	public static void advanceTicks(int pTicks) {
+		if (mStatus == SystemMode) {
+			Statistics.totalTicks += pTicks * Statistics.SystemTick;
+			Statistics.systemTicks += pTicks * Statistics.SystemTick;
+		} else {
+			Statistics.totalTicks += pTicks * Statistics.UserTick;
+			Statistics.userTicks += pTicks * Statistics.UserTick;
+		}
+	}
+
 	/**
 	 * Called from within an interrupt handler, to cause a context switch (for
 	 * example, on a time slice) in the interrupted thread, when the handler
@@ -310,11 +432,21 @@ public class Interrupt {
 	 *
 	 * If there are no pending interrupts, stop. There's nothing more for us to
 	 * do.
+	 *
+	 * On a multiprocessor, another CPU that is running a process may also
+	 * make one ready; until they are all idle, wait for that instead.
 	 */
 	public static void idle() {
 		Debug.print('i', "Machine idling; checking for interrupts.\n");
+		if (Cpu.waitForWork()) {
+			return;
+		}
+
 		mStatus = IdleMode;
 
+		// Nothing else to do: zero free frames ahead of need
+		FrameAllocator.prezero();
+
 		// check for any pending interrupts
 		if (checkIfDue(true)) {
 			// check for any other pending interrupts
@@ -343,12 +475,24 @@ public class Interrupt {
 		halt();
 	}
 
+	/**
+	 * Checks whether the machine has halted.
+	 *
+	 * @return true once halt() has been called.
+	 */
+	public static boolean isHalted() {
+		return mHalted;
+	}
+
 	/**
 	 * Shut down Nachos cleanly, printing out performance statistics.
 	 */
 	public static void halt() {
+		mHalted = true;
 		System.out.println("Machine halting!\n\n");
 		Statistics.Print();
+		Profiler.write();
+		Replay.close();
 		JNachos.cleanUp(); // Never returns.
 	}
 
@@ -372,10 +516,11 @@ public class Interrupt {
 	 *            the hardware device that generated the interrupt
 	 */
 	public static void schedule(VoidFunctionPtr handler, Object arg, int fromNow, InterruptType type) {
-		int when = Statistics.totalTicks + fromNow;
+		int when = Statistics.totalTicks + Replay.scheduled(type, fromNow);
 		PendingInterrupt toOccur = new PendingInterrupt(handler, arg, when, type);
 
-		Debug.print('i', "Scheduling interrupt handler the " + intTypeNames[type.ordinal()] + " at time =" + when);
+		Debug.print('i',
+				() -> "Scheduling interrupt handler the " + intTypeNames[type.ordinal()] + " at time =" + when);
 
 		assert (fromNow > 0);
 
@@ -407,6 +552,13 @@ public class Interrupt {
 		if (mPending.isEmpty())
 			return false;
 
+		// A snapshot waiting for its time while nothing but timers is pending
+		// would only keep an idle machine alive; it is delivered at once, and
+		// finds there is nothing left to save
+		if (advanceClock) {
+			deliverSnapshotNow();
+		}
+
 		PendingInterrupt toOccur = mPending.removeFirst();
 
 		if (advanceClock && toOccur.getWhen() > Statistics.totalTicks) { // advance
@@ -420,17 +572,24 @@ public class Interrupt {
 			return false;
 		}
 
+		// (Including the timer that finds the machine idle for good, whose
+		// time is counted as idle time)
+		Replay.delivered(toOccur.getType());
+
 		// Check if there is nothing more to do, and if so, quit
 		if ((mStatus == IdleMode) && (toOccur.getType() == InterruptType.TimerInt) && mPending.isEmpty()) {
 			SortedInsert(toOccur, toOccur.getWhen());
 			return false;
 		}
 
-		Debug.print('i', "Invoking interrupt handler for the " + intTypeNames[toOccur.getType().ordinal()] + " at time "
-				+ toOccur.getWhen());
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "Invoking interrupt handler for the " + intTypeNames[toOccur.getType().ordinal()]
+					+ " at time " + toOccur.getWhen());
+		}
 
 		Machine.delayedLoad(0, 0);
 		mInHandler = true;
+		mInterruptedStatus = old;
 		mStatus = SystemMode; // whatever we were doing,
 		// we are now going to be
 		// running in the kernel
@@ -443,6 +602,83 @@ public class Interrupt {
 		return true;
 	}
 
+	/**
+	 * Moves a pending snapshot interrupt to the front, due now, if every other
+	 * pending interrupt is a timer interrupt.
+	 */
+	private static void deliverSnapshotNow() {
+		PendingInterrupt snapshot = null;
+
+		for (PendingInterrupt pending : mPending) {
+			if (pending.getType() == InterruptType.SnapshotInt) {
+				snapshot = pending;
+			} else if (pending.getType() != InterruptType.TimerInt) {
+				return;
+			}
+		}
+
+		if (snapshot != null) {
+			mPending.remove(snapshot);
+			mPending.addFirst(new PendingInterrupt(snapshot.getHandler(), snapshot.getArgument(),
+					Statistics.totalTicks, snapshot.getType()));
+		}
+	}
+
+	/**
+	 * Checks that only timer interrupts are pending, so that saveTimers()
+	 * captures everything that is scheduled to happen.
+	 *
+	 * @return true if every pending interrupt is a timer interrupt.
+	 */
+	public static boolean onlyTimersPending() {
+		for (PendingInterrupt pending : mPending) {
+			if (pending.getType() != InterruptType.TimerInt) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes when the pending timer interrupts are due to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void saveTimers(DataOutputStream pOut) throws IOException {
+		int count = 0;
+		for (PendingInterrupt pending : mPending) {
+			if (pending.getType() == InterruptType.TimerInt) {
+				count++;
+			}
+		}
+
+		pOut.writeInt(count);
+		for (PendingInterrupt pending : mPending) {
+			if (pending.getType() == InterruptType.TimerInt) {
+				pOut.writeInt(pending.getWhen());
+			}
+		}
+	}
+
+	/**
+	 * Replaces the pending timer interrupts with those in a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 * @param pTimer
+	 *            the timer device.
+	 */
+	public static void restoreTimers(DataInputStream pIn, Timer pTimer) throws IOException {
+		mPending.removeIf(pending -> pending.getType() == InterruptType.TimerInt);
+
+		for (int count = pIn.readInt(); count > 0; count--) {
+			int when = pIn.readInt();
+			SortedInsert(new PendingInterrupt(pTimer, pTimer, when, InterruptType.TimerInt), when);
+		}
+	}
+
 	/**
 	 * Print information about an interrupt that is scheduled to occur. When,
 	 * where, why, etc.
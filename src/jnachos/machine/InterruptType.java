@@ -13,5 +13,5 @@ package jnachos.machine;
  * a network.
  */
 public enum InterruptType {
-	TimerInt, DiskInt, ConsoleWriteInt, ConsoleReadInt, NetworkSendInt, NetworkRecvInt
+	TimerInt, DiskInt, ConsoleWriteInt, ConsoleReadInt, NetworkSendInt, NetworkRecvInt, SnapshotInt
 }
@@ -41,7 +41,7 @@ public class JavaSys {
 				fd = mFileCount;
 			}
 
-			Debug.print('j', "File Opened:" + raf);
+			Debug.print('j', () -> "File Opened:" + raf);
 
 			mFileCount++;
 
@@ -73,7 +73,9 @@ public class JavaSys {
 				mOpenFiles.put(new Integer(fd), raf);
 			}
 
-			Debug.print('f', "File Opened:" + raf + "\t" + fd + "\t" + mOpenFiles);
+			if (Debug.isEnabled('f')) {
+				Debug.print('f', "File Opened:" + raf + "\t" + fd + "\t" + mOpenFiles);
+			}
 
 			mFileCount++;
 		} catch (Exception e) {
@@ -82,6 +84,17 @@ public class JavaSys {
 		return fd;
 	}
 
+	/**
+	 * Gets the time a file was last modified.
+	 *
+	 * @param pName
+	 *            the file name.
+	 * @return the time in milliseconds, or 0 if the file does not exist.
+	 */
+	public static long lastModified(String pName) {
+		return new File(pName).lastModified();
+	}
+
 	/**
 	 *
 	 */
@@ -143,9 +156,11 @@ public class JavaSys {
 			RandomAccessFile raf = mOpenFiles.get(new Integer(fd));
 			retVal = raf.read(buffer);
 
-			Debug.print('j', "length:" + raf.length());
-			// assert(retVal == nBytes);
-			Debug.print('j', "Bytes Read:" + retVal + "\t" + nBytes);
+			if (Debug.isEnabled('j')) {
+				Debug.print('j', "length:" + raf.length());
+				// assert(retVal == nBytes);
+				Debug.print('j', "Bytes Read:" + retVal + "\t" + nBytes);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -26,6 +26,12 @@ import jnachos.kern.*;
  * stored in memory), there is only one TLB (implemented in hardware). Thus the
  * TLB pointer should be considered as *read-only*, although the contents of the
  * TLB are free to be modified by the kernel software.
+ *
+ * The TLB is set associative: virtual page vpn can only be in set
+ * (vpn % mTlbSets), which is entries [set * mTlbWays, (set + 1) * mTlbWays).
+ * Each entry is tagged with an address space identifier, and only matches
+ * while mAsid holds the same one, so the TLB need not be flushed on a context
+ * switch. A miss raises PageFaultException, and the kernel loads the entry.
  */
 public class MMU {
 
@@ -35,8 +41,11 @@ public class MMU {
 	 */
 	public static TranslationEntry[] mTlb;
 
-	/** The page table used by the currently running process. */
-	public static TranslationEntry mPageTable[];
+	/**
+	 * The page table used by the currently running process, one packed entry
+	 * per virtual page (see PageTable).
+	 */
+	public static int[] mPageTable;
 
 	/** The size of the current page table. */
 	public static int mPageTableSize;
@@ -44,9 +53,54 @@ public class MMU {
 	/** States whether or not to used the TLB. */
 	public static boolean mUSE_TLB;
 
+	/** The number of entries in each set of the TLB. */
+	public static int mTlbWays;
+
+	/** The number of sets in the TLB. */
+	public static int mTlbSets;
+
+	/** The address space identifier of the running process. */
+	public static int mAsid;
+
+	/** When each TLB entry was last used, counted in TLB hits. */
+	public static long[] mTlbLastUse;
+
+	/** The number of TLB hits so far, the clock for mTlbLastUse. */
+	private static long mTlbClock = 0;
+
 	/** The size of a page. The same as a disk sector for simplicity. */
 	public static final int PageSize = 128;
 
+	/** The number of address bits below the virtual page number. */
+	private static final int PageShift = Integer.numberOfTrailingZeros(PageSize);
+
+	/** The number of lines in the translation cache. */
+	private static final int CacheSize = 64;
+
+	/**
+	 * The translation cache: a direct-mapped cache, kept by the simulator and
+	 * not part of the simulated machine, of the pages the running process has
+	 * used through its page table. Virtual page vpn can only be in line
+	 * (vpn % CacheSize). A line holds the page read may go through it, and,
+	 * if the page is writable and already dirty, the page a write may; -1
+	 * otherwise. A hit leaves nothing to check or set, so it costs a shift, a
+	 * compare and an array load.
+	 *
+	 * A page is only cached once its use bit is set, so the cache must be
+	 * told whenever an entry of the current page table changes (see
+	 * invalidateCache), and emptied when another page table is installed
+	 * (see flushCache). It is not used with a TLB, whose hits are counted.
+	 */
+	private static int[] mCacheReadPage = new int[CacheSize];
+	private static int[] mCacheWritePage = new int[CacheSize];
+
+	/** The physical address of the frame each line's page is in. */
+	private static int[] mCacheBase = new int[CacheSize];
+
+	static {
+		flushCache();
+	}
+
 	/**
 	 * ??
 	 */
@@ -54,6 +108,34 @@ public class MMU {
 
 	}
 
+	/**
+	 * Creates the TLB, with every entry invalid. Called once at start up.
+	 *
+	 * @param pSize
+	 *            the number of entries.
+	 * @param pWays
+	 *            the number of entries in each set; pSize for a fully
+	 *            associative TLB.
+	 */
+	public static void createTlb(int pSize, int pWays) {
+		assert ((pSize > 0) && (pWays > 0) && (pSize % pWays == 0));
+
+		mTlb = new TranslationEntry[pSize];
+		for (int i = 0; i < pSize; i++) {
+			mTlb[i] = new TranslationEntry();
+			mTlb[i].valid = false;
+		}
+
+		mTlbWays = pWays;
+		mTlbSets = pSize / pWays;
+		mTlbLastUse = new long[pSize];
+	}
+
+	/**
+	 * The exception that made the last call to translate() fail.
+	 */
+	public static ExceptionType mException = ExceptionType.NoException;
+
 	/**
 	 * Translate a virtual address into a physical address, using either a page
 	 * table or a TLB. Check for alignment and all sorts of other errors, and if
@@ -71,17 +153,60 @@ public class MMU {
 	 *            if TRUE, check the "read-only" bit in the TLB
 	 */
 	public static ExceptionType translate(int virtAddr, int[] physAddr, int size, boolean writing) {
+		int addr = translate(virtAddr, size, writing);
+
+		if (addr < 0) {
+			return mException;
+		}
+
+		physAddr[0] = addr;
+		return ExceptionType.NoException;
+	}
+
+	/**
+	 * Translate a virtual address into a physical address, using either a page
+	 * table or a TLB. Works like the version above, but allocates nothing: the
+	 * physical address is returned directly, and on an error -1 is returned
+	 * and the exception is left in mException.
+	 * 
+	 * @param virtAddr
+	 *            the virtual address to translate
+	 * @param size
+	 *            the amount of memory being read or written
+	 * @param writing
+	 *            if TRUE, check the "read-only" bit in the TLB
+	 * @return the physical address, or -1 if the translation failed.
+	 */
+	public static int translate(int virtAddr, int size, boolean writing) {
+		// A page used since it was last mapped, at an aligned address
+		int page = virtAddr >>> PageShift;
+		int line = page & (CacheSize - 1);
+		if (((writing ? mCacheWritePage[line] : mCacheReadPage[line]) == page) && ((virtAddr & (size - 1)) == 0)) {
+			return mCacheBase[line] + (virtAddr & (PageSize - 1));
+		}
+
 		int i = 0;
 		int vpn, offset;
-		TranslationEntry entry;
+		TranslationEntry entry = null;
+		boolean readOnly;
 		int pageFrame;
+		int physAddr;
 
-		Debug.print('a', "Translate 0x" + Integer.toHexString(virtAddr) + ", writing " + (writing ? "write" : "read"));
+		if (Debug.isEnabled('a')) {
+			Debug.print('a',
+					"Translate 0x" + Integer.toHexString(virtAddr) + ", writing " + (writing ? "write" : "read"));
+		}
 
 		// check for alignment errors
 		if (((size == 4) && ((virtAddr & 0x3) != 0)) || ((size == 2) && ((virtAddr & 0x1) != 0))) {
-			Debug.print('a', "alignment problem at " + virtAddr + ", size " + size);
-			return ExceptionType.AddressErrorException;
+			Debug.print('a', () -> "alignment problem at " + virtAddr + ", size " + size);
+			return fail(ExceptionType.AddressErrorException);
+		}
+
+		// a wild pointer, below the start of every address space
+		if (virtAddr < 0) {
+			Debug.print('a', () -> "negative virtual address " + virtAddr);
+			return fail(ExceptionType.AddressErrorException);
 		}
 
 		// we must have either a TLB or a page table, but not both!
@@ -95,19 +220,27 @@ public class MMU {
 
 		if (mTlb == null) { // => page table => vpn is index into table
 			if (vpn >= mPageTableSize) {
-				Debug.print('a', "virtual page # " + virtAddr + " too large for page table size " + mPageTableSize);
-				return ExceptionType.AddressErrorException;
-			} else if (!mPageTable[vpn].valid) {
-				Debug.print('a', "virtual page # " + virtAddr + "  too large for page table size " + mPageTableSize);
-				return ExceptionType.PageFaultException;
+				Debug.print('a',
+						() -> "virtual page # " + virtAddr + " too large for page table size " + mPageTableSize);
+				return fail(ExceptionType.AddressErrorException);
+			}
+
+			int pte = mPageTable[vpn];
+			if ((pte & PageTable.Valid) == 0) {
+				Debug.print('a',
+						() -> "virtual page # " + virtAddr + "  too large for page table size " + mPageTableSize);
+				return fail(ExceptionType.PageFaultException);
 			}
 
-			entry = mPageTable[vpn];
+			readOnly = (pte & PageTable.ReadOnly) != 0;
+			pageFrame = pte & PageTable.FrameMask;
 		}
 
 		else {
-			for (entry = null, i = 0; i < Machine.TLBSize; i++) {
-				if (mTlb[i].valid && (mTlb[i].virtualPage == vpn)) {
+			int first = (vpn % mTlbSets) * mTlbWays;
+
+			for (entry = null, i = first; i < first + mTlbWays; i++) {
+				if (mTlb[i].valid && (mTlb[i].virtualPage == vpn) && (mTlb[i].asid == mAsid)) {
 					entry = mTlb[i]; // FOUND!
 					break;
 				}
@@ -115,38 +248,98 @@ public class MMU {
 
 			if (entry == null) { // not found
 				Debug.print('a', "*** no valid TLB entry found for this virtual page!\n");
-				return ExceptionType.PageFaultException; // really, this is a
+				return fail(ExceptionType.PageFaultException); // really, this is a
 															// TLB fault,
 				// the page may be in memory,
 				// but not in the TLB
 			}
-		}
 
-		if (entry.readOnly && writing) { // trying to write to a read-only page
-			Debug.print('a', virtAddr + " mapped read-only at " + i + " in TLB!\n");
-			return ExceptionType.ReadOnlyException;
+			Statistics.numTlbHits++;
+			mTlbLastUse[i] = ++mTlbClock;
+
+			readOnly = entry.readOnly;
+			pageFrame = entry.physicalPage;
 		}
 
-		pageFrame = entry.physicalPage;
+		if (readOnly && writing) { // trying to write to a read-only page
+			if (Debug.isEnabled('a')) {
+				Debug.print('a', virtAddr + " mapped read-only at " + i + " in TLB!\n");
+			}
+			return fail(ExceptionType.ReadOnlyException);
+		}
 
 		// if the pageFrame is too big, there is something really wrong!
 		// An invalid translation was loaded into the page table or TLB.
 		if (pageFrame >= Machine.NumPhysPages) {
-			Debug.print('a', "*** frame " + pageFrame + " > " + Machine.NumPhysPages);
-			return ExceptionType.BusErrorException;
+			Debug.print('a', () -> "*** frame " + pageFrame + " > " + Machine.NumPhysPages);
+			return fail(ExceptionType.BusErrorException);
 		}
 
-		entry.use = true; // set the use, dirty bits
+		// set the use, dirty bits
+		if (entry == null) {
+			int pte = mPageTable[vpn] |= writing ? (PageTable.Use | PageTable.Dirty) : PageTable.Use;
 
-		if (writing) {
-			entry.dirty = true;
+			// Keep tracing every translation
+			if ((page == vpn) && !Debug.isEnabled('a')) {
+				boolean writable = (pte & (PageTable.ReadOnly | PageTable.Dirty)) == PageTable.Dirty;
+
+				mCacheReadPage[line] = page;
+				mCacheWritePage[line] = writable ? page : -1;
+				mCacheBase[line] = pageFrame * PageSize;
+			}
+		} else {
+			entry.use = true;
+
+			if (writing) {
+				entry.dirty = true;
+			}
 		}
 
-		physAddr[0] = pageFrame * PageSize + offset;
+		physAddr = pageFrame * PageSize + offset;
 
-		assert ((physAddr[0] >= 0) && ((physAddr[0] + size) <= Machine.MemorySize));
-		Debug.print('a', "phys addr = 0x" + Integer.toHexString(physAddr[0]));
+		assert ((physAddr >= 0) && ((physAddr + size) <= Machine.MemorySize));
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "phys addr = 0x" + Integer.toHexString(physAddr));
+		}
 
-		return ExceptionType.NoException;
+		return physAddr;
+	}
+
+	/**
+	 * Drops a page of the current page table from the translation cache.
+	 * Called whenever its entry changes, other than by translate() itself.
+	 *
+	 * @param pVirtualPage
+	 *            the virtual page.
+	 */
+	public static void invalidateCache(int pVirtualPage) {
+		int line = pVirtualPage & (CacheSize - 1);
+
+		if (mCacheReadPage[line] == pVirtualPage) {
+			mCacheReadPage[line] = -1;
+			mCacheWritePage[line] = -1;
+		}
+	}
+
+	/**
+	 * Empties the translation cache, as when another page table is installed.
+	 */
+	public static void flushCache() {
+		for (int i = 0; i < CacheSize; i++) {
+			mCacheReadPage[i] = -1;
+			mCacheWritePage[i] = -1;
+		}
+	}
+
+	/**
+	 * Records why a translation failed.
+	 * 
+	 * @param pException
+	 *            the exception to report.
+	 * @return -1, the failed physical address.
+	 */
+	private static int fail(ExceptionType pException) {
+		mException = pException;
+		return -1;
 	}
 }
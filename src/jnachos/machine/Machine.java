@@ -7,6 +7,11 @@
  */
 package jnachos.machine;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 import jnachos.kern.*;
 
 /**
@@ -14,17 +19,11 @@ import jnachos.kern.*;
  */
 public class Machine {
 
-	// Used for calculating the number of reads & writes
-	public static int read1 = 0;
-	public static int read2 = 0;
-	public static int read4 = 0;
-
-	public static int write1 = 0;
-	public static int write2 = 0;
-	public static int write4 = 0;
-
 	// If we are using the TLBS
 	public static boolean mUSE_TLB;
+
+	// If main memory should be kept off the Java heap
+	public static boolean mOffHeapMemory;
 	public static boolean mSingleStep;
 
 	// Set the page size equal to the disk sector size, for simplicity
@@ -33,6 +32,10 @@ public class Machine {
 	public static final int MemorySize = (NumPhysPages * PageSize);
 	public static final int TLBSize = 4; // if there is a TLB, make it small
 
+	// The shape of the TLB, if there is one (set with -tlb)
+	public static int mTlbSize = TLBSize;
+	public static int mTlbWays = TLBSize; // fully associative
+
 	// Textual names of the exceptions that can be generated by user program
 	// execution, for debugging.
 	public static String[] exceptionNames = { "no exception", "syscall", "page fault/no TLB entry", "page read only",
@@ -65,17 +68,46 @@ public class Machine {
 	public static final int NumTotalRegs = 40;
 
 	// The main memory RAM for the machine
-	public static byte[] mMainMemory;
+	public static PhysicalMemory mMemory;
 
 	// The registers in the CPU
 	public static int mRegisters[];
 
+	/**
+	 * The exception caused by the last loadWord/loadHalf/loadByte or
+	 * storeWord/storeHalf/storeByte, NoException if it worked.
+	 */
+	public static ExceptionType mMemException = ExceptionType.NoException;
+
 	/**
 	 * The hardware timer. This class can throw interrupts at scheduable
 	 * intervals.
 	 */
 	private static Timer mTimer;
 
+	/**
+	 * Instructions run in the current burst whose ticks have not been charged
+	 * yet (see runBurst).
+	 */
+	private static int mBurstDone = 0;
+
+	/** Counts the exceptions raised, so a burst can tell when it trapped. */
+	private static int mTraps = 0;
+
+	/** The target of the last backward branch in the current burst. */
+	private static int mSpinHead = -1;
+
+	/**
+	 * The registers and PMU counters when the program was last at mSpinHead,
+	 * if mSpinValid.
+	 */
+	private static int[] mSpinRegisters = new int[NumTotalRegs];
+	private static long[] mSpinCounters = new long[PMU.NumCounters];
+	private static boolean mSpinValid = false;
+
+	/** The number of instructions skipped by fastForward. */
+	public static long mSpinSkipped = 0;
+
 	/**
 	 * Initialize the simulation of user program execution.
 	 *
@@ -84,7 +116,10 @@ public class Machine {
 	 *            executed.
 	 */
 	public Machine(boolean debug, VoidFunctionPtr timerHandler, int seed, boolean randomYield) {
-		setTimer(new Timer(timerHandler, seed, randomYield));
+		// Each CPU of a multiprocessor has a timer of its own (see Cpu)
+		if (Cpu.mCount == 1) {
+			setTimer(new Timer(timerHandler, seed, randomYield));
+		}
 
 		// Create the CPU registers
 		mRegisters = new int[NumTotalRegs];
@@ -95,22 +130,19 @@ public class Machine {
 		}
 
 		// Create the main memory
-		mMainMemory = new byte[MemorySize];
-		for (int i = 0; i < MemorySize; i++) {
-			mMainMemory[i] = 0;
+		if (mOffHeapMemory) {
+			mMemory = new DirectMemory(MemorySize);
+		} else {
+			mMemory = new HeapMemory(MemorySize);
 		}
 
 		// If we are using the TLB
 		if (mUSE_TLB) {
-			// Create a new TLB
-			MMU.mTlb = new TranslationEntry[TLBSize];
-			for (int i = 0; i < TLBSize; i++) {
-				// Set the valid bits to false
-				MMU.mTlb[i].valid = false;
-
-				// Initialze the page table
-				MMU.mPageTable = null;
-			}
+			// Create a new TLB, with every entry invalid
+			MMU.createTlb(mTlbSize, mTlbWays);
+
+			// Initialze the page table
+			MMU.mPageTable = null;
 		} else {
 			// Set both to null
 			MMU.mTlb = null;
@@ -118,6 +150,10 @@ public class Machine {
 		}
 
 		mSingleStep = debug;
+
+		if (Cpu.mCount > 1) {
+			Cpu.init(timerHandler);
+		}
 	}
 
 	/**
@@ -149,8 +185,30 @@ public class Machine {
 		// Set to user mode while executing user instructions
 		Interrupt.setStatus(Interrupt.UserMode);
 
+		// On a multiprocessor, the CPU runs user code outside the kernel
+		if (Cpu.mCount > 1) {
+			Cpu.run(instr);
+		}
+
+		// The block engine skips the per-instruction debug output, so only
+		// use it when nobody is looking
+		if (BlockEngine.mEnabled && !mSingleStep && !Debug.isEnabled('m') && !Debug.isEnabled('a')
+				&& !Debug.isEnabled('i') && !Profiler.mEnabled) {
+			BlockEngine.run(instr);
+		}
+
+		// Bursts skip the per-tick debug output, and fused pairs skip the
+		// per-instruction output
+		boolean burst = !Debug.isEnabled('i');
+		boolean fuse = burst && !Debug.isEnabled('m') && !Debug.isEnabled('a');
+
 		// Continuously execute user code
 		while (true) {
+			if (burst && !mSingleStep && Interrupt.getLevel()) {
+				runBurst(instr, fuse);
+				continue;
+			}
+
 			// Execute one instruction
 			/// Machine.dumpState();
 			MipsSim.oneInstruction(instr);
@@ -158,6 +216,10 @@ public class Machine {
 			// Update the time
 			Interrupt.oneTick();
 
+			if (Profiler.mEnabled) {
+				Profiler.sample();
+			}
+
 			if (mSingleStep)// && (runUntilTime <= Statistics.totalTicks))
 			{
 				debugger();
@@ -165,6 +227,121 @@ public class Machine {
 		}
 	}
 
+	/**
+	 * Skips whole trips around a loop that can only repeat itself until an
+	 * interrupt comes. Called each time a burst reaches the target of its
+	 * last backward branch.
+	 *
+	 * If since the last time here no store or trap happened and every
+	 * register (PC and pending load included) is the same again, the next trip
+	 * reads the same memory and so does exactly the same thing; so do all
+	 * those after it. Rather than run them, charge their instructions and PMU
+	 * events and leave the machine as it is, which is the state it would be in
+	 * after them anyway.
+	 *
+	 * @param pRemaining
+	 *            the number of instructions left in the burst.
+	 * @return the number of instructions skipped.
+	 */
+	private static int fastForward(int pRemaining) {
+		long[] counters = PMU.mCounters;
+		long length = counters[PMU.Instructions] - mSpinCounters[PMU.Instructions];
+
+		// (A trap would have ended the burst)
+		if (mSpinValid && (length > 0) && (counters[PMU.Stores] == mSpinCounters[PMU.Stores])
+				&& Arrays.equals(mRegisters, mSpinRegisters)) {
+			int trips = (int) (pRemaining / length);
+			int skipped = (int) (trips * length);
+
+			for (int i = 0; i < PMU.NumCounters; i++) {
+				counters[i] += trips * (counters[i] - mSpinCounters[i]);
+			}
+			mSpinSkipped += skipped;
+
+			// Any earlier part of the burst has been accounted for
+			System.arraycopy(counters, 0, mSpinCounters, 0, PMU.NumCounters);
+			return skipped;
+		}
+
+		System.arraycopy(mRegisters, 0, mSpinRegisters, 0, NumTotalRegs);
+		System.arraycopy(counters, 0, mSpinCounters, 0, PMU.NumCounters);
+		mSpinValid = true;
+		return 0;
+	}
+
+	/**
+	 * Runs user instructions up to the next pending interrupt without calling
+	 * Interrupt.oneTick() after each one.
+	 *
+	 * oneTick() only advances the time, fires the interrupts that are due and
+	 * re-enables interrupts (which are already on here). So as long as no
+	 * interrupt comes due, the ticks can be charged in one go at the end. If
+	 * an instruction traps into the kernel, raiseException() charges the
+	 * ticks run so far first, so the kernel sees the same time as before, and
+	 * the trapping instruction gets a normal oneTick().
+	 *
+	 * @param pInstr
+	 *            storage for the decoded instruction.
+	 * @param pFuse
+	 *            true if common instruction pairs may be run as one.
+	 */
+	private static void runBurst(Instruction pInstr, boolean pFuse) {
+		// The last instruction before an interrupt is due needs a real tick
+		int length = Interrupt.tickLength();
+		int count = (Interrupt.ticksUntilDue() - 1) / length;
+		int traps = mTraps;
+
+		// Stop at the instruction on which the next profiler sample is due
+		if (Profiler.mEnabled) {
+			int untilSample = (Profiler.ticksUntilSample() + length - 1) / length;
+			count = Math.min(count, Math.max(untilSample, 1) - 1);
+		}
+
+		mBurstDone = 0;
+		mSpinHead = -1;
+		for (int i = 0; i < count; i++) {
+			// A fused pair never traps, but both halves must fit in the burst
+			if (pFuse && (i + 1 < count) && MipsSim.oneFusedPair()) {
+				mBurstDone += 2;
+				i++;
+			} else {
+				MipsSim.oneInstruction(pInstr);
+
+				if (mTraps != traps) {
+					// The earlier instructions were charged when it trapped
+					Interrupt.oneTick();
+					if (Profiler.mEnabled) {
+						Profiler.sample();
+					}
+					return;
+				}
+
+				mBurstDone++;
+			}
+
+			if (mRegisters[PCReg] == mSpinHead) {
+				int skipped = fastForward(count - i - 1);
+				mBurstDone += skipped;
+				i += skipped;
+			} else if ((mRegisters[NextPCReg] < mRegisters[PCReg]) && (mRegisters[NextPCReg] != mSpinHead)) {
+				// A new backward branch: watch for its target
+				mSpinHead = mRegisters[NextPCReg];
+				mSpinValid = false;
+			}
+		}
+
+		Interrupt.advanceTicks(mBurstDone);
+		mBurstDone = 0;
+
+		// Now run the instruction on which the interrupt (or sample) comes due
+		MipsSim.oneInstruction(pInstr);
+		Interrupt.oneTick();
+
+		if (Profiler.mEnabled) {
+			Profiler.sample();
+		}
+	}
+
 	/**
 	 * Reads the specified register
 	 * 
@@ -174,7 +351,9 @@ public class Machine {
 	 */
 	public static int readRegister(int num) {
 		assert ((num >= 0) && (num < NumTotalRegs));
-		Debug.print('m', "ReadRegister " + num + ", value" + Machine.mRegisters[num]);
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "ReadRegister " + num + ", value" + Machine.mRegisters[num]);
+		}
 		return Machine.mRegisters[num];
 	}
 
@@ -188,7 +367,9 @@ public class Machine {
 	 */
 	public static void writeRegister(int num, int value) {
 		assert ((num >= 0) && (num < NumTotalRegs));
-		Debug.print('m', "WriteRegister " + num + ", value" + value);
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "WriteRegister " + num + ", value" + value);
+		}
 		Machine.mRegisters[num] = value;
 	}
 
@@ -211,53 +392,35 @@ public class Machine {
 	 *
 	 * "addr" -- the virtual address to read from "size" -- the number of bytes
 	 * to read (1, 2, or 4) "value" -- the place to write the result
+	 *
+	 * NOTE: this boxes every value it reads; the simulator itself uses
+	 * loadWord, loadHalf and loadByte.
 	 */
 	public static Integer readMem(int addr, int size) {
-		Integer data = null;
-		ExceptionType exception;
-		int[] physicalAddress = new int[1];
-
-		Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size " + size);
-
-		exception = MMU.translate(addr, physicalAddress, size, false);
-
-		if (exception != ExceptionType.NoException) {
-			raiseException(ExceptionType.AddressErrorException, addr);
-			return null;
-		}
+		int data = 0;
 
 		switch (size) {
 		case 1:
-			data = new Integer(mMainMemory[physicalAddress[0]]);
-			read1++;
-			/// new Integer(mMainMemory[addr]); //No descernable change
+			data = loadByte(addr);
 			break;
 
 		case 2:
-			data = new Integer(MipsSim.shortToHost(
-					(mMainMemory[physicalAddress[0]] << 8) + (mMainMemory[physicalAddress[0] + 1] & 0xFF)));
-			read2++;
+			data = loadHalf(addr);
 			break;
 
 		case 4:
-			data = new Integer(MipsSim.wordToHost(
-					(mMainMemory[physicalAddress[0]] << 24) + ((mMainMemory[physicalAddress[0] + 1] & 0xFF) << 16)
-							+ ((mMainMemory[physicalAddress[0] + 2] & 0xFF) << 8)
-							+ (mMainMemory[physicalAddress[0] + 3] & 0xFF)));
-			read4++;
-
-			Debug.print('a', mMainMemory[physicalAddress[0]] + "," + mMainMemory[physicalAddress[0] + 1] + ","
-					+ mMainMemory[physicalAddress[0] + 2] + "," + mMainMemory[physicalAddress[0] + 3]);
-
+			data = loadWord(addr);
 			break;
 
 		default:
 			assert (false);
 		}
 
-		Debug.print('a', "\tvalue read = " + Integer.toHexString(data));
+		if (mMemException != ExceptionType.NoException) {
+			return null;
+		}
 
-		return data;
+		return Integer.valueOf(data);
 	}
 
 	/**
@@ -276,55 +439,237 @@ public class Machine {
 	 */
 
 	public static boolean writeMem(int addr, int size, int value) {
-		ExceptionType exception;
-		int[] physicalAddress = new int[1];
+		switch (size) {
+		case 1:
+			return storeByte(addr, value);
+
+		case 2:
+			return storeHalf(addr, value);
+
+		case 4:
+			return storeWord(addr, value);
+
+		default:
+			assert (false);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads a word of virtual memory. If the translation fails, the exception
+	 * is raised, mMemException is set to it and 0 is returned; otherwise
+	 * mMemException is NoException.
+	 *
+	 * @param addr
+	 *            the (word aligned) virtual address to read from.
+	 * @return the word read.
+	 */
+	public static int loadWord(int addr) {
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size 4");
+		}
 
-		Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size " + size + ", value " + value);
+		int physAddr = MMU.translate(addr, 4, false);
+		if (physAddr < 0) {
+			return memoryFault(addr);
+		}
+
+		mMemException = ExceptionType.NoException;
+		PMU.mCounters[PMU.Loads]++;
+
+		return wordAt(physAddr);
+	}
 
-		exception = MMU.translate(addr, physicalAddress, size, true);
+	/**
+	 * Reads a word of physical memory.
+	 *
+	 * @param physAddr
+	 *            the (word aligned) physical address to read from.
+	 * @return the word read.
+	 */
+	public static int wordAt(int physAddr) {
+		return mMemory.readWord(physAddr);
+	}
+
+	/**
+	 * Writes a word of physical memory, dropping any decoded instructions in
+	 * its page.
+	 *
+	 * @param physAddr
+	 *            the (word aligned) physical address to write to.
+	 * @param value
+	 *            the word to write.
+	 */
+	public static void putWordAt(int physAddr, int value) {
+		// Any decoded instructions in this page are now stale
+		DecodeCache.invalidate(physAddr / PageSize);
 
-		if (exception != ExceptionType.NoException) {
-			Machine.raiseException(ExceptionType.AddressErrorException, addr);
+		mMemory.writeWord(physAddr, value);
+	}
+
+	/**
+	 * Reads a half word of virtual memory. Errors are reported as in
+	 * loadWord.
+	 *
+	 * @param addr
+	 *            the (half word aligned) virtual address to read from.
+	 * @return the half word read, zero extended.
+	 */
+	public static int loadHalf(int addr) {
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size 2");
+		}
+
+		int physAddr = MMU.translate(addr, 2, false);
+		if (physAddr < 0) {
+			return memoryFault(addr);
+		}
+
+		mMemException = ExceptionType.NoException;
+		PMU.mCounters[PMU.Loads]++;
+
+		return mMemory.readHalf(physAddr);
+	}
+
+	/**
+	 * Reads a byte of virtual memory. Errors are reported as in loadWord.
+	 *
+	 * @param addr
+	 *            the virtual address to read from.
+	 * @return the byte read, sign extended.
+	 */
+	public static int loadByte(int addr) {
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size 1");
+		}
+
+		int physAddr = MMU.translate(addr, 1, false);
+		if (physAddr < 0) {
+			return memoryFault(addr);
+		}
+
+		mMemException = ExceptionType.NoException;
+		PMU.mCounters[PMU.Loads]++;
+
+		return mMemory.readByte(physAddr);
+	}
+
+	/**
+	 * Writes a word of virtual memory. If the translation fails, the
+	 * exception is raised, mMemException is set to it and false is returned.
+	 *
+	 * @param addr
+	 *            the (word aligned) virtual address to write to.
+	 * @param value
+	 *            the word to write.
+	 * @return true if the write happened.
+	 */
+	public static boolean storeWord(int addr, int value) {
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size 4, value " + value);
+		}
+
+		int physAddr = MMU.translate(addr, 4, true);
+		if (physAddr < 0) {
+			memoryFault(addr);
 			return false;
 		}
 
-		switch (size) {
-		case 1:
-			// int res = MipsSim.shortToMachine(value);
-			mMainMemory[physicalAddress[0]] = (byte) (value);
-			write1++;
-			break;
+		mMemException = ExceptionType.NoException;
+		PMU.mCounters[PMU.Stores]++;
 
-		case 2:
-			int res1 = MipsSim.shortToMachine(value);// & 0xffff );
+		putWordAt(physAddr, value);
 
-			mMainMemory[physicalAddress[0]] = (byte) (res1 >>> 8);
-			mMainMemory[physicalAddress[0] + 1] = (byte) (res1);
-			write2++;
-			break;
+		if (Debug.isEnabled('d')) {
+			Debug.print('d', "Wrote: " + value + "\t" + mMemory.readByte(physAddr) + ","
+					+ mMemory.readByte(physAddr + 1) + "," + mMemory.readByte(physAddr + 2) + ","
+					+ mMemory.readByte(physAddr + 3));
+		}
 
-		case 4:
+		return true;
+	}
 
-			int res2 = MipsSim.wordToMachine(value);
-			mMainMemory[physicalAddress[0]] = (byte) (res2 >>> 24);
-			mMainMemory[physicalAddress[0] + 1] = (byte) (res2 >>> 16);
-			mMainMemory[physicalAddress[0] + 2] = (byte) (res2 >>> 8);
-			mMainMemory[physicalAddress[0] + 3] = (byte) (res2);
-
-			Debug.print('d',
-					"Wrote: " + value + "\t" + mMainMemory[physicalAddress[0]] + ","
-							+ mMainMemory[physicalAddress[0] + 1] + "," + mMainMemory[physicalAddress[0] + 2] + ","
-							+ mMainMemory[physicalAddress[0] + 3]);
-			write4++;
-			break;
+	/**
+	 * Writes a half word of virtual memory. Errors are reported as in
+	 * storeWord.
+	 *
+	 * @param addr
+	 *            the (half word aligned) virtual address to write to.
+	 * @param value
+	 *            the half word to write (in the low 16 bits).
+	 * @return true if the write happened.
+	 */
+	public static boolean storeHalf(int addr, int value) {
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size 2, value " + value);
+		}
 
-		default:
-			assert (false);
+		int physAddr = MMU.translate(addr, 2, true);
+		if (physAddr < 0) {
+			memoryFault(addr);
+			return false;
 		}
 
+		mMemException = ExceptionType.NoException;
+		PMU.mCounters[PMU.Stores]++;
+
+		// Any decoded instructions in this page are now stale
+		DecodeCache.invalidate(physAddr / PageSize);
+
+		mMemory.writeHalf(physAddr, value);
+
+		return true;
+	}
+
+	/**
+	 * Writes a byte of virtual memory. Errors are reported as in storeWord.
+	 *
+	 * @param addr
+	 *            the virtual address to write to.
+	 * @param value
+	 *            the byte to write (in the low 8 bits).
+	 * @return true if the write happened.
+	 */
+	public static boolean storeByte(int addr, int value) {
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size 1, value " + value);
+		}
+
+		int physAddr = MMU.translate(addr, 1, true);
+		if (physAddr < 0) {
+			memoryFault(addr);
+			return false;
+		}
+
+		mMemException = ExceptionType.NoException;
+		PMU.mCounters[PMU.Stores]++;
+
+		// Any decoded instructions in this page are now stale
+		DecodeCache.invalidate(physAddr / PageSize);
+
+		mMemory.writeByte(physAddr, value);
+
 		return true;
 	}
 
+	/**
+	 * Raises the exception for a failed memory access.
+	 *
+	 * @param addr
+	 *            the virtual address that could not be accessed.
+	 * @return 0, the value of a failed load.
+	 */
+	private static int memoryFault(int addr) {
+		ExceptionType exception = MMU.mException;
+		raiseException(exception, addr);
+
+		// The handler may have slept on the disk while other processes used
+		// memory, so set this afterwards
+		mMemException = exception;
+		return 0;
+	}
+
 	// Translate an address, and check for
 	// alignment. Set the use and dirty bits in
 	// the translation entry appropriately,
@@ -336,19 +681,83 @@ public class Machine {
 	 *
 	 */
 	public static void raiseException(ExceptionType which, int badVAddr) {
-		Debug.print('m', "Exception: " + which);
+		Debug.print('m', () -> "Exception: " + which);
+
+		// The kernel itself faults when it reads a paged out user page
+		int status = Interrupt.getStatus();
+
+		// Charge any instructions run in a burst before entering the kernel
+		mTraps++;
+		countException(which);
+		if (mBurstDone > 0) {
+			Interrupt.advanceTicks(mBurstDone);
+			mBurstDone = 0;
+		}
+
 		Machine.mRegisters[BadVAddrReg] = badVAddr;
 		delayedLoad(0, 0); // finish anything in progress
 		Interrupt.setStatus(Interrupt.SystemMode);
 		ExceptionHandler.handleException(which); // interrupts are enabled at
 													// this point
-		Interrupt.setStatus(Interrupt.UserMode);
+		Interrupt.setStatus(status);
 
 	}
 
 	// Trap to the Nachos kernel, because of a
 	// system call or other exception.
 
+	/**
+	 * Counts an exception in the PMU.
+	 *
+	 * @param which
+	 *            the exception being raised.
+	 */
+	private static void countException(ExceptionType which) {
+		if (which == ExceptionType.SyscallException) {
+			PMU.mCounters[PMU.Syscalls]++;
+		} else if (which == ExceptionType.PageFaultException) {
+			// With a TLB, a missing translation is a TLB miss
+			PMU.mCounters[(MMU.mTlb != null) ? PMU.TLBMisses : PMU.PageFaults]++;
+		}
+	}
+
+	/**
+	 * Writes the registers and main memory to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void save(DataOutputStream pOut) throws IOException {
+		for (int value : mRegisters) {
+			pOut.writeInt(value);
+		}
+
+		byte[] memory = new byte[MemorySize];
+		mMemory.copyOut(0, memory, 0, MemorySize);
+		pOut.write(memory);
+	}
+
+	/**
+	 * Reads the registers and main memory back from a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public static void restore(DataInputStream pIn) throws IOException {
+		for (int i = 0; i < NumTotalRegs; i++) {
+			mRegisters[i] = pIn.readInt();
+		}
+
+		byte[] memory = new byte[MemorySize];
+		pIn.readFully(memory);
+		mMemory.copyIn(0, memory, 0, MemorySize);
+
+		// Every frame may now hold something else
+		for (int page = 0; page < NumPhysPages; page++) {
+			DecodeCache.invalidate(page);
+		}
+	}
+
 	/**
 	 *
 	 *
@@ -268,6 +268,34 @@ public class MipsSim {
 			new OpString(new String("Unimplemented"), RegType.NONE, RegType.NONE, RegType.NONE),
 			new OpString(new String("Reserved"), RegType.NONE, RegType.NONE, RegType.NONE) };
 
+	/** Holds the result of a multiply. */
+	private static int[] mMultResult = new int[2];
+
+	/*
+	 * Kinds of instruction pairs that are run as one by oneFusedPair():
+	 *
+	 * FUSE_CONST - lui then ori/addiu of the same register (building a
+	 * constant). FUSE_LOAD_ALU - lw then a simple ALU op in its load delay
+	 * slot. FUSE_CMP_BRANCH - slt/slti/sltu/sltiu then beq/bne on the result.
+	 * FUSE_PUSH - addiu sp,sp,n then sw (a function prologue).
+	 */
+	public static final int FUSE_NONE = 0;
+	public static final int FUSE_CONST = 1;
+	public static final int FUSE_LOAD_ALU = 2;
+	public static final int FUSE_CMP_BRANCH = 3;
+	public static final int FUSE_PUSH = 4;
+	public static final int NumFusions = 5;
+
+	/** Printed names of the kinds of fused pairs. */
+	public static final String[] fusionNames = { "none", "lui+ori", "lw+alu", "slt+branch", "addiu sp+sw" };
+
+	/** How many times each kind of fused pair has been run. */
+	public static int[] mFusedCount = new int[NumFusions];
+
+	/** The two halves of the fused pair being run. */
+	private static Instruction mFirst = new Instruction();
+	private static Instruction mSecond = new Instruction();
+
 	/**
 	 * Retrieve the register # referred to in an instruction.
 	 */
@@ -312,168 +340,45 @@ public class MipsSim {
 		int nextLoadValue = 0; // record delayed load operation, to apply in the
 								// future
 
-		// Fetch instruction
-		Integer raw = (Integer) Machine.readMem(Machine.mRegisters[Machine.PCReg], 4);
-		if (raw == null) {
+		// Fetch instruction, using the decoded copy if the page has one
+		int pc = Machine.mRegisters[Machine.PCReg];
+		int physPC = MMU.translate(pc, 4, false);
+		if (physPC < 0) {
+			Machine.raiseException(MMU.mException, pc);
 			return; // exception occurred
 		}
 
-		instr.value = raw.intValue();
-		instr.decode();
+		DecodeCache.fetch(physPC, instr);
 
 		if (Debug.isEnabled('m')) {
 			OpString str = opStrings[(char) instr.opCode];
 			assert (instr.opCode <= MaxOpcode);
-			Debug.print('a', "At PC = " + Integer.toHexString(Machine.mRegisters[Machine.PCReg]));
-			Debug.print('p', "VAL: " + str.string + ", r" + typeToReg(str.mA, instr) + ", r" + typeToReg(str.mB, instr)
-					+ "," + typeToReg(str.mC, instr));
+			Debug.print('a', () -> "At PC = " + Integer.toHexString(Machine.mRegisters[Machine.PCReg]));
+			Debug.print('p', () -> "VAL: " + str.string + ", r" + typeToReg(str.mA, instr) + ", r"
+					+ typeToReg(str.mB, instr) + "," + typeToReg(str.mC, instr));
 			Debug.print('a', "\n");
 		}
 
 		// Compute next pc, but don't install in case there's an error or
 		// branch.
 		int pcAfter = Machine.mRegisters[Machine.NextPCReg] + 4;
-		int sum, diff, tmp, value;
-		int rs, rt, imm;
-		Integer result;
+		int tmp, value;
 
-		// Execute the instruction (cf. Kane's book)
+		// Execute the instruction (cf. Kane's book). Everything but memory
+		// accesses and traps is done by execute(), shared with the block
+		// engine
 		switch (instr.opCode) {
 
-		case OP_ADD:
-			sum = Machine.mRegisters[instr.rs] + Machine.mRegisters[instr.rt];
-			if (!(((Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt]) & SIGN_BIT) != 0)
-					&& (((Machine.mRegisters[instr.rs] ^ sum) & SIGN_BIT) != 0)) {
-				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
-			}
-			Machine.mRegisters[instr.rd] = sum;
-			break;
-
-		case OP_ADDI:
-			sum = Machine.mRegisters[instr.rs] + instr.extra;
-			if (!(((Machine.mRegisters[instr.rs] ^ instr.extra) & SIGN_BIT) != 0)
-					&& (((instr.extra ^ sum) & SIGN_BIT) != 0)) {
-				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
-			}
-
-			Machine.mRegisters[instr.rt] = sum;
-			break;
-
-		case OP_ADDIU:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] + instr.extra;
-			break;
-
-		case OP_ADDU:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] + Machine.mRegisters[instr.rt];
-			break;
-
-		case OP_AND:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] & Machine.mRegisters[instr.rt];
-			break;
-
-		case OP_ANDI:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] & (instr.extra & 0xffff);
-			break;
-
-		case OP_BEQ:
-			if (Machine.mRegisters[instr.rs] == Machine.mRegisters[instr.rt]) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
-			}
-			break;
-
-		case OP_BGEZAL:
-			Machine.mRegisters[R31] = Machine.mRegisters[Machine.NextPCReg] + 4;
-
-		case OP_BGEZ:
-			if (!((Machine.mRegisters[instr.rs] & SIGN_BIT) != 0)) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
-			}
-			break;
-
-		case OP_BGTZ:
-			if (Machine.mRegisters[instr.rs] > 0) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
-			}
-			break;
-
-		case OP_BLEZ:
-			if (Machine.mRegisters[instr.rs] <= 0) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
-			}
-			break;
-
-		case OP_BLTZAL:
-			Machine.mRegisters[R31] = Machine.mRegisters[Machine.NextPCReg] + 4;
-
-		case OP_BLTZ:
-			if ((Machine.mRegisters[instr.rs] & SIGN_BIT) != 0) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
-			}
-			break;
-
-		case OP_BNE:
-			if (Machine.mRegisters[instr.rs] != Machine.mRegisters[instr.rt]) {
-				pcAfter = Machine.mRegisters[Machine.NextPCReg] + indexToAddr(instr.extra);
-			}
-			break;
-
-		case OP_DIV:
-			if (Machine.mRegisters[instr.rt] == 0) {
-				Machine.mRegisters[Machine.LoReg] = 0;
-				Machine.mRegisters[Machine.HiReg] = 0;
-			} else {
-				Machine.mRegisters[Machine.LoReg] = Machine.mRegisters[instr.rs] / Machine.mRegisters[instr.rt];
-				Machine.mRegisters[Machine.HiReg] = Machine.mRegisters[instr.rs] % Machine.mRegisters[instr.rt];
-			}
-			break;
-
-		case OP_DIVU:
-			rs = Machine.mRegisters[instr.rs];
-			rt = Machine.mRegisters[instr.rt];
-			if (rt == 0) {
-				Machine.mRegisters[Machine.LoReg] = 0;
-				Machine.mRegisters[Machine.HiReg] = 0;
-			} else {
-				tmp = rs / rt;
-				Machine.mRegisters[Machine.LoReg] = (int) tmp;
-				tmp = rs % rt;
-				Machine.mRegisters[Machine.HiReg] = (int) tmp;
-			}
-			break;
-
-		case OP_JAL:
-			Machine.mRegisters[R31] = Machine.mRegisters[Machine.NextPCReg] + 4;
-
-		case OP_J:
-			pcAfter = (pcAfter & 0xf0000000) | indexToAddr(instr.extra);
-			break;
-
-		case OP_JALR:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[Machine.NextPCReg] + 4;
-
-		case OP_JR:
-			pcAfter = Machine.mRegisters[instr.rs];
-			break;
-
 		case OP_LB:
 		case OP_LBU:
 			tmp = Machine.mRegisters[instr.rs] + instr.extra;
-			result = Machine.readMem(tmp, 1);
-			if (result == null) {
+			value = Machine.loadByte(tmp);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
 
-			value = result.intValue();
-
-			if (((value & 0x80) != 0) && (instr.opCode == OP_LB)) {
-				value |= 0xffffff00;
-			} else {
-				value &= 0xff;
-			}
 			nextLoadReg = instr.rt;
-			nextLoadValue = value;
+			nextLoadValue = extendLoad(instr.opCode, value);
 			break;
 
 		case OP_LH:
@@ -483,24 +388,17 @@ public class MipsSim {
 				Machine.raiseException(ExceptionType.AddressErrorException, tmp);
 				return;
 			}
-			result = Machine.readMem(tmp, 2);
-			if (result == null) {
+			value = Machine.loadHalf(tmp);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
-			value = result.intValue();
-
-			if (((value & 0x8000) != 0) && (instr.opCode == OP_LH)) {
-				value |= 0xffff0000;
-			} else {
-				value &= 0xffff;
-			}
 
 			nextLoadReg = instr.rt;
-			nextLoadValue = value;
+			nextLoadValue = extendLoad(instr.opCode, value);
 			break;
 
 		case OP_LUI:
-			Debug.print('m', "Executing: LUI r" + instr.rt + ", " + instr.extra);
+			Debug.print('m', () -> "Executing: LUI r" + instr.rt + ", " + instr.extra);
 			Machine.mRegisters[instr.rt] = instr.extra << 16;
 			break;
 
@@ -511,11 +409,10 @@ public class MipsSim {
 				return;
 			}
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
+			value = Machine.loadWord(tmp);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
-			value = result.intValue();
 
 			nextLoadReg = instr.rt;
 			nextLoadValue = value;
@@ -523,16 +420,15 @@ public class MipsSim {
 
 		case OP_LWL:
 			tmp = Machine.mRegisters[instr.rs] + instr.extra;
-			// readMem assumes all 4 byte requests are aligned on an even
+			// loadWord assumes all 4 byte requests are aligned on an even
 			// word boundary. Also, the little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
+			value = Machine.loadWord(tmp);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
-			value = result.intValue();
 
 			if (Machine.mRegisters[Machine.LoadReg] == instr.rt) {
 				nextLoadValue = Machine.mRegisters[Machine.LoadValueReg];
@@ -561,16 +457,15 @@ public class MipsSim {
 		case OP_LWR:
 			tmp = Machine.mRegisters[instr.rs] + instr.extra;
 
-			// readMem assumes all 4 byte requests are aligned on an even
+			// loadWord assumes all 4 byte requests are aligned on an even
 			// word boundary. Also, the little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
+			value = Machine.loadWord(tmp);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
-			value = result.intValue();
 			if (Machine.mRegisters[Machine.LoadReg] == instr.rt) {
 				nextLoadValue = Machine.mRegisters[Machine.LoadValueReg];
 			} else {
@@ -595,136 +490,16 @@ public class MipsSim {
 			nextLoadReg = instr.rt;
 			break;
 
-		case OP_MFHI:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[Machine.HiReg];
-			break;
-
-		case OP_MFLO:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[Machine.LoReg];
-			break;
-
-		case OP_MTHI:
-			Machine.mRegisters[Machine.HiReg] = Machine.mRegisters[instr.rs];
-			break;
-
-		case OP_MTLO:
-			Machine.mRegisters[Machine.LoReg] = Machine.mRegisters[instr.rs];
-			break;
-
-		case OP_MULT:
-			int[] result1 = new int[2];
-			Mult(Machine.mRegisters[instr.rs], Machine.mRegisters[instr.rt], true, result1);
-			Machine.mRegisters[Machine.HiReg] = result1[1];
-			Machine.mRegisters[Machine.LoReg] = result1[0];
-			break;
-
-		case OP_MULTU:
-			int[] result2 = new int[2];
-			Mult(Machine.mRegisters[instr.rs], Machine.mRegisters[instr.rt], false, result2);
-			Machine.mRegisters[Machine.HiReg] = result2[1];
-			Machine.mRegisters[Machine.LoReg] = result2[0];
-			break;
-
-		case OP_NOR:
-			Machine.mRegisters[instr.rd] = ~(Machine.mRegisters[instr.rs] | Machine.mRegisters[instr.rt]);
-			break;
-
-		case OP_OR:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] | Machine.mRegisters[instr.rs];
-			break;
-
-		case OP_ORI:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] | (instr.extra & 0xffff);
-			break;
-
 		case OP_SB:
-			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 1, Machine.mRegisters[instr.rt])) {
+			if (!Machine.storeByte((Machine.mRegisters[instr.rs] + instr.extra), Machine.mRegisters[instr.rt])) {
 				return;
 			}
 			break;
 
 		case OP_SH:
-			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 2, Machine.mRegisters[instr.rt])) {
-				return;
-			}
-			break;
-
-		case OP_SLL:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] << instr.extra;
-			break;
-
-		case OP_SLLV:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] << (Machine.mRegisters[instr.rs] & 0x1f);
-			break;
-
-		case OP_SLT:
-			if (Machine.mRegisters[instr.rs] < Machine.mRegisters[instr.rt]) {
-				Machine.mRegisters[instr.rd] = 1;
-			} else {
-				Machine.mRegisters[instr.rd] = 0;
-			}
-			break;
-
-		case OP_SLTI:
-			if (Machine.mRegisters[instr.rs] < instr.extra) {
-				Machine.mRegisters[instr.rt] = 1;
-			} else {
-				Machine.mRegisters[instr.rt] = 0;
-			}
-			break;
-
-		case OP_SLTIU:
-			rs = Machine.mRegisters[instr.rs];
-			imm = instr.extra;
-			if (rs < imm) {
-				Machine.mRegisters[instr.rt] = 1;
-			} else {
-				Machine.mRegisters[instr.rt] = 0;
-			}
-			break;
-
-		case OP_SLTU:
-			rs = Machine.mRegisters[instr.rs];
-			rt = Machine.mRegisters[instr.rt];
-			if (rs < rt) {
-				Machine.mRegisters[instr.rd] = 1;
-			} else {
-				Machine.mRegisters[instr.rd] = 0;
-			}
-			break;
-
-		case OP_SRA:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] >> instr.extra;
-			break;
-
-		case OP_SRAV:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rt] >> (Machine.mRegisters[instr.rs] & 0x1f);
-			break;
-
-		case OP_SRL:
-			tmp = Machine.mRegisters[instr.rt];
-			tmp >>= instr.extra;
-			Machine.mRegisters[instr.rd] = tmp;
-			break;
-
-		case OP_SRLV:
-			tmp = Machine.mRegisters[instr.rt];
-			tmp >>= (Machine.mRegisters[instr.rs] & 0x1f);
-			Machine.mRegisters[instr.rd] = tmp;
-			break;
-
-		case OP_SUB:
-			diff = Machine.mRegisters[instr.rs] - Machine.mRegisters[instr.rt];
-			if ((((Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt]) & SIGN_BIT) != 0)
-					&& (((Machine.mRegisters[instr.rs] ^ diff) & SIGN_BIT) != 0)) {
-				Machine.raiseException(ExceptionType.OverflowException, 0);
+			if (!Machine.storeHalf((Machine.mRegisters[instr.rs] + instr.extra), Machine.mRegisters[instr.rt])) {
 				return;
 			}
-			Machine.mRegisters[instr.rd] = diff;
-			break;
-
-		case OP_SUBU:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] - Machine.mRegisters[instr.rt];
 			break;
 
 		case OP_SW:
@@ -734,7 +509,7 @@ public class MipsSim {
 			// instr.extra + "\t" + (Machine.mRegisters[instr.rs] +
 			// instr.extra));
 			// System.out.println(Machine.mRegisters[instr.rt]);
-			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 4, Machine.mRegisters[instr.rt])) {
+			if (!Machine.storeWord((Machine.mRegisters[instr.rs] + instr.extra), Machine.mRegisters[instr.rt])) {
 				return;
 			}
 			break;
@@ -745,11 +520,10 @@ public class MipsSim {
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem((tmp & ~0x3), 4);
-			if (result == null) {
+			value = Machine.loadWord(tmp & ~0x3);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
-			value = result.intValue();
 			switch (tmp & 0x3) {
 			case 0:
 				value = Machine.mRegisters[instr.rt];
@@ -768,7 +542,7 @@ public class MipsSim {
 				break;
 			}
 
-			if (!Machine.writeMem((tmp & ~0x3), 4, value)) {
+			if (!Machine.storeWord((tmp & ~0x3), value)) {
 				return;
 			}
 			break;
@@ -779,11 +553,10 @@ public class MipsSim {
 			// The little endian/big endian swap code would
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
-			result = Machine.readMem((tmp & ~0x3), 4);
-			if (result == null) {
+			value = Machine.loadWord(tmp & ~0x3);
+			if (Machine.mMemException != ExceptionType.NoException) {
 				return;
 			}
-			value = result.intValue();
 			switch (tmp & 0x3) {
 			case 0:
 				value = (value & 0xffffff) | (Machine.mRegisters[instr.rt] << 24);
@@ -802,33 +575,37 @@ public class MipsSim {
 				break;
 			}
 
-			if (!Machine.writeMem((tmp & ~0x3), 4, value)) {
+			if (!Machine.storeWord((tmp & ~0x3), value)) {
 				return;
 			}
 			break;
 
 		case OP_SYSCALL:
+			// The system call instruction itself always completes
+			PMU.mCounters[PMU.Instructions]++;
 			Machine.raiseException(ExceptionType.SyscallException, 0);
 			return;
 
-		case OP_XOR:
-			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt];
-			break;
-
-		case OP_XORI:
-			Machine.mRegisters[instr.rt] = Machine.mRegisters[instr.rs] ^ (instr.extra & 0xffff);
-			break;
-
 		case OP_RES:
 		case OP_UNIMP:
 			Machine.raiseException(ExceptionType.IllegalInstrException, 0);
 			return;
 
 		default:
-			assert (false);
+			if (overflows(Machine.mRegisters, instr.opCode, instr.rs, instr.rt, instr.extra)) {
+				Machine.raiseException(ExceptionType.OverflowException, 0);
+				return;
+			}
+
+			pcAfter = execute(Machine.mRegisters, instr.opCode, instr.rs, instr.rt, instr.rd, instr.extra,
+					Machine.mRegisters[Machine.NextPCReg]);
 		}
 
 		// Now we have successfully executed the instruction.
+		PMU.mCounters[PMU.Instructions]++;
+		if (pcAfter != Machine.mRegisters[Machine.NextPCReg] + 4) {
+			PMU.mCounters[PMU.Branches]++;
+		}
 
 		// Do any delayed load operation
 		Machine.delayedLoad(nextLoadReg, nextLoadValue);
@@ -844,6 +621,482 @@ public class MipsSim {
 		Machine.mRegisters[Machine.NextPCReg] = pcAfter;
 	}
 
+	/**
+	 * Works out whether two consecutive instructions form a pair that
+	 * oneFusedPair() can run as one. Called when a page is decoded.
+	 *
+	 * @param pFirst
+	 *            the first instruction.
+	 * @param pSecond
+	 *            the instruction following it.
+	 * @return the kind of pair, or FUSE_NONE.
+	 */
+	public static int fusionOf(Instruction pFirst, Instruction pSecond) {
+		switch (pFirst.opCode) {
+		case OP_LUI:
+			if (((pSecond.opCode == OP_ORI) || (pSecond.opCode == OP_ADDIU)) && (pSecond.rs == pFirst.rt)) {
+				return FUSE_CONST;
+			}
+			break;
+
+		case OP_LW:
+			if (isSimpleAlu(pSecond.opCode)) {
+				return FUSE_LOAD_ALU;
+			}
+			break;
+
+		case OP_SLT:
+		case OP_SLTU:
+		case OP_SLTI:
+		case OP_SLTIU:
+			int result = ((pFirst.opCode == OP_SLT) || (pFirst.opCode == OP_SLTU)) ? pFirst.rd : pFirst.rt;
+			if (((pSecond.opCode == OP_BEQ) || (pSecond.opCode == OP_BNE))
+					&& ((pSecond.rs == result) || (pSecond.rt == result))) {
+				return FUSE_CMP_BRANCH;
+			}
+			break;
+
+		case OP_ADDIU:
+			if ((pFirst.rt == Machine.StackReg) && (pFirst.rs == Machine.StackReg) && (pSecond.opCode == OP_SW)) {
+				return FUSE_PUSH;
+			}
+			break;
+		}
+
+		return FUSE_NONE;
+	}
+
+	/**
+	 * Runs the next two instructions as one, if they form a fused pair.
+	 *
+	 * The result is exactly that of two calls to oneInstruction(), including
+	 * the delayed load between them. Pairs are only run when neither half can
+	 * trap: the first instruction must not be in a branch delay slot, no load
+	 * may be pending from before the pair, and the memory access (if any) is
+	 * translated before anything is changed. Otherwise nothing is done and
+	 * the caller runs the instructions one at a time.
+	 *
+	 * @return true if two instructions were run.
+	 */
+	public static boolean oneFusedPair() {
+		int[] regs = Machine.mRegisters;
+		int pc = regs[Machine.PCReg];
+
+		if ((regs[Machine.NextPCReg] != pc + 4) || (regs[Machine.LoadReg] != 0)) {
+			return false;
+		}
+
+		int physPC = MMU.translate(pc, 4, false);
+		if (physPC < 0) {
+			return false;
+		}
+
+		int kind = DecodeCache.fusion(physPC);
+		if (kind == FUSE_NONE) {
+			return false;
+		}
+
+		DecodeCache.fetch(physPC, mFirst);
+		DecodeCache.fetch(physPC + 4, mSecond);
+
+		// The second fetch, as oneInstruction() would have done it
+		MMU.translate(pc + 4, 4, false);
+
+		int pcAfter = pc + 12;
+		int addr, physAddr;
+
+		switch (kind) {
+		case FUSE_CONST:
+			simpleAlu(mFirst);
+			Machine.delayedLoad(0, 0);
+			simpleAlu(mSecond);
+			Machine.delayedLoad(0, 0);
+			break;
+
+		case FUSE_LOAD_ALU:
+			physAddr = MMU.translate(regs[mFirst.rs] + mFirst.extra, 4, false);
+			if (physAddr < 0) {
+				return false;
+			}
+
+			PMU.mCounters[PMU.Loads]++;
+			Machine.delayedLoad(mFirst.rt, Machine.wordAt(physAddr));
+			simpleAlu(mSecond);
+			Machine.delayedLoad(0, 0);
+			break;
+
+		case FUSE_CMP_BRANCH:
+			simpleAlu(mFirst);
+			Machine.delayedLoad(0, 0);
+
+			boolean equal = (regs[mSecond.rs] == regs[mSecond.rt]);
+			if (equal == (mSecond.opCode == OP_BEQ)) {
+				pcAfter = pc + 8 + indexToAddr(mSecond.extra);
+			}
+			Machine.delayedLoad(0, 0);
+			break;
+
+		case FUSE_PUSH:
+			// The store's base register may be the stack pointer just updated
+			int sp = regs[mFirst.rs] + mFirst.extra;
+			addr = ((mSecond.rs == mFirst.rt) ? sp : regs[mSecond.rs]) + mSecond.extra;
+			physAddr = MMU.translate(addr, 4, true);
+			if (physAddr < 0) {
+				return false;
+			}
+
+			regs[mFirst.rt] = sp;
+			Machine.delayedLoad(0, 0);
+			PMU.mCounters[PMU.Stores]++;
+			Machine.putWordAt(physAddr, regs[mSecond.rt]);
+			Machine.delayedLoad(0, 0);
+			break;
+
+		default:
+			assert (false);
+		}
+
+		mFusedCount[kind]++;
+		PMU.mCounters[PMU.Instructions] += 2;
+		if (pcAfter != pc + 12) {
+			PMU.mCounters[PMU.Branches]++;
+		}
+
+		regs[Machine.PrevPCReg] = pc + 4;
+		regs[Machine.PCReg] = pc + 8;
+		regs[Machine.NextPCReg] = pcAfter;
+		return true;
+	}
+
+	/**
+	 * Checks whether an instruction is an ALU op that can never trap.
+	 *
+	 * @param pOpCode
+	 *            the op code.
+	 * @return true if simpleAlu() can run it.
+	 */
+	private static boolean isSimpleAlu(int pOpCode) {
+		switch (pOpCode) {
+		case OP_ADDIU:
+		case OP_ADDU:
+		case OP_AND:
+		case OP_ANDI:
+		case OP_LUI:
+		case OP_MFHI:
+		case OP_MFLO:
+		case OP_NOR:
+		case OP_OR:
+		case OP_ORI:
+		case OP_SLL:
+		case OP_SLLV:
+		case OP_SLT:
+		case OP_SLTI:
+		case OP_SLTIU:
+		case OP_SLTU:
+		case OP_SRA:
+		case OP_SRAV:
+		case OP_SRL:
+		case OP_SRLV:
+		case OP_SUBU:
+		case OP_XOR:
+		case OP_XORI:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the register part of an ALU op accepted by isSimpleAlu(), exactly
+	 * as oneInstruction() does.
+	 *
+	 * @param instr
+	 *            the instruction.
+	 */
+	private static void simpleAlu(Instruction instr) {
+		assert (isSimpleAlu(instr.opCode));
+
+		execute(Machine.mRegisters, instr.opCode, instr.rs, instr.rt, instr.rd, instr.extra, 0);
+	}
+
+	/**
+	 * Checks whether an ADD, ADDI or SUB would overflow, which raises
+	 * OverflowException instead of writing the result.
+	 *
+	 * @param r
+	 *            the registers.
+	 * @param pOpCode
+	 *            the op code.
+	 * @param pRs
+	 *            the rs field.
+	 * @param pRt
+	 *            the rt field.
+	 * @param pExtra
+	 *            the (sign-extended) immediate.
+	 * @return true if the instruction must trap; always false for other op
+	 *         codes.
+	 */
+	public static boolean overflows(int[] r, int pOpCode, int pRs, int pRt, int pExtra) {
+		int sum;
+
+		switch (pOpCode) {
+		case OP_ADD:
+			sum = r[pRs] + r[pRt];
+			return (((r[pRs] ^ r[pRt]) & SIGN_BIT) == 0) && (((r[pRs] ^ sum) & SIGN_BIT) != 0);
+
+		case OP_ADDI:
+			sum = r[pRs] + pExtra;
+			return (((r[pRs] ^ pExtra) & SIGN_BIT) == 0) && (((pExtra ^ sum) & SIGN_BIT) != 0);
+
+		case OP_SUB:
+			sum = r[pRs] - r[pRt];
+			return (((r[pRs] ^ r[pRt]) & SIGN_BIT) != 0) && (((r[pRs] ^ sum) & SIGN_BIT) != 0);
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Runs an instruction that only reads and writes registers: an ALU op, a
+	 * multiply or divide, a branch or a jump. This is the one copy of their
+	 * semantics, used by oneInstruction(), the fused pairs and BlockEngine.
+	 * Nothing here traps; an ADD, ADDI or SUB must first be checked with
+	 * overflows(). The delayed load and the program counters are left to the
+	 * caller.
+	 *
+	 * @param r
+	 *            the registers.
+	 * @param pOpCode
+	 *            the op code.
+	 * @param pRs
+	 *            the rs field.
+	 * @param pRt
+	 *            the rt field.
+	 * @param pRd
+	 *            the rd field.
+	 * @param pExtra
+	 *            the immediate, target or shift field.
+	 * @param pNextPC
+	 *            the address of the next instruction (the delay slot).
+	 * @return the address to run after the next instruction: pNextPC + 4
+	 *         unless a branch is taken or a jump made.
+	 */
+	public static int execute(int[] r, int pOpCode, int pRs, int pRt, int pRd, int pExtra, int pNextPC) {
+		int pcAfter = pNextPC + 4;
+		int tmp;
+
+		switch (pOpCode) {
+		case OP_ADD:
+		case OP_ADDU:
+			r[pRd] = r[pRs] + r[pRt];
+			break;
+
+		case OP_ADDI:
+		case OP_ADDIU:
+			r[pRt] = r[pRs] + pExtra;
+			break;
+
+		case OP_AND:
+			r[pRd] = r[pRs] & r[pRt];
+			break;
+
+		case OP_ANDI:
+			r[pRt] = r[pRs] & (pExtra & 0xffff);
+			break;
+
+		case OP_BEQ:
+			if (r[pRs] == r[pRt]) {
+				pcAfter = pNextPC + indexToAddr(pExtra);
+			}
+			break;
+
+		case OP_BGEZAL:
+		case OP_BGEZ:
+			// The link is written before the test, which may read it
+			if (pOpCode == OP_BGEZAL) {
+				r[R31] = pNextPC + 4;
+			}
+			if ((r[pRs] & SIGN_BIT) == 0) {
+				pcAfter = pNextPC + indexToAddr(pExtra);
+			}
+			break;
+
+		case OP_BGTZ:
+			if (r[pRs] > 0) {
+				pcAfter = pNextPC + indexToAddr(pExtra);
+			}
+			break;
+
+		case OP_BLEZ:
+			if (r[pRs] <= 0) {
+				pcAfter = pNextPC + indexToAddr(pExtra);
+			}
+			break;
+
+		case OP_BLTZAL:
+		case OP_BLTZ:
+			if (pOpCode == OP_BLTZAL) {
+				r[R31] = pNextPC + 4;
+			}
+			if ((r[pRs] & SIGN_BIT) != 0) {
+				pcAfter = pNextPC + indexToAddr(pExtra);
+			}
+			break;
+
+		case OP_BNE:
+			if (r[pRs] != r[pRt]) {
+				pcAfter = pNextPC + indexToAddr(pExtra);
+			}
+			break;
+
+		case OP_DIV:
+		case OP_DIVU:
+			if (r[pRt] == 0) {
+				r[Machine.LoReg] = 0;
+				r[Machine.HiReg] = 0;
+			} else {
+				tmp = r[pRs];
+				r[Machine.LoReg] = tmp / r[pRt];
+				r[Machine.HiReg] = tmp % r[pRt];
+			}
+			break;
+
+		case OP_J:
+		case OP_JAL:
+			if (pOpCode == OP_JAL) {
+				r[R31] = pNextPC + 4;
+			}
+			pcAfter = (pcAfter & 0xf0000000) | indexToAddr(pExtra);
+			break;
+
+		case OP_JALR:
+		case OP_JR:
+			// The link is written before the target is read
+			if (pOpCode == OP_JALR) {
+				r[pRd] = pNextPC + 4;
+			}
+			pcAfter = r[pRs];
+			break;
+
+		case OP_LUI:
+			r[pRt] = pExtra << 16;
+			break;
+
+		case OP_MFHI:
+			r[pRd] = r[Machine.HiReg];
+			break;
+
+		case OP_MFLO:
+			r[pRd] = r[Machine.LoReg];
+			break;
+
+		case OP_MTHI:
+			r[Machine.HiReg] = r[pRs];
+			break;
+
+		case OP_MTLO:
+			r[Machine.LoReg] = r[pRs];
+			break;
+
+		case OP_MULT:
+		case OP_MULTU:
+			Mult(r[pRs], r[pRt], pOpCode == OP_MULT, mMultResult);
+			r[Machine.HiReg] = mMultResult[1];
+			r[Machine.LoReg] = mMultResult[0];
+			break;
+
+		case OP_NOR:
+			r[pRd] = ~(r[pRs] | r[pRt]);
+			break;
+
+		case OP_OR:
+			// As the original simulator does: rs is or'ed with itself
+			r[pRd] = r[pRs] | r[pRs];
+			break;
+
+		case OP_ORI:
+			r[pRt] = r[pRs] | (pExtra & 0xffff);
+			break;
+
+		case OP_SLL:
+			r[pRd] = r[pRt] << pExtra;
+			break;
+
+		case OP_SLLV:
+			r[pRd] = r[pRt] << (r[pRs] & 0x1f);
+			break;
+
+		case OP_SLT:
+		case OP_SLTU:
+			r[pRd] = (r[pRs] < r[pRt]) ? 1 : 0;
+			break;
+
+		case OP_SLTI:
+		case OP_SLTIU:
+			r[pRt] = (r[pRs] < pExtra) ? 1 : 0;
+			break;
+
+		case OP_SRA:
+		case OP_SRL:
+			r[pRd] = r[pRt] >> pExtra;
+			break;
+
+		case OP_SRAV:
+		case OP_SRLV:
+			r[pRd] = r[pRt] >> (r[pRs] & 0x1f);
+			break;
+
+		case OP_SUB:
+		case OP_SUBU:
+			r[pRd] = r[pRs] - r[pRt];
+			break;
+
+		case OP_XOR:
+			r[pRd] = r[pRs] ^ r[pRt];
+			break;
+
+		case OP_XORI:
+			r[pRt] = r[pRs] ^ (pExtra & 0xffff);
+			break;
+
+		default:
+			assert (false);
+		}
+
+		return pcAfter;
+	}
+
+	/**
+	 * Extends a byte or half word just loaded as its load instruction asks.
+	 *
+	 * @param pOpCode
+	 *            the load: LB, LBU, LH or LHU.
+	 * @param pValue
+	 *            the value read from memory.
+	 * @return the value to load into the register.
+	 */
+	public static int extendLoad(int pOpCode, int pValue) {
+		switch (pOpCode) {
+		case OP_LB:
+			return (byte) pValue;
+
+		case OP_LBU:
+			return pValue & 0xff;
+
+		case OP_LH:
+			return (short) pValue;
+
+		case OP_LHU:
+			return pValue & 0xffff;
+
+		default:
+			assert (false);
+			return pValue;
+		}
+	}
+
 	/**
 	 * Simulate R2000 multiplication. The words at *hiPtr and *loPtr are
 	 * overwritten with the double-length result of the multiplication.
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The performance monitoring unit: a set of 64-bit event counters, like the
+ * hardware counters on a real CPU.
+ *
+ * The counters in mCounters count events for the whole machine (for the CPU
+ * in the kernel, on a multiprocessor; see total()). Each process also has its
+ * own set; the kernel calls switchOut() when a process gives up
+ * the CPU, which adds the events since the last switch to that process's
+ * counters. User programs read either set with the ReadCounter system call.
+ */
+public class PMU {
+	/** User instructions completed. */
+	public static final int Instructions = 0;
+
+	/** Loads from memory. */
+	public static final int Loads = 1;
+
+	/** Stores to memory. */
+	public static final int Stores = 2;
+
+	/** Branches and jumps taken. */
+	public static final int Branches = 3;
+
+	/** System calls. */
+	public static final int Syscalls = 4;
+
+	/** Translations missing from the TLB. */
+	public static final int TLBMisses = 5;
+
+	/** Pages missing from the page table. */
+	public static final int PageFaults = 6;
+
+	/** The number of counters. */
+	public static final int NumCounters = 7;
+
+	/** The printed names of the counters. */
+	public static final String[] counterNames = { "instructions", "loads", "stores", "branches taken", "syscalls",
+			"TLB misses", "page faults" };
+
+	/** The counters for the whole machine. */
+	public static long[] mCounters = new long[NumCounters];
+
+	/** The machine counters at the last process switch. */
+	static long[] mAtSwitch = new long[NumCounters];
+
+	/** The counters of processes that have finished, by name. */
+	private static Map<String, long[]> mFinished = new LinkedHashMap<String, long[]>();
+
+	/**
+	 * Adds the events since the last process switch to the counters of the
+	 * process that was running.
+	 *
+	 * @param pProcessCounters
+	 *            the counters of the process giving up the CPU.
+	 */
+	public static void switchOut(long[] pProcessCounters) {
+		for (int i = 0; i < NumCounters; i++) {
+			pProcessCounters[i] += mCounters[i] - mAtSwitch[i];
+			mAtSwitch[i] = mCounters[i];
+		}
+	}
+
+	/**
+	 * Reads a counter of the running process.
+	 *
+	 * @param pProcessCounters
+	 *            the counters of the running process.
+	 * @param pWhich
+	 *            the counter to read.
+	 * @return its value, including the events since the last switch.
+	 */
+	public static long read(long[] pProcessCounters, int pWhich) {
+		return pProcessCounters[pWhich] + (mCounters[pWhich] - mAtSwitch[pWhich]);
+	}
+
+	/**
+	 * Reads a counter of the whole machine, adding up those of every CPU.
+	 *
+	 * @param pWhich
+	 *            the counter to read.
+	 * @return its value.
+	 */
+	public static long total(int pWhich) {
+		return Cpu.total(pWhich);
+	}
+
+	/**
+	 * Records the final counters of a process, to be printed at shutdown.
+	 *
+	 * @param pName
+	 *            the name of the process.
+	 * @param pProcessCounters
+	 *            the counters of the process, which must be running.
+	 */
+	public static void retire(String pName, long[] pProcessCounters) {
+		switchOut(pProcessCounters);
+		mFinished.put(pName, pProcessCounters.clone());
+	}
+
+	/**
+	 * Writes the machine counters and those of finished processes to a
+	 * snapshot. The running process's counters are saved with the process.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void save(DataOutputStream pOut) throws IOException {
+		for (long value : mCounters) {
+			pOut.writeLong(value);
+		}
+
+		pOut.writeInt(mFinished.size());
+		for (Map.Entry<String, long[]> entry : mFinished.entrySet()) {
+			pOut.writeUTF(entry.getKey());
+			for (long value : entry.getValue()) {
+				pOut.writeLong(value);
+			}
+		}
+	}
+
+	/**
+	 * Reads the counters back from a snapshot, as if a process switch had
+	 * just happened.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public static void restore(DataInputStream pIn) throws IOException {
+		for (int i = 0; i < NumCounters; i++) {
+			mCounters[i] = pIn.readLong();
+		}
+		System.arraycopy(mCounters, 0, mAtSwitch, 0, NumCounters);
+
+		mFinished.clear();
+		for (int count = pIn.readInt(); count > 0; count--) {
+			String name = pIn.readUTF();
+			long[] counters = new long[NumCounters];
+			for (int i = 0; i < NumCounters; i++) {
+				counters[i] = pIn.readLong();
+			}
+			mFinished.put(name, counters);
+		}
+	}
+
+	/**
+	 * Prints the machine counters, then those of each finished process.
+	 */
+	public static void print() {
+		long[] total = new long[NumCounters];
+		for (int i = 0; i < NumCounters; i++) {
+			total[i] = total(i);
+		}
+
+		System.out.println("PMU: " + format(total));
+
+		for (Map.Entry<String, long[]> entry : mFinished.entrySet()) {
+			System.out.println("PMU " + entry.getKey() + ": " + format(entry.getValue()));
+		}
+	}
+
+	/**
+	 * Formats a set of counters for printing.
+	 *
+	 * @param pCounters
+	 *            the counters.
+	 * @return the counters, named and separated by commas.
+	 */
+	private static String format(long[] pCounters) {
+		String result = "";
+		for (int i = 0; i < NumCounters; i++) {
+			result += ((i == 0) ? "" : ", ") + counterNames[i] + " " + pCounters[i];
+		}
+
+		return result;
+	}
+}
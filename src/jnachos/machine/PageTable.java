@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+/**
+ * The layout of a page table entry. A page table is an int[] indexed by
+ * virtual page, each entry packing the physical page with the valid,
+ * read-only, use and dirty bits, so translating an address is a single array
+ * load. The bits mean what the fields of a TranslationEntry do; a TLB entry
+ * is still a TranslationEntry.
+ *
+ * An entry that is not valid keeps the frame it last had.
+ */
+public abstract class PageTable {
+	/** The bits holding the physical page. */
+	public static final int FrameMask = 0x00ffffff;
+
+	/** Set if the translation may be used; otherwise the page is not mapped. */
+	public static final int Valid = 1 << 24;
+
+	/** Set if the page may not be written. */
+	public static final int ReadOnly = 1 << 25;
+
+	/** Set by the hardware every time the page is used. */
+	public static final int Use = 1 << 26;
+
+	/** Set by the hardware every time the page is written. */
+	public static final int Dirty = 1 << 27;
+
+	/**
+	 * Gets the physical page of an entry.
+	 *
+	 * @param pEntry
+	 *            the entry.
+	 * @return the physical page.
+	 */
+	public static int frame(int pEntry) {
+		return pEntry & FrameMask;
+	}
+
+	/**
+	 * Checks whether an entry is valid.
+	 *
+	 * @param pEntry
+	 *            the entry.
+	 * @return true if the page is mapped.
+	 */
+	public static boolean isValid(int pEntry) {
+		return (pEntry & Valid) != 0;
+	}
+
+	/**
+	 * Checks whether an entry is read-only.
+	 *
+	 * @param pEntry
+	 *            the entry.
+	 * @return true if the page may not be written.
+	 */
+	public static boolean isReadOnly(int pEntry) {
+		return (pEntry & ReadOnly) != 0;
+	}
+
+	/**
+	 * Checks whether the page of an entry has been used.
+	 *
+	 * @param pEntry
+	 *            the entry.
+	 * @return true if the use bit is set.
+	 */
+	public static boolean isUsed(int pEntry) {
+		return (pEntry & Use) != 0;
+	}
+
+	/**
+	 * Checks whether the page of an entry has been written.
+	 *
+	 * @param pEntry
+	 *            the entry.
+	 * @return true if the dirty bit is set.
+	 */
+	public static boolean isDirty(int pEntry) {
+		return (pEntry & Dirty) != 0;
+	}
+
+	/**
+	 * Makes an entry mapping a physical page, with the use and dirty bits
+	 * clear.
+	 *
+	 * @param pFrame
+	 *            the physical page.
+	 * @param pReadOnly
+	 *            true if the page may not be written.
+	 * @return the entry, valid.
+	 */
+	public static int make(int pFrame, boolean pReadOnly) {
+		assert ((pFrame & ~FrameMask) == 0);
+
+		return pFrame | Valid | (pReadOnly ? ReadOnly : 0);
+	}
+}
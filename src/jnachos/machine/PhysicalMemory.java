@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+/**
+ * The main memory of the simulated machine, addressed by physical address.
+ *
+ * The simulated MIPS is little endian, so words and half words are stored
+ * with their low byte first. Implementations read and write them in one
+ * step; callers never assemble them from bytes. Nothing here checks for
+ * alignment or translation errors, that is the MMU's job.
+ */
+public interface PhysicalMemory {
+	/**
+	 * Gets the size of the memory.
+	 *
+	 * @return the size in bytes.
+	 */
+	int size();
+
+	/**
+	 * Reads a word.
+	 *
+	 * @param pAddr
+	 *            the (word aligned) physical address.
+	 * @return the word read.
+	 */
+	int readWord(int pAddr);
+
+	/**
+	 * Reads a half word.
+	 *
+	 * @param pAddr
+	 *            the (half word aligned) physical address.
+	 * @return the half word read, zero extended.
+	 */
+	int readHalf(int pAddr);
+
+	/**
+	 * Reads a byte.
+	 *
+	 * @param pAddr
+	 *            the physical address.
+	 * @return the byte read, sign extended.
+	 */
+	int readByte(int pAddr);
+
+	/**
+	 * Writes a word.
+	 *
+	 * @param pAddr
+	 *            the (word aligned) physical address.
+	 * @param pValue
+	 *            the word to write.
+	 */
+	void writeWord(int pAddr, int pValue);
+
+	/**
+	 * Writes a half word.
+	 *
+	 * @param pAddr
+	 *            the (half word aligned) physical address.
+	 * @param pValue
+	 *            the half word to write (in the low 16 bits).
+	 */
+	void writeHalf(int pAddr, int pValue);
+
+	/**
+	 * Writes a byte.
+	 *
+	 * @param pAddr
+	 *            the physical address.
+	 * @param pValue
+	 *            the byte to write (in the low 8 bits).
+	 */
+	void writeByte(int pAddr, int pValue);
+
+	/**
+	 * Sets a range of memory to one value.
+	 *
+	 * @param pAddr
+	 *            the physical address of the start of the range.
+	 * @param pLength
+	 *            the number of bytes to set.
+	 * @param pValue
+	 *            the value to store in each byte.
+	 */
+	void fill(int pAddr, int pLength, byte pValue);
+
+	/**
+	 * Copies bytes from a Java array into memory.
+	 *
+	 * @param pAddr
+	 *            the physical address to copy to.
+	 * @param pSrc
+	 *            the array to copy from.
+	 * @param pOffset
+	 *            the index of the first byte in pSrc.
+	 * @param pLength
+	 *            the number of bytes to copy.
+	 */
+	void copyIn(int pAddr, byte[] pSrc, int pOffset, int pLength);
+
+	/**
+	 * Copies bytes from memory into a Java array.
+	 *
+	 * @param pAddr
+	 *            the physical address to copy from.
+	 * @param pDest
+	 *            the array to copy to.
+	 * @param pOffset
+	 *            the index in pDest of the first byte copied.
+	 * @param pLength
+	 *            the number of bytes to copy.
+	 */
+	void copyOut(int pAddr, byte[] pDest, int pOffset, int pLength);
+
+	/**
+	 * Copies one range of memory to another (for example, one page frame to
+	 * another). The ranges must not overlap.
+	 *
+	 * @param pFrom
+	 *            the physical address to copy from.
+	 * @param pTo
+	 *            the physical address to copy to.
+	 * @param pLength
+	 *            the number of bytes to copy.
+	 */
+	void copy(int pFrom, int pTo, int pLength);
+}
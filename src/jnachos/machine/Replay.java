@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records when each interrupt is scheduled and delivered, and plays a
+ * recording back so that a later run gets its interrupts at exactly the same
+ * times.
+ *
+ * "-rec <file>" writes an entry each time a device schedules an interrupt,
+ * with the delay it chose, and each time an interrupt is delivered, with the
+ * ticks and user instructions since the previous delivery. Each entry is the
+ * interrupt type (with ScheduleFlag for a schedule) followed by variable
+ * length integers, usually 2 to 4 bytes in all. "-rp <file>" replays one:
+ * the n-th interrupt of a type that is scheduled gets the delay recorded for
+ * the n-th of that type, so the random time slices of -rs and the disk
+ * latencies come from the recording rather than being worked out again. The
+ * delay, not the delivery time, is what is replayed: in system mode an
+ * interrupt is delivered up to a SystemTick after it was due, and the next
+ * one counts from when it was scheduled. Each delivery is checked against
+ * the recording and the first difference is reported.
+ *
+ * A recording is always replayed from the start of a run. A run can be
+ * fast-forwarded with "-sv <ticks> <file>" only to the points at which
+ * jnachos.kern.Snapshot can save it: while exactly one process exists and
+ * no page is in the swap area. A run with several processes, or one that
+ * pages with -pm, cannot be resumed from the middle.
+ */
+public class Replay {
+	/** The file interrupts are recorded to, or null if not recording. */
+	public static String mRecordFile = null;
+
+	/** The file interrupts are replayed from, or null if not replaying. */
+	public static String mReplayFile = null;
+
+	/** True if deliveries are being recorded. */
+	private static boolean mRecording = false;
+
+	/** True if a recording is being played back. */
+	private static boolean mReplaying = false;
+
+	/** Marks the type of an entry that records a schedule. */
+	private static final int ScheduleFlag = 0x80;
+
+	/** The recording being written. */
+	private static DataOutputStream mOut;
+
+	/** The time and instruction count of the last delivery recorded or seen. */
+	private static int mLastTicks = 0;
+	private static long mLastInstructions = 0;
+
+	/** For each type, the recorded delays of its schedules in order. */
+	private static int[][] mDelays = new int[InterruptType.values().length][];
+
+	/** For each type, the number of recorded schedules. */
+	private static int[] mDelayCount = new int[InterruptType.values().length];
+
+	/** The recorded deliveries: time, instruction count and type of each. */
+	private static int[] mWhen;
+	private static long[] mInstructions;
+	private static byte[] mType;
+
+	/** The number of recorded deliveries. */
+	private static int mCount = 0;
+
+	/** The number of deliveries so far in this run. */
+	private static int mDelivered = 0;
+
+	/** For each type, the first recorded schedule not yet replayed. */
+	private static int[] mNextOfType = new int[InterruptType.values().length];
+
+	/** True once a difference from the recording has been reported. */
+	private static boolean mDiverged = false;
+
+	/**
+	 * Opens the recording to write or read, if either was asked for. Called
+	 * before any device schedules its first interrupt.
+	 */
+	public static void init() {
+		try {
+			if (mRecordFile != null) {
+				mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mRecordFile)));
+				mRecording = true;
+			}
+
+			if (mReplayFile != null) {
+				load(mReplayFile);
+				mReplaying = true;
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to open interrupt recording: " + e);
+		}
+	}
+
+	/**
+	 * Gets how far ahead an interrupt that is being scheduled should happen:
+	 * records the delay, or takes it from the recording.
+	 *
+	 * @param pType
+	 *            the kind of interrupt.
+	 * @param pFromNow
+	 *            the delay the device asked for.
+	 * @return the next recorded delay for that type when replaying,
+	 *         otherwise pFromNow.
+	 */
+	public static int scheduled(InterruptType pType, int pFromNow) {
+		// Snapshots are not part of the run being recorded
+		if (pType == InterruptType.SnapshotInt) {
+			return pFromNow;
+		}
+
+		int type = pType.ordinal();
+
+		if (mReplaying && (mNextOfType[type] < mDelayCount[type])) {
+			pFromNow = mDelays[type][mNextOfType[type]];
+		}
+
+		// Past the end of the recording the run goes on by itself
+		mNextOfType[type]++;
+
+		if (mRecording) {
+			try {
+				mOut.writeByte(type | ScheduleFlag);
+				writeVar(pFromNow);
+			} catch (IOException e) {
+				System.out.println("Unable to record interrupt: " + e);
+				mRecording = false;
+			}
+		}
+
+		return pFromNow;
+	}
+
+	/**
+	 * Notes that an interrupt is being delivered: records it, or checks it
+	 * against the recording.
+	 *
+	 * @param pType
+	 *            the kind of interrupt.
+	 */
+	public static void delivered(InterruptType pType) {
+		if (pType == InterruptType.SnapshotInt) {
+			return;
+		}
+
+		long instructions = PMU.mCounters[PMU.Instructions];
+
+		if (mRecording) {
+			try {
+				mOut.writeByte(pType.ordinal());
+				writeVar(Statistics.totalTicks - mLastTicks);
+				writeVar(instructions - mLastInstructions);
+			} catch (IOException e) {
+				System.out.println("Unable to record interrupt: " + e);
+				mRecording = false;
+			}
+
+			mLastTicks = Statistics.totalTicks;
+			mLastInstructions = instructions;
+		}
+
+		if (mReplaying && !mDiverged && (mDelivered < mCount)) {
+			int i = mDelivered;
+			if ((mWhen[i] != Statistics.totalTicks) || (mInstructions[i] != instructions)
+					|| (mType[i] != pType.ordinal())) {
+				System.out.println("Replay diverged at interrupt " + i + ": recorded "
+						+ Interrupt.intTypeNames[mType[i]] + " at tick " + mWhen[i] + " after " + mInstructions[i]
+						+ " instructions, got " + Interrupt.intTypeNames[pType.ordinal()] + " at tick "
+						+ Statistics.totalTicks + " after " + instructions);
+				mDiverged = true;
+			}
+		}
+
+		mDelivered++;
+	}
+
+	/**
+	 * Finishes the recording. Called when the machine halts.
+	 */
+	public static void close() {
+		if (mRecording) {
+			try {
+				mOut.close();
+			} catch (IOException e) {
+				System.out.println("Unable to record interrupt: " + e);
+			}
+
+			System.out.println("Recorded " + mDelivered + " interrupts to " + mRecordFile);
+			mRecording = false;
+		}
+
+		if (mReplaying) {
+			System.out.println("Replayed " + Math.min(mDelivered, mCount) + " of " + mCount + " interrupts from "
+					+ mReplayFile + (mDiverged ? ", diverged" : ""));
+			mReplaying = false;
+		}
+	}
+
+	/**
+	 * Reads a whole recording.
+	 *
+	 * @param pFileName
+	 *            the file to read.
+	 */
+	private static void load(String pFileName) throws IOException {
+		mWhen = new int[1024];
+		mInstructions = new long[1024];
+		mType = new byte[1024];
+
+		for (int type = 0; type < mDelays.length; type++) {
+			mDelays[type] = new int[64];
+		}
+
+		int when = 0;
+		long instructions = 0;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pFileName)))) {
+			while (true) {
+				int type;
+				try {
+					type = in.readUnsignedByte();
+				} catch (EOFException e) {
+					break;
+				}
+
+				if ((type & ScheduleFlag) != 0) {
+					type &= ~ScheduleFlag;
+					if (mDelayCount[type] == mDelays[type].length) {
+						mDelays[type] = Arrays.copyOf(mDelays[type], mDelayCount[type] * 2);
+					}
+
+					mDelays[type][mDelayCount[type]++] = (int) readVar(in);
+					continue;
+				}
+
+				when += (int) readVar(in);
+				instructions += readVar(in);
+
+				if (mCount == mWhen.length) {
+					mWhen = Arrays.copyOf(mWhen, mCount * 2);
+					mInstructions = Arrays.copyOf(mInstructions, mCount * 2);
+					mType = Arrays.copyOf(mType, mCount * 2);
+				}
+
+				mWhen[mCount] = when;
+				mInstructions[mCount] = instructions;
+				mType[mCount] = (byte) type;
+				mCount++;
+			}
+		}
+	}
+
+	/**
+	 * Writes a non-negative number 7 bits to a byte, low bits first.
+	 *
+	 * @param pValue
+	 *            the number.
+	 */
+	private static void writeVar(long pValue) throws IOException {
+		while (pValue >= 0x80) {
+			mOut.writeByte((int) (pValue & 0x7f) | 0x80);
+			pValue >>>= 7;
+		}
+
+		mOut.writeByte((int) pValue);
+	}
+
+	/**
+	 * Reads a number written by writeVar.
+	 *
+	 * @param pIn
+	 *            the recording.
+	 * @return the number.
+	 */
+	private static long readVar(DataInputStream pIn) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = pIn.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+}
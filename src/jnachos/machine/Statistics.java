@@ -7,6 +7,10 @@
  */
 package jnachos.machine;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  *
  */
@@ -46,11 +50,31 @@ public class Statistics {
 
 	public static int numDiskReads; // number of disk read requests
 	public static int numDiskWrites; // number of disk write requests
+	public static int diskTicks; // time the disk spent serving requests
 	public static int numConsoleCharsRead; // number of characters read from the
 											// keyboard
 	public static int numConsoleCharsWritten; // number of characters written to
 												// the display
-	public static int numPageFaults; // number of virtual memory page faults
+	public static int numPageFaults; // number of virtual memory page faults, zero fill included
+	public static int numEvictions; // number of pages paged out to make room
+	public static int numPageWrites; // number of evicted pages written to swap
+	public static int numCopyOnWriteFaults; // writes to pages shared by fork
+	public static int numPagesCopied; // pages copied on those writes
+	public static int numTextPagesShared; // code pages found already loaded
+	public static int numTlbHits; // translations found in the TLB
+	public static int numTlbMisses; // translations the kernel had to load
+	public static int numFramesAllocated; // frames given to pages
+	public static int numFramesFreed; // frames given back
+	public static int peakFramesInUse; // most frames held at once
+	public static int numZeroFillFaults; // first touches of zero-filled pages (also in numPageFaults)
+	public static int numZeroedFramesUsed; // of those, served zeroed ahead
+	public static int numFramesPrezeroed; // frames zeroed while idle
+	public static int numExecutablePageReads; // pages read from executables
+	public static int numPagesPrefetched; // pages mapped ahead of a fault
+	public static int numExecutableCacheHits; // executables found parsed
+	public static int numExecutableCacheMisses; // executables opened and parsed
+	public static int numExecutableCacheEvictions; // images dropped for room
+	public static String replacementPolicy = "fifo"; // chooses the evictions
 	public static int numPacketsSent; // number of packets sent over the network
 	public static int numPacketsRecvd; // number of packets received over the
 										// network
@@ -60,9 +84,74 @@ public class Statistics {
 	 */
 	public Statistics() {
 		totalTicks = idleTicks = systemTicks = userTicks = 0;
-		numDiskReads = numDiskWrites = 0;
+		numDiskReads = numDiskWrites = diskTicks = 0;
 		numConsoleCharsRead = numConsoleCharsWritten = 0;
-		numPageFaults = numPacketsSent = numPacketsRecvd = 0;
+		numPageFaults = numEvictions = numPageWrites = 0;
+		numCopyOnWriteFaults = numPagesCopied = numTextPagesShared = 0;
+		numTlbHits = numTlbMisses = 0;
+		numFramesAllocated = numFramesFreed = peakFramesInUse = 0;
+		numZeroFillFaults = numZeroedFramesUsed = numFramesPrezeroed = 0;
+		numExecutablePageReads = numPagesPrefetched = 0;
+		numExecutableCacheHits = numExecutableCacheMisses = numExecutableCacheEvictions = 0;
+		numPacketsSent = numPacketsRecvd = 0;
+	}
+
+	/**
+	 * Writes the metrics to a snapshot.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public static void save(DataOutputStream pOut) throws IOException {
+		int[] values = { totalTicks, idleTicks, systemTicks, userTicks, numDiskReads, numDiskWrites, diskTicks,
+				numConsoleCharsRead, numConsoleCharsWritten, numPageFaults, numEvictions, numPageWrites,
+				numCopyOnWriteFaults, numPagesCopied, numTextPagesShared, numTlbHits, numTlbMisses,
+				numFramesAllocated, numFramesFreed, peakFramesInUse, numZeroFillFaults, numZeroedFramesUsed,
+				numFramesPrezeroed, numExecutablePageReads, numPagesPrefetched, numExecutableCacheHits,
+				numExecutableCacheMisses, numExecutableCacheEvictions, numPacketsSent, numPacketsRecvd };
+
+		for (int value : values) {
+			pOut.writeInt(value);
+		}
+	}
+
+	/**
+	 * Reads the metrics back from a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public static void restore(DataInputStream pIn) throws IOException {
+		totalTicks = pIn.readInt();
+		idleTicks = pIn.readInt();
+		systemTicks = pIn.readInt();
+		userTicks = pIn.readInt();
+		numDiskReads = pIn.readInt();
+		numDiskWrites = pIn.readInt();
+		diskTicks = pIn.readInt();
+		numConsoleCharsRead = pIn.readInt();
+		numConsoleCharsWritten = pIn.readInt();
+		numPageFaults = pIn.readInt();
+		numEvictions = pIn.readInt();
+		numPageWrites = pIn.readInt();
+		numCopyOnWriteFaults = pIn.readInt();
+		numPagesCopied = pIn.readInt();
+		numTextPagesShared = pIn.readInt();
+		numTlbHits = pIn.readInt();
+		numTlbMisses = pIn.readInt();
+		numFramesAllocated = pIn.readInt();
+		numFramesFreed = pIn.readInt();
+		peakFramesInUse = pIn.readInt();
+		numZeroFillFaults = pIn.readInt();
+		numZeroedFramesUsed = pIn.readInt();
+		numFramesPrezeroed = pIn.readInt();
+		numExecutablePageReads = pIn.readInt();
+		numPagesPrefetched = pIn.readInt();
+		numExecutableCacheHits = pIn.readInt();
+		numExecutableCacheMisses = pIn.readInt();
+		numExecutableCacheEvictions = pIn.readInt();
+		numPacketsSent = pIn.readInt();
+		numPacketsRecvd = pIn.readInt();
 	}
 
 	/**
@@ -73,11 +162,65 @@ public class Statistics {
 		System.out.println("Ticks: total " + totalTicks + ", idle " + idleTicks + ", system " + systemTicks + ", user "
 				+ userTicks);
 
-		System.out.println("Disk I/O: reads " + numDiskReads + ", writes " + numDiskWrites);
+		System.out.println("Disk I/O: reads " + numDiskReads + ", writes " + numDiskWrites + ", ticks " + diskTicks);
 		System.out.println("Console I/O: reads " + numConsoleCharsRead + ", writes " + numConsoleCharsWritten);
-		System.out.println("Paging: faults " + numPageFaults);
+		System.out.println("Paging: faults " + numPageFaults + ", evictions " + numEvictions + ", writes "
+				+ numPageWrites + " (" + replacementPolicy + ")");
+
+		if (numFramesAllocated > 0) {
+			System.out.println("Frames: allocated " + numFramesAllocated + ", freed " + numFramesFreed
+					+ ", peak in use " + peakFramesInUse);
+		}
+
+		if (numExecutableCacheMisses > 0) {
+			System.out.println("Executables: opened " + numExecutableCacheMisses + ", found in cache "
+					+ numExecutableCacheHits + ", dropped from cache " + numExecutableCacheEvictions + ", pages read "
+					+ numExecutablePageReads + ", prefetched " + numPagesPrefetched);
+		}
+
+		if (numZeroFillFaults > 0) {
+			System.out.println("Zero fill: faults " + numZeroFillFaults + ", served pre-zeroed "
+					+ numZeroedFramesUsed + ", frames zeroed while idle " + numFramesPrezeroed);
+		}
+
+		if (numCopyOnWriteFaults > 0) {
+			System.out.println("Copy on write: faults " + numCopyOnWriteFaults + ", pages copied " + numPagesCopied);
+		}
+
+		if (MMU.mTlb != null) {
+			long lookups = (long) numTlbHits + numTlbMisses;
+			System.out.println("TLB: hits " + numTlbHits + ", misses " + numTlbMisses + ", hit rate "
+					+ String.format("%.2f", (lookups == 0) ? 0.0 : (100.0 * numTlbHits / lookups)) + "% ("
+					+ MMU.mTlb.length + " entries, " + MMU.mTlbWays + " way)");
+		}
+
+		if (numTextPagesShared > 0) {
+			System.out.println("Shared code: pages mapped from another process " + numTextPagesShared);
+		}
 
 		System.out.println("Network I/O: packets received " + numPacketsRecvd + ", sent " + numPacketsSent);
+		PMU.print();
+		Cpu.print();
+
+		if (Machine.mSpinSkipped > 0) {
+			System.out.println("Spin loops: instructions skipped " + Machine.mSpinSkipped);
+		}
+
+		if (BlockEngine.mEnabled) {
+			System.out.println("Block engine: blocks translated " + BlockEngine.mBlocksTranslated + ", run "
+					+ BlockEngine.mBlocksRun + ", pages flushed " + BlockEngine.mPagesFlushed);
+		}
+
+		String fused = "";
+		for (int i = MipsSim.FUSE_NONE + 1; i < MipsSim.NumFusions; i++) {
+			if (MipsSim.mFusedCount[i] > 0) {
+				fused += ", " + MipsSim.fusionNames[i] + " " + MipsSim.mFusedCount[i];
+			}
+		}
+
+		if (!fused.isEmpty()) {
+			System.out.println("Fused pairs" + fused.substring(1));
+		}
 	}
 
 }
@@ -8,6 +8,13 @@
 package jnachos.machine;
 
 import jnachos.kern.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Random;
 
 /**
@@ -101,4 +108,46 @@ public class Timer implements VoidFunctionPtr {
 		else
 			return Statistics.TimerTicks;
 	}
+
+	/**
+	 * Writes the state of the random time slices to a snapshot, so a restored
+	 * machine slices time just as the original would have.
+	 *
+	 * @param pOut
+	 *            the snapshot being written.
+	 */
+	public void save(DataOutputStream pOut) throws IOException {
+		pOut.writeBoolean(mRandomize);
+
+		if (mRandomize) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(mRandom);
+			}
+
+			pOut.writeInt(bytes.size());
+			bytes.writeTo(pOut);
+		}
+	}
+
+	/**
+	 * Reads the state of the random time slices back from a snapshot.
+	 *
+	 * @param pIn
+	 *            the snapshot being read.
+	 */
+	public void restore(DataInputStream pIn) throws IOException {
+		mRandomize = pIn.readBoolean();
+
+		if (mRandomize) {
+			byte[] bytes = new byte[pIn.readInt()];
+			pIn.readFully(bytes);
+
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+				mRandom = (Random) in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+	}
 }
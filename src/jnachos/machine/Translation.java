@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+/**
+ * The code of a translated basic block. BlockCompiler generates a hidden
+ * class extending this one for each block, and BlockEngine runs it.
+ */
+abstract class Translation {
+	/** The number of instructions translated. */
+	int mLength;
+
+	/**
+	 * Runs the block, instruction for instruction as MipsSim.oneInstruction
+	 * would, and leaves the registers (program counters and pending load
+	 * included) as they would be then. Stops early, without running it, at
+	 * an instruction that would raise an exception, and just after a store
+	 * into the page the block was run from.
+	 *
+	 * @param r
+	 *            the registers (Machine.mRegisters).
+	 * @param pMemory
+	 *            main memory (Machine.mMemory).
+	 * @param pPage
+	 *            the physical page the block is run from.
+	 * @return the number of instructions completed.
+	 */
+	public abstract int run(int[] r, PhysicalMemory pMemory, int pPage);
+}
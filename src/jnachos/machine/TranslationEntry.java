@@ -8,10 +8,11 @@
 package jnachos.machine;
 
 /**
- * The following class defines an entry in a translation table -- either in a
- * page table or a TLB. Each entry defines a mapping from one virtual page to
- * one physical page. In addition, there are some extra bits for access control
- * (valid and read-only) and some bits for usage information (use and dirty).
+ * The following class defines an entry in the TLB. Each entry defines a
+ * mapping from one virtual page to one physical page. In addition, there are
+ * some extra bits for access control (valid and read-only) and some bits for
+ * usage information (use and dirty). Page tables pack the same mapping into
+ * an int (see PageTable).
  */
 public class TranslationEntry {
 	/** The page number in virtual memory. */
@@ -42,4 +43,10 @@ public class TranslationEntry {
 	 * This bit is set by the hardware every time the page is modified.
 	 */
 	public boolean dirty;
+
+	/**
+	 * In a TLB entry, the address space the translation belongs to (see
+	 * MMU.mAsid). Not used in a page table.
+	 */
+	public int asid;
 }
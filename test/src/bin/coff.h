@@ -47,3 +47,52 @@ struct scnhdr {
         long            s_flags;        /* flags */
       };
  
+
+/* The symbolic header, found at f_symptr.  Only the parts needed to
+ * find the external symbols are used.
+ */
+typedef struct symhdr {
+        short   magic;          /* 0x7009                               */
+        short   vstamp;         /* version stamp                        */
+        long    ilineMax;       /* number of line number entries        */
+        long    cbLine;         /* bytes of packed line numbers         */
+        long    cbLineOffset;   /* offset of packed line numbers        */
+        long    idnMax;         /* max index into dense numbers         */
+        long    cbDnOffset;     /* offset of dense numbers              */
+        long    ipdMax;         /* number of procedures                 */
+        long    cbPdOffset;     /* offset of procedure table            */
+        long    isymMax;        /* number of local symbols              */
+        long    cbSymOffset;    /* offset of local symbols              */
+        long    ioptMax;        /* max index into optimization entries  */
+        long    cbOptOffset;    /* offset of optimization entries       */
+        long    iauxMax;        /* number of auxiliary symbols          */
+        long    cbAuxOffset;    /* offset of auxiliary symbols          */
+        long    issMax;         /* bytes of local strings               */
+        long    cbSsOffset;     /* offset of local strings              */
+        long    issExtMax;      /* bytes of external strings            */
+        long    cbSsExtOffset;  /* offset of external strings           */
+        long    ifdMax;         /* number of file descriptors           */
+        long    cbFdOffset;     /* offset of file descriptors           */
+        long    crfd;           /* number of relative file descriptors  */
+        long    cbRfdOffset;    /* offset of relative file descriptors  */
+        long    iextMax;        /* number of external symbols           */
+        long    cbExtOffset;    /* offset of external symbols           */
+      } HDRR;
+
+/* An external symbol.  The type fields are packed into one word:
+ * st (bits 0-5), sc (bits 6-10), reserved (bit 11), index (bits 12-31).
+ */
+typedef struct extr {
+        short   flags;          /* jmptbl, cobol_main, weakext          */
+        short   ifd;            /* file this symbol came from           */
+        long    iss;            /* offset of name in external strings   */
+        long    value;          /* address                              */
+        unsigned long   type;   /* st, sc, reserved, index              */
+      } EXTR;
+
+#define SYM_ST(type)    ((type) & 0x3f)
+#define SYM_SC(type)    (((type) >> 6) & 0x1f)
+
+#define stProc          6       /* a procedure                          */
+#define stStaticProc    14      /* a static procedure                   */
+#define scText          1       /* in the text segment                  */
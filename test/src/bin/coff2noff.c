@@ -10,6 +10,10 @@
  * 	ld with  -N -T 0
  * to make sure the object file has no shared text.
  *
+ * The procedure names from the COFF symbol table are written, one
+ * "address name" pair per line, to <noffFileName>.sym, so that the
+ * JNachos profiler can tell which function a program counter is in.
+ *
  * Also assumes that the COFF file has at most 3 segments:
  *	.text	-- read-only executable instructions 
  *	.data	-- initialized data
@@ -66,6 +70,8 @@ ShortToHost(unsigned short shortword) {
 
 #define ReadStruct(f,s) 	Read(f,(char *)&s,sizeof(s))
 
+void WriteSymbols();
+
 extern char *malloc();
 char *noffFileName = NULL;
 
@@ -212,6 +218,62 @@ main (int argc, char **argv)
     }
     lseek(fdOut, 0, 0);
     Write(fdOut, (char *)&noffH, sizeof(NoffHeader));
+
+    fileh.f_symptr = WordToHost(fileh.f_symptr);
+    if (fileh.f_symptr != 0)
+	WriteSymbols(fdIn, fileh.f_symptr);
+
     close(fdIn);
     close(fdOut);
 }
+
+/* Write the text symbols of the COFF file to <noffFileName>.sym.  A
+ * program without a symbol table (e.g. one that was stripped) just
+ * gets no .sym file.
+ */
+void
+WriteSymbols(int fdIn, long symptr)
+{
+    HDRR symh;
+    EXTR ext;
+    char *strings, *symFileName;
+    FILE *symFile;
+    int i, type;
+
+    lseek(fdIn, symptr, 0);
+    ReadStruct(fdIn, symh);
+    symh.issExtMax = WordToHost(symh.issExtMax);
+    symh.cbSsExtOffset = WordToHost(symh.cbSsExtOffset);
+    symh.iextMax = WordToHost(symh.iextMax);
+    symh.cbExtOffset = WordToHost(symh.cbExtOffset);
+
+    strings = malloc(symh.issExtMax);
+    lseek(fdIn, symh.cbSsExtOffset, 0);
+    Read(fdIn, strings, symh.issExtMax);
+
+    symFileName = malloc(strlen(noffFileName) + 5);
+    sprintf(symFileName, "%s.sym", noffFileName);
+    symFile = fopen(symFileName, "w");
+    if (symFile == NULL) {
+	perror(symFileName);
+	free(strings);
+	free(symFileName);
+	return;
+    }
+
+    lseek(fdIn, symh.cbExtOffset, 0);
+    for (i = 0; i < symh.iextMax; i++) {
+	ReadStruct(fdIn, ext);
+	ext.iss = WordToHost(ext.iss);
+	ext.value = WordToHost(ext.value);
+	type = WordToHost(ext.type);
+	if ((SYM_ST(type) == stProc || SYM_ST(type) == stStaticProc)
+		&& SYM_SC(type) == scText && ext.iss < symh.issExtMax)
+	    fprintf(symFile, "%08lx %s\n", ext.value, strings + ext.iss);
+    }
+
+    printf("Wrote symbols to %s\n", symFileName);
+    fclose(symFile);
+    free(strings);
+    free(symFileName);
+}
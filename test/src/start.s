@@ -129,3 +129,14 @@ Yield:
 	syscall
 	j	$31
 	.end Yield
+
+/* ReadCounter returns a 64-bit count in $2 (low) and $3 (high), which is
+ * where the C compiler expects a "long long" result.
+ */
+	.globl ReadCounter
+	.ent	ReadCounter,0
+ReadCounter:
+	addiu $2,$0,SC_ReadCounter
+	syscall
+	j	$31
+	.end ReadCounter